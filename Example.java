@@ -1,20 +1,40 @@
+import edu.princeton.cs.randomhash.DuplicateDetector;
+import edu.princeton.cs.randomhash.FamilyAudit;
+import edu.princeton.cs.randomhash.HashBatchEvent;
+import edu.princeton.cs.randomhash.HashMetrics;
+import edu.princeton.cs.randomhash.MappedLines;
+import edu.princeton.cs.randomhash.MappedLines.LineConsumer;
 import edu.princeton.cs.randomhash.RandomHashFamily;
+import edu.princeton.cs.randomhash.StreamedLines;
+import edu.princeton.cs.randomhash.ThroughputBenchmark;
 import edu.princeton.cs.randomhash.UniformAudit;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The {@link edu.princeton.cs.randomhash.Example} class provides an example
  * client for both the {@link edu.princeton.cs.randomhash.RandomHashFamily}
- * class and the {@link edu.princeton.cs.randomhash.UniformAudit} class,
+ * class and the {@link edu.princeton.cs.randomhash.FamilyAudit} class,
  * which also happens to be a convenient command-line interface to the class.
  * <br/>
  * 
  * It allows for the hashing of arbitrary files, using the pseudo-random hash
- * family.
+ * family: plain files are memory-mapped, while the standard input ({@code -}),
+ * compressed files ({@code .gz}, {@code .deflate}) and directories are
+ * streamed (see {@link edu.princeton.cs.randomhash.StreamedLines}).
  *
  * @author Jérémie Lumbroso
  * @version 1.1.1
@@ -32,7 +52,8 @@ public class Example {
     public static int count = 100;
 
     /**
-     * Number of buckets to be used when running a {@link UniformAudit}.
+     * Number of buckets to be used when running a {@link FamilyAudit} (see
+     * {@link UniformAudit}).
      */
     public static int bucketCount = 10;
 
@@ -46,51 +67,220 @@ public class Example {
      */
     public static boolean checkDuplicates = true;
 
+    /**
+     * Boolean determining whether to measure the throughput of hashing, after
+     * the audit (see {@link ThroughputBenchmark}).
+     */
+    public static boolean bench = false;
+
+    /**
+     * Number of threads hashing the input file, each of which audits its own
+     * chunks of the file.
+     */
+    public static int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of chunks into which the input file is split for each thread, so
+     * that threads whose chunks are faster to hash can take over other chunks.
+     */
+    public final static int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Number of streamed lines whose fingerprint is that of an earlier line:
+     * they are most likely duplicates, but the earlier line is not kept, and
+     * cannot be compared with them (see {@link DuplicateDetector}).
+     */
+    private final static AtomicLong possibleDuplicates = new AtomicLong();
+
+    /**
+     * The first of the possible duplicates.
+     */
+    private final static AtomicReference<String> possibleDuplicate = new AtomicReference<String>();
+
+    /**
+     * Thrown when the input has a duplicate element, which makes the audit
+     * meaningless.
+     */
+    public static class DuplicateElementException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        public DuplicateElementException(String element) {
+            super("duplicate element found: " + element);
+        }
+    }
+
     public static void main(String[] args) throws Exception {
 
-        if (args.length >= 1 && args[0].equals("--help")) {
-            System.out.println("Usage:\n\n   java Example [<hash function count> [<bucket count> [<input file>]]]\n\n");
-            return;
+        List<String> arguments = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--help")) {
+                System.out.println(
+                        "Usage:\n\n   java Example [--allow-duplicates] [--threads=<n>] [--bench] [<hash function count> [<bucket count> [<input file, directory or ->]]]\n\n");
+                return;
+            } else if (arg.equals("--allow-duplicates")) {
+                checkDuplicates = false;
+            } else if (arg.equals("--bench")) {
+                bench = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else {
+                arguments.add(arg);
+            }
         }
 
-        if (args.length >= 1)
-            count = Integer.parseInt(args[0]);
-        if (args.length >= 2)
-            bucketCount = Integer.parseInt(args[1]);
-        if (args.length >= 3)
-            input_file = args[2];
+        if (arguments.size() >= 1)
+            count = Integer.parseInt(arguments.get(0));
+        if (arguments.size() >= 2)
+            bucketCount = Integer.parseInt(arguments.get(1));
+        if (arguments.size() >= 3)
+            input_file = arguments.get(2);
 
         RandomHashFamily rh = new RandomHashFamily(count);
-        UniformAudit ua = new UniformAudit(bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+        FamilyAudit fa = new FamilyAudit(count, bucketCount);
 
-        HashSet<String> elementsSeen = new HashSet<String>();
-
-        BufferedReader reader;
+        // each chunk of the input is audited separately, and the audits are merged:
+        // since they only count values, the result is the same as for a single
+        // thread reading the whole input
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ByteBuffer duplicate = null;
+        ThroughputBenchmark benchmark = null;
         try {
-            reader = new BufferedReader(new FileReader(input_file));
-
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-
-                if (checkDuplicates) {
-                    if (elementsSeen.contains(line)) {
-                        reader.close();
-                        throw new Exception("duplicate element found: " + line);
-                    }
-                    elementsSeen.add(line);
-                }
-
-                long[] hashes = rh.hashes(line);
-                for (int i = 0; i < count; i++)
-                    ua.update(hashes[i]);
-            }
-            reader.close();
+            Path path = Paths.get(input_file);
+            if (bench) {
+                // the input is read into memory, and audited in memory, which
+                // also warms up the JIT compiler before the measurements
+                benchmark = ThroughputBenchmark.load(StreamedLines.sources(path));
+                fa.merge(auditLines(benchmark::forEachLine, rh, null));
+                // the lines are in memory, and can be compared exactly
+                if (checkDuplicates)
+                    duplicate = benchmark.findDuplicate();
+            } else if (StreamedLines.isStreamed(path))
+                auditStream(rh, fa, path, pool);
+            else
+                duplicate = auditFile(rh, fa, path, pool);
+        } catch (ExecutionException e) {
+            // the exception thrown by a chunk
+            if (!(e.getCause() instanceof IOException))
+                throw e;
+            e.getCause().printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            pool.shutdown();
         }
 
+        if (duplicate != null)
+            throw new DuplicateElementException(Charset.defaultCharset().decode(duplicate).toString());
+
+        if (possibleDuplicates.get() > 0)
+            System.err.println("warning: " + possibleDuplicates.get()
+                    + " possible duplicate element(s), with the same 64-bit fingerprint as an earlier one, such as: "
+                    + possibleDuplicate.get());
+
         System.out.println("input: " + input_file);
         System.out.println("number of hash functions: " + count);
-        ua.printReport();
+        fa.printReport();
+
+        if (benchmark != null)
+            benchmark.printReport(rh, threads);
+
+        if (HashMetrics.ENABLED)
+            System.out.println("hash metrics: " + HashMetrics.global());
+    }
+
+    /**
+     * Audits the lines of a plain file, which is memory-mapped and split into
+     * chunks, and returns a line that appears twice, if duplicates are checked.
+     */
+    private static ByteBuffer auditFile(RandomHashFamily rh, FamilyAudit fa, Path path, ForkJoinPool pool)
+            throws IOException, InterruptedException, ExecutionException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = MappedLines.split(channel, threads * CHUNKS_PER_THREAD);
+
+            // lines are hashed in place, as bytes of the memory-mapped file, and
+            // never copied: duplicates are detected from fingerprints of the lines,
+            // and only the lines whose fingerprint was seen twice are compared,
+            // in a second pass over the file
+            DuplicateDetector detector = checkDuplicates ? new DuplicateDetector(MappedLines.estimateLineCount(channel)) : null;
+
+            List<Future<FamilyAudit>> chunks = new ArrayList<Future<FamilyAudit>>();
+            for (int c = 0; c + 1 < bounds.length; c++) {
+                long from = bounds[c], to = bounds[c + 1];
+                chunks.add(pool.submit(() -> auditLines(
+                        consumer -> MappedLines.forEachLine(channel, from, to, consumer), rh,
+                        (detector == null) ? null : detector::add)));
+            }
+            for (Future<FamilyAudit> chunk : chunks)
+                fa.merge(chunk.get());
+
+            if (detector == null || detector.candidateCount() == 0)
+                return null;
+            return pool.submit(() -> detector.findDuplicate(channel, bounds)).get();
+        }
+    }
+
+    /**
+     * Audits the lines of the standard input, a compressed file or a directory,
+     * which are read and decompressed by their own thread while the threads of
+     * the pool hash them.
+     */
+    private static void auditStream(RandomHashFamily rh, FamilyAudit fa, Path path, ForkJoinPool pool)
+            throws IOException, InterruptedException, ExecutionException {
+        LineConsumer check = fingerprintCheck();
+        try (StreamedLines lines = new StreamedLines(StreamedLines.sources(path))) {
+            List<Future<FamilyAudit>> chunks = new ArrayList<Future<FamilyAudit>>();
+            for (int t = 0; t < threads; t++)
+                chunks.add(pool.submit(() -> auditLines(lines::forEachLine, rh, checkDuplicates ? check : null)));
+            for (Future<FamilyAudit> chunk : chunks)
+                fa.merge(chunk.get());
+        }
+    }
+
+    /**
+     * Returns a duplicate check for lines that cannot be read twice, such as
+     * those of a stream: duplicates are detected from fingerprints alone, and
+     * are only possible duplicates, which are counted (in
+     * {@link #possibleDuplicates}) rather than stopping the audit.
+     */
+    private static LineConsumer fingerprintCheck() {
+        DuplicateDetector detector = new DuplicateDetector(1);
+        return (buffer, off, len) -> {
+            if (detector.addFingerprint(buffer, off, len) && possibleDuplicates.getAndIncrement() == 0)
+                possibleDuplicate.set(Charset.defaultCharset().decode(MappedLines.slice(buffer, off, len)).toString());
+        };
+    }
+
+    /**
+     * A source of lines, such as a chunk of a file, or a stream.
+     */
+    private interface LineSource {
+        long forEachLine(LineConsumer consumer) throws IOException;
+    }
+
+    /**
+     * Hashes the lines of a source, after checking each of them for duplicates
+     * (unless {@code check} is {@code null}), and returns their audit.
+     */
+    private static FamilyAudit auditLines(LineSource source, RandomHashFamily rh, LineConsumer check)
+            throws IOException {
+        FamilyAudit fa = new FamilyAudit(count, bucketCount);
+        long[] hashes = new long[count];
+        HashBatchEvent event = HashMetrics.ENABLED ? HashBatchEvent.begin(rh) : null;
+        long[] bytes = new long[1];
+
+        long keys = source.forEachLine((buffer, off, len) -> {
+
+            if (check != null)
+                check.accept(buffer, off, len);
+
+            rh.hashes(buffer, off, len, hashes);
+            fa.update(hashes);
+            bytes[0] += len;
+        });
+
+        if (event != null)
+            event.end(keys, bytes[0]);
+        return fa;
     }
 }
@@ -0,0 +1,103 @@
+package edu.princeton.cs.randomhash.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.princeton.cs.randomhash.FamilyAudit;
+import edu.princeton.cs.randomhash.MTRandom;
+import edu.princeton.cs.randomhash.RandomHashFamily;
+import edu.princeton.cs.randomhash.UniformAudit;
+
+/**
+ * Benchmarks the processing of hash values by the audits, one value at a time
+ * and in batches. The number of buckets and the range of the values select
+ * how values are mapped to buckets: for the range of
+ * {@link RandomHashFamily} ({@code maxValue = 2^32 - 1}), with a multiplication
+ * by a reciprocal; for {@code maxValue = 2^32}, with a shift if the number of
+ * buckets is a power of two, and with a division otherwise. Each operation
+ * processes one value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuditBenchmark {
+
+    /**
+     * The number of values of a batch.
+     */
+    private final static int BATCH = 1 << 10;
+
+    @Param({ "10", "16", "1000" })
+    public int bucketCount;
+
+    @Param({ "4294967295", "4294967296" })
+    public long maxValue;
+
+    private UniformAudit audit;
+
+    private FamilyAudit familyAudit;
+
+    private long[] values;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        this.audit = new UniformAudit(this.bucketCount, RandomHashFamily.MIN_VALUE, this.maxValue);
+        this.familyAudit = new FamilyAudit(BATCH, this.bucketCount, RandomHashFamily.MIN_VALUE, this.maxValue);
+
+        MTRandom mt = new MTRandom(42L);
+        this.values = new long[Keys.COUNT];
+        for (int i = 0; i < this.values.length; i++)
+            this.values[i] = Integer.toUnsignedLong(mt.nextInt());
+    }
+
+    /**
+     * Processes a single value (see {@link UniformAudit#update(long)}).
+     */
+    @Benchmark
+    public void update() {
+        this.audit.update(this.values[this.next++ & (Keys.COUNT - 1)]);
+    }
+
+    /**
+     * Processes a batch of values (see
+     * {@link UniformAudit#update(long[], int, int)}).
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void updateBatch() {
+        this.audit.update(this.values, this.nextBatch(), BATCH);
+    }
+
+    /**
+     * Processes the values of a key for a family of {@code 1024} functions (see
+     * {@link FamilyAudit#update(long[])}).
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void updateFamily() {
+        this.familyAudit.update(this.values);
+    }
+
+    private int nextBatch() {
+        int off = this.next;
+        this.next = (off + BATCH) & (Keys.COUNT - 1);
+        return off;
+    }
+}
@@ -0,0 +1,56 @@
+package edu.princeton.cs.randomhash.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate
+ * and allocations per operation next to the time per operation, and writes the
+ * results as JSON to {@code results/jmh-<date>.json}, so that runs can be
+ * archived and compared. <br/>
+ *
+ * The usual JMH options can be given on the command line ({@code -rf} and
+ * {@code -rff} replace the JSON results); for instance, to only run the
+ * hashing benchmarks of families of 100 functions:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar HashFamilyBenchmark -p count=100
+ * </pre>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+
+        // the options of the builder take precedence over those of the command line
+        if (!commandLine.getResultFormat().hasValue() && !commandLine.getResult().hasValue()) {
+            Path results = Paths.get("results");
+            Files.createDirectories(results);
+            String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            builder.resultFormat(ResultFormatType.JSON)
+                    .result(results.resolve("jmh-" + date + ".json").toString());
+        }
+
+        new Runner(builder.build()).run();
+    }
+}
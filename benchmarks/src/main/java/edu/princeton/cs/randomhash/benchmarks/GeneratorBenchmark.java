@@ -0,0 +1,152 @@
+package edu.princeton.cs.randomhash.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.princeton.cs.randomhash.MTRandom;
+import edu.princeton.cs.randomhash.RandomHashFamily;
+
+/**
+ * Benchmarks the Mersenne Twister, one value at a time and in streams, and the
+ * construction of families of various sizes, which draws two words per
+ * function. <br/>
+ *
+ * The generator is either {@link MTRandom}, whose {@code nextLong()},
+ * {@code nextInt(int)} and streams draw all the words they need under a single
+ * lock, or {@link Legacy}, the same generator behind the methods of
+ * {@link Random}, which draw each word with a call to {@code next(32)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratorBenchmark {
+
+    /**
+     * The size of the families to construct, in a state of its own, so that
+     * only {@link GeneratorBenchmark#construct(Family)} is run for each size.
+     */
+    @State(Scope.Benchmark)
+    public static class Family {
+
+        @Param({ "1", "16", "100", "1000" })
+        public int count;
+    }
+
+    /**
+     * The generator, in a state of its own, so that
+     * {@link GeneratorBenchmark#construct(Family)} is not run for each.
+     */
+    @State(Scope.Thread)
+    public static class Generator {
+
+        @Param({ "mt", "legacy" })
+        public String generator;
+
+        private Random rng;
+
+        @Setup
+        public void setup() {
+            MTRandom mt = new MTRandom(42L);
+            this.rng = this.generator.equals("mt") ? mt : new Legacy(mt);
+        }
+    }
+
+    /**
+     * The methods of {@link Random}, over the words of a Mersenne Twister drawn
+     * one at a time: each call of {@code next(32)} takes the lock of the
+     * generator, as those of {@code java.util.Random} do.
+     */
+    private final static class Legacy extends Random {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MTRandom mt;
+
+        Legacy(MTRandom mt) {
+            this.mt = mt;
+        }
+
+        @Override
+        protected int next(int bits) {
+            return this.mt.nextInt() >>> (32 - bits);
+        }
+    }
+
+    /**
+     * The number of values of each stream.
+     */
+    private final static int STREAM_SIZE = 1024;
+
+    /**
+     * Draws a 32-bit word.
+     */
+    @Benchmark
+    public int nextInt(Generator g) {
+        return g.rng.nextInt();
+    }
+
+    /**
+     * Draws a 64-bit word, from two 32-bit words.
+     */
+    @Benchmark
+    public long nextLong(Generator g) {
+        return g.rng.nextLong();
+    }
+
+    /**
+     * Draws an integer below a bound that is not a power of two.
+     */
+    @Benchmark
+    public int nextIntBounded(Generator g) {
+        return g.rng.nextInt(1000003);
+    }
+
+    /**
+     * Draws a stream of {@link #STREAM_SIZE} 32-bit words.
+     */
+    @Benchmark
+    public int ints(Generator g) {
+        return g.rng.ints(STREAM_SIZE).sum();
+    }
+
+    /**
+     * Draws a stream of {@link #STREAM_SIZE} integers below a bound that is
+     * not a power of two.
+     */
+    @Benchmark
+    public int intsBounded(Generator g) {
+        return g.rng.ints(STREAM_SIZE, 0, 1000003).sum();
+    }
+
+    /**
+     * Draws a stream of {@link #STREAM_SIZE} 64-bit words.
+     */
+    @Benchmark
+    public long longs(Generator g) {
+        return g.rng.longs(STREAM_SIZE).sum();
+    }
+
+    /**
+     * Constructs a family of {@code count} functions, which includes seeding a
+     * new Mersenne Twister.
+     */
+    @Benchmark
+    public RandomHashFamily construct(Family family) {
+        return new RandomHashFamily(42L, family.count);
+    }
+}
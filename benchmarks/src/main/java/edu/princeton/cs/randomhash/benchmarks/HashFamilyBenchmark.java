@@ -0,0 +1,101 @@
+package edu.princeton.cs.randomhash.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.princeton.cs.randomhash.ChecksumHashFamily;
+import edu.princeton.cs.randomhash.RandomHashFamily;
+import edu.princeton.cs.randomhash.TabulationHashFamily;
+
+/**
+ * Benchmarks the hashing of a key by all the functions of a family, or by its
+ * first function only, for families of various sizes, keys of various
+ * lengths, and the base hash functions of {@link ChecksumHashFamily} or the
+ * tabulation hashing of {@link TabulationHashFamily}. Each operation hashes
+ * one key, taken in turn from {@link Keys}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashFamilyBenchmark {
+
+    @Param({ "1", "16", "100", "1000" })
+    public int count;
+
+    @Param({ Keys.NATURAL, "8", "64", "1024" })
+    public String keyLength;
+
+    @Param({ "crc32", "crc32c", "adler32", "tabulation" })
+    public String hasher;
+
+    private RandomHashFamily family;
+
+    private byte[][] keys;
+
+    private String[] strings;
+
+    private long[] hashes;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        // the default base hash function of the library is CRC32, without the
+        // indirection of ChecksumHashFamily
+        if (this.hasher.equals("crc32"))
+            this.family = new RandomHashFamily(42L, this.count);
+        else if (this.hasher.equals("tabulation"))
+            this.family = new TabulationHashFamily(42L, this.count);
+        else
+            this.family = new ChecksumHashFamily(42L, this.count, this.hasher);
+        this.keys = Keys.load(this.keyLength);
+        this.strings = Keys.strings(this.keys);
+        this.hashes = new long[this.count];
+    }
+
+    private int nextKey() {
+        return this.next++ & (Keys.COUNT - 1);
+    }
+
+    /**
+     * Hashes a key, as bytes, with all the functions of the family.
+     */
+    @Benchmark
+    public long[] hashes() {
+        byte[] key = this.keys[this.nextKey()];
+        this.family.hashes(key, 0, key.length, this.hashes);
+        return this.hashes;
+    }
+
+    /**
+     * Hashes a key, as a string, with all the functions of the family; the
+     * difference with {@link #hashes()} is the cost of encoding the string.
+     */
+    @Benchmark
+    public long[] hashesString() {
+        this.family.hashes(this.strings[this.nextKey()], this.hashes);
+        return this.hashes;
+    }
+
+    /**
+     * Hashes a key, as bytes, with the first function of the family only.
+     */
+    @Benchmark
+    public long hash() {
+        return this.family.hash(this.keys[this.nextKey()]);
+    }
+}
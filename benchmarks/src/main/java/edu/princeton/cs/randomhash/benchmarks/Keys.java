@@ -0,0 +1,103 @@
+package edu.princeton.cs.randomhash.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The keys of the benchmarks, which are taken from {@code data/normalized.txt}
+ * (the words of a novel), so that the benchmarks hash realistic keys rather
+ * than random bytes. <br/>
+ *
+ * The file is looked for in the current directory and its parent, so that the
+ * benchmarks can be run from the root of the repository or from this module;
+ * another file can be given with the system property {@code randomhash.keys}.
+ */
+final class Keys {
+
+    /**
+     * The value of the {@code keyLength} parameter of the benchmarks for the
+     * words of the file as they are, of 1 to 20 bytes (5 on average).
+     */
+    final static String NATURAL = "natural";
+
+    /**
+     * The number of keys of each benchmark, a power of two, so that keys are
+     * picked with a mask rather than a division.
+     */
+    final static int COUNT = 1 << 14;
+
+    private Keys() {
+    }
+
+    /**
+     * Returns {@link #COUNT} keys: the words of the file, or, for a fixed key
+     * length, pieces of that length of the text of the file (its words, with
+     * the line terminators).
+     *
+     * @param keyLength {@link #NATURAL}, or the length of the keys, in bytes
+     * @return byte[][] The keys
+     */
+    static byte[][] load(String keyLength) {
+        List<byte[]> words = words();
+        byte[][] keys = new byte[COUNT][];
+
+        if (keyLength.equals(NATURAL)) {
+            for (int i = 0; i < COUNT; i++)
+                keys[i] = words.get(i % words.size());
+            return keys;
+        }
+
+        int length = Integer.parseInt(keyLength);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        for (int w = 0; text.size() < COUNT * length; w = (w + 1) % words.size()) {
+            text.write(words.get(w), 0, words.get(w).length);
+            text.write('\n');
+        }
+        byte[] bytes = text.toByteArray();
+        for (int i = 0; i < COUNT; i++)
+            keys[i] = Arrays.copyOfRange(bytes, i * length, (i + 1) * length);
+        return keys;
+    }
+
+    /**
+     * Returns the keys as strings, decoded from their bytes.
+     */
+    static String[] strings(byte[][] keys) {
+        String[] strings = new String[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            strings[i] = new String(keys[i], StandardCharsets.UTF_8);
+        return strings;
+    }
+
+    private static List<byte[]> words() {
+        Path path = path();
+        List<byte[]> words = new ArrayList<byte[]>();
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+                if (!line.isEmpty())
+                    words.add(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read the keys from " + path, e);
+        }
+        return words;
+    }
+
+    private static Path path() {
+        String property = System.getProperty("randomhash.keys");
+        if (property != null)
+            return Paths.get(property);
+
+        Path path = Paths.get("data", "normalized.txt");
+        if (!Files.exists(path) && Files.exists(Paths.get("..").resolve(path)))
+            return Paths.get("..").resolve(path);
+        return path;
+    }
+}
@@ -0,0 +1,107 @@
+package edu.princeton.cs.randomhash.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.princeton.cs.randomhash.HashMetrics;
+import edu.princeton.cs.randomhash.RandomHashFamily;
+
+/**
+ * Benchmarks the cost of the instrumentation of {@link HashMetrics}: hashing
+ * a key with the instrumentation disabled (the default) must take the same
+ * time as with a family from which the instrumentation is removed
+ * ({@link #uninstrumented()}), and the benchmark run in a JVM where it is
+ * enabled ({@link #enabled()}) shows what the counters cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    @Param({ "1", "100" })
+    public int count;
+
+    private RandomHashFamily family;
+
+    private RandomHashFamily baseline;
+
+    private byte[][] keys;
+
+    private long[] hashes;
+
+    private int next;
+
+    /**
+     * A family that hashes keys as {@link RandomHashFamily} did before it was
+     * instrumented.
+     */
+    static final class UninstrumentedFamily extends RandomHashFamily {
+
+        UninstrumentedFamily(long seed, int count) {
+            super(seed, count);
+        }
+
+        @Override
+        public void hashes(byte[] key, int off, int len, long[] hashes) {
+            this.fillHashes(this.baseHash(key, off, len), hashes, Math.min(hashes.length, this.count));
+        }
+    }
+
+    @Setup
+    public void setup() {
+        this.family = new RandomHashFamily(42L, this.count);
+        this.baseline = new UninstrumentedFamily(42L, this.count);
+        this.keys = Keys.load(Keys.NATURAL);
+        this.hashes = new long[this.count];
+    }
+
+    private byte[] nextKey() {
+        return this.keys[this.next++ & (Keys.COUNT - 1)];
+    }
+
+    /**
+     * Hashes a key with a family whose hashing is not instrumented at all.
+     */
+    @Benchmark
+    public long[] uninstrumented() {
+        byte[] key = this.nextKey();
+        this.baseline.hashes(key, 0, key.length, this.hashes);
+        return this.hashes;
+    }
+
+    /**
+     * Hashes a key with the instrumentation disabled.
+     */
+    @Benchmark
+    public long[] disabled() {
+        byte[] key = this.nextKey();
+        this.family.hashes(key, 0, key.length, this.hashes);
+        return this.hashes;
+    }
+
+    /**
+     * Hashes a key with the instrumentation enabled, which updates the
+     * counters of {@link HashMetrics#global()}.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-D" + HashMetrics.PROPERTY + "=true")
+    public long[] enabled() {
+        byte[] key = this.nextKey();
+        this.family.hashes(key, 0, key.length, this.hashes);
+        return this.hashes;
+    }
+}
@@ -0,0 +1,195 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes snapshots of a {@link UniformAudit} (see {@link AuditSnapshot}) to a
+ * {@link Writer} at a fixed interval, for instance to monitor the hash values
+ * of a live stream, which may be audited for hours. <br/>
+ *
+ * Each snapshot is written on its own line, as a JSON object (JSON Lines) or
+ * as a CSV record (after a header line), followed by the snapshot of the
+ * values processed since the previous one: in JSON, as a {@code "delta"}
+ * object; in CSV, as a second record whose {@code kind} column is
+ * {@code delta} (and {@code total} for the snapshot itself). Snapshots are
+ * taken on a daemon thread, without stopping the threads that update the
+ * audit, which should therefore be a {@link ConcurrentUniformAudit}. If a
+ * periodic snapshot fails, the reporter stops, and the failure is thrown by
+ * {@link #close()}, which otherwise writes a last snapshot.
+ */
+public class AuditReporter implements Closeable {
+
+    /**
+     * The formats in which snapshots can be written.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line.
+         */
+        JSON,
+        /**
+         * One CSV record per line, after a header line.
+         */
+        CSV
+    }
+
+    private final UniformAudit audit;
+
+    private final Writer out;
+
+    private final Format format;
+
+    private final double confidence;
+
+    private final ScheduledExecutorService scheduler;
+
+    private AuditSnapshot last;
+
+    /**
+     * The failure of a periodic snapshot, an {@link IOException} or a
+     * {@link RuntimeException}, or {@code null}.
+     */
+    private volatile Exception failure;
+
+    private boolean closed;
+
+    /**
+     * Creates a new {@link AuditReporter} and starts writing snapshots, with a
+     * uniformity verdict at 90% confidence.
+     *
+     * @param audit    The audit to report on
+     * @param out      The writer to which snapshots are written
+     * @param format   The format of the snapshots
+     * @param interval The interval between snapshots
+     * @param unit     The unit of the interval
+     * @throws IOException If the CSV header cannot be written
+     */
+    public AuditReporter(UniformAudit audit, Writer out, Format format, long interval, TimeUnit unit)
+            throws IOException {
+        this(audit, out, format, interval, unit, 0.90);
+    }
+
+    /**
+     * Creates a new {@link AuditReporter} and starts writing snapshots.
+     *
+     * @param audit      The audit to report on
+     * @param out        The writer to which snapshots are written
+     * @param format     The format of the snapshots
+     * @param interval   The interval between snapshots
+     * @param unit       The unit of the interval
+     * @param confidence The confidence level of the uniformity verdicts
+     * @throws IOException If the CSV header cannot be written
+     */
+    public AuditReporter(UniformAudit audit, Writer out, Format format, long interval, TimeUnit unit,
+            double confidence) throws IOException {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must be strictly positive");
+
+        this.audit = audit;
+        this.out = out;
+        this.format = format;
+        this.confidence = confidence;
+        this.last = audit.snapshot(confidence);
+
+        if (format == Format.CSV) {
+            out.write(AuditSnapshot.csvHeader(audit.bucketCount));
+            out.write('\n');
+            out.flush();
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "audit-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::report, interval, interval, unit);
+    }
+
+    private void report() {
+        try {
+            this.report(this.audit.snapshot(this.confidence));
+        } catch (IOException | RuntimeException e) {
+            // stop reporting; the failure is thrown by close(), since the
+            // scheduler would otherwise swallow it
+            this.failure = e;
+            this.scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the audit and writes it now, in addition to the
+     * periodic snapshots.
+     *
+     * @return AuditSnapshot The snapshot that was written
+     * @throws IOException If the snapshot cannot be written
+     */
+    public AuditSnapshot reportNow() throws IOException {
+        AuditSnapshot snapshot = this.audit.snapshot(this.confidence);
+        this.report(snapshot);
+        return snapshot;
+    }
+
+    private synchronized void report(AuditSnapshot snapshot) throws IOException {
+        if (this.closed)
+            return;
+
+        AuditSnapshot delta = snapshot.delta(this.last);
+        this.last = snapshot;
+
+        if (this.format == Format.JSON) {
+            String json = snapshot.toJson();
+            this.out.write(json, 0, json.length() - 1);
+            this.out.write(",\"delta\":");
+            this.out.write(delta.toJson());
+            this.out.write("}\n");
+        } else {
+            this.out.write(snapshot.toCsv());
+            this.out.write('\n');
+            this.out.write(delta.toCsv());
+            this.out.write('\n');
+        }
+        this.out.flush();
+    }
+
+    /**
+     * Returns the last snapshot written, or the snapshot taken when this
+     * reporter was created if none has been written yet.
+     *
+     * @return AuditSnapshot The last snapshot
+     */
+    public synchronized AuditSnapshot lastSnapshot() {
+        return this.last;
+    }
+
+    /**
+     * Stops the periodic snapshots, and writes a last one. The writer is not
+     * closed.
+     *
+     * @throws IOException      If a snapshot could not be written
+     * @throws RuntimeException If a periodic snapshot failed with it
+     */
+    @Override
+    public void close() throws IOException {
+        this.scheduler.shutdown();
+        try {
+            this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Exception failure = this.failure;
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure != null)
+            throw (RuntimeException) failure;
+
+        this.report(this.audit.snapshot(this.confidence));
+        synchronized (this) {
+            this.closed = true;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package edu.princeton.cs.randomhash;
+
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * An immutable snapshot of the state of a {@link UniformAudit}: its bucket
+ * counts, total, Chi Square statistic and uniformity verdict, at a given time.
+ * <br/>
+ *
+ * Snapshots are taken with {@link UniformAudit#snapshot()}, which copies the
+ * counters instead of locking them, so that an audit can be observed while it
+ * is being updated (for instance a {@link ConcurrentUniformAudit} fed by
+ * hashing threads); the total of a snapshot is always the sum of its counts.
+ * The difference between two snapshots of the same audit, with
+ * {@link #delta(AuditSnapshot)}, describes the values processed in between.
+ * Snapshots can be written as JSON objects or CSV records, as done
+ * periodically by {@link AuditReporter}.
+ */
+public final class AuditSnapshot {
+
+    private final long timestamp;
+
+    private final long[] counts;
+
+    private final long total;
+
+    private final double confidence;
+
+    private final double chiSquaredStatistic;
+
+    private final double pValue;
+
+    private final boolean likelyUniform;
+
+    /**
+     * Whether this snapshot is the difference between two snapshots (see
+     * {@link #delta(AuditSnapshot)}).
+     */
+    private final boolean delta;
+
+    /**
+     * Creates a new {@link AuditSnapshot} from bucket counts, which are not
+     * copied.
+     *
+     * @param timestamp  The time of the snapshot, in milliseconds since the epoch
+     * @param counts     The number of hash values in each bucket
+     * @param confidence The confidence level of the uniformity verdict
+     */
+    AuditSnapshot(long timestamp, long[] counts, double confidence) {
+        this(timestamp, counts, confidence, false);
+    }
+
+    private AuditSnapshot(long timestamp, long[] counts, double confidence, boolean delta) {
+        this.delta = delta;
+        this.timestamp = timestamp;
+        this.counts = counts;
+        this.confidence = confidence;
+
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        this.total = total;
+
+        int df = counts.length - 1;
+        this.chiSquaredStatistic = UniformAudit.chiSquaredStatistic(counts);
+        if (df > 0) {
+            this.pValue = ChiSquared.pValue(df, this.chiSquaredStatistic);
+            this.likelyUniform = UniformAudit.acceptNullHypothesis(df, this.chiSquaredStatistic, confidence);
+        } else {
+            this.pValue = 1.0;
+            this.likelyUniform = true;
+        }
+    }
+
+    /**
+     * Returns the time of this snapshot.
+     *
+     * @return long The time of this snapshot, in milliseconds since the epoch
+     */
+    public long timestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return int The number of buckets
+     */
+    public int bucketCount() {
+        return this.counts.length;
+    }
+
+    /**
+     * Returns the number of hash values in each bucket, as a new array.
+     *
+     * @return long[] An array with the number of hash values in each bucket
+     */
+    public long[] bucketCounts() {
+        return this.counts.clone();
+    }
+
+    /**
+     * Returns the total number of hash values, which is the sum of the bucket
+     * counts.
+     *
+     * @return long The total number of hash values
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Returns Pearson's Chi Square statistic of the bucket counts (see
+     * {@link UniformAudit#chiSquaredStatistic()}).
+     *
+     * @return double Pearson's Chi Square statistic
+     */
+    public double chiSquaredStatistic() {
+        return this.chiSquaredStatistic;
+    }
+
+    /**
+     * Returns the p-value of the Chi Square statistic.
+     *
+     * @return double The p-value of the Chi Square statistic
+     */
+    public double pValue() {
+        return this.pValue;
+    }
+
+    /**
+     * Returns the confidence level of the uniformity verdict.
+     *
+     * @return double The confidence level
+     */
+    public double confidence() {
+        return this.confidence;
+    }
+
+    /**
+     * Returns {@code true} if the hash values are consistent with a uniform
+     * distribution, at the confidence level of this snapshot (see
+     * {@link UniformAudit#isLikelyUniform(double)}).
+     *
+     * @return boolean The uniformity verdict
+     */
+    public boolean isLikelyUniform() {
+        return this.likelyUniform;
+    }
+
+    /**
+     * Returns {@code true} if this snapshot is the difference between two
+     * snapshots (see {@link #delta(AuditSnapshot)}), rather than the state of
+     * an audit.
+     *
+     * @return boolean Whether this snapshot is a delta
+     */
+    public boolean isDelta() {
+        return this.delta;
+    }
+
+    /**
+     * Returns the difference between this snapshot and an earlier snapshot of
+     * the same audit: a snapshot of the hash values processed in between, with
+     * the time of this snapshot.
+     *
+     * @param previous An earlier snapshot of the same audit
+     * @return AuditSnapshot The snapshot of the hash values processed since
+     *         {@code previous}
+     */
+    public AuditSnapshot delta(AuditSnapshot previous) {
+        if (previous.counts.length != this.counts.length)
+            throw new IllegalArgumentException("snapshots have different bucket counts");
+
+        long[] counts = new long[this.counts.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = this.counts[i] - previous.counts[i];
+        return new AuditSnapshot(this.timestamp, counts, this.confidence, true);
+    }
+
+    // ==============================================================================
+    // Output formats
+
+    /**
+     * Returns this snapshot as a JSON object, on a single line.
+     *
+     * @return String The JSON representation of this snapshot
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(64 + 12 * this.counts.length);
+        sb.append("{\"timestamp\":\"").append(Instant.ofEpochMilli(this.timestamp)).append('"');
+        sb.append(",\"total\":").append(this.total);
+        sb.append(",\"chiSquared\":").append(format(this.chiSquaredStatistic));
+        sb.append(",\"pValue\":").append(format(this.pValue));
+        sb.append(",\"confidence\":").append(format(this.confidence));
+        sb.append(",\"uniform\":").append(this.likelyUniform);
+        sb.append(",\"buckets\":[");
+        for (int i = 0; i < this.counts.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(this.counts[i]);
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Returns the header of the CSV records of snapshots with the given number
+     * of buckets (see {@link #toCsv()}). The {@code kind} column tells the
+     * state of an audit ({@code total}) from the difference between two
+     * snapshots ({@code delta}).
+     *
+     * @param bucketCount The number of buckets
+     * @return String The CSV header
+     */
+    public static String csvHeader(int bucketCount) {
+        StringBuilder sb = new StringBuilder("timestamp,kind,total,chi_squared,p_value,confidence,uniform");
+        for (int i = 0; i < bucketCount; i++)
+            sb.append(",bucket_").append(i);
+        return sb.toString();
+    }
+
+    /**
+     * Returns this snapshot as a CSV record, with the columns given by
+     * {@link #csvHeader(int)}.
+     *
+     * @return String The CSV representation of this snapshot
+     */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder(64 + 12 * this.counts.length);
+        sb.append(Instant.ofEpochMilli(this.timestamp));
+        sb.append(',').append(this.delta ? "delta" : "total");
+        sb.append(',').append(this.total);
+        sb.append(',').append(format(this.chiSquaredStatistic));
+        sb.append(',').append(format(this.pValue));
+        sb.append(',').append(format(this.confidence));
+        sb.append(',').append(this.likelyUniform);
+        for (long count : this.counts)
+            sb.append(',').append(count);
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+
+    @Override
+    public String toString() {
+        return this.toJson();
+    }
+}
@@ -0,0 +1,408 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Companion class to {@link RandomHashFamily}, which audits the individual
+ * bits of the values produced by its pseudo-random hash functions, where
+ * {@link UniformAudit} only audits the distribution of the values. <br/>
+ *
+ * For each key that is audited, every bit of the key (up to a given key
+ * length) is flipped in turn, and every output bit of every hash function of
+ * the family is checked for whether it flipped as well: for a good hash
+ * function, each output bit flips with probability 1/2 when any input bit
+ * flips (the strict avalanche criterion), and each output bit is set with
+ * probability 1/2. The audit accumulates a matrix of flip counts, with one row
+ * per input bit and one column per output bit, pooled over all the hash
+ * functions of the family, as well as the number of times each output bit is
+ * set. <br/>
+ *
+ * Keys can be fed one at a time, in batches of sampled keys, or be drawn at
+ * random; batches and random keys are audited in parallel, on the common
+ * fork-join pool, in private counters which are then merged, so the result
+ * does not depend on the number of threads.
+ */
+public class AvalancheAudit {
+
+    /**
+     * The number of bits in the values produced by the pseudo-random hash
+     * functions.
+     */
+    public final static int OUTPUT_BITS = 32;
+
+    /**
+     * The number of sampled keys audited by each parallel task, and the
+     * smallest number of random keys drawn from each generator.
+     */
+    protected final static int CHUNK = 1 << 16;
+
+    /**
+     * The largest number of generators from which random keys are drawn, in
+     * parallel: they are split off a single generator one after the other, and
+     * each split costs a jump of a few milliseconds.
+     */
+    protected final static int STREAMS = 64;
+
+    /**
+     * The family of pseudo-random hash functions that is being audited.
+     */
+    protected final RandomHashFamily family;
+
+    /**
+     * The largest number of bytes of each key whose bits are flipped.
+     */
+    protected final int keyLength;
+
+    /**
+     * The number of input bits, that is, {@code 8 * keyLength}.
+     */
+    protected final int inputBits;
+
+    /**
+     * The accumulated counts.
+     */
+    private final Counts counts;
+
+    /**
+     * Creates a new {@link AvalancheAudit} instance.
+     *
+     * @param family    The family of pseudo-random hash functions to audit
+     * @param keyLength The number of bytes of each key whose bits are flipped;
+     *                  longer keys are hashed in full, but only the bits of their
+     *                  first {@code keyLength} bytes are flipped
+     */
+    public AvalancheAudit(RandomHashFamily family, int keyLength) {
+        if (keyLength <= 0)
+            throw new IllegalArgumentException("keyLength must be strictly positive");
+
+        this.family = family;
+        this.keyLength = keyLength;
+        this.inputBits = 8 * keyLength;
+        this.counts = new Counts();
+    }
+
+    /**
+     * Resets all internal counters to zero.
+     */
+    public synchronized void reset() {
+        this.counts.clear();
+    }
+
+    // ==============================================================================
+    // Updating the audit
+
+    /**
+     * Audits a single key.
+     *
+     * @param key A byte array key
+     */
+    public void update(byte[] key) {
+        this.update(key, 0, key.length);
+    }
+
+    /**
+     * Audits a single key, given as a range of bytes.
+     *
+     * @param key A byte array containing the key
+     * @param off The offset of the key in the array
+     * @param len The length of the key, in bytes
+     */
+    public synchronized void update(byte[] key, int off, int len) {
+        this.counts.audit(key, off, len);
+    }
+
+    /**
+     * Audits a batch of sampled keys, in parallel, with the same result as
+     * calling {@link #update(byte[])} on each of them.
+     *
+     * @param keys A list of byte array keys
+     */
+    public void update(List<byte[]> keys) {
+        int chunks = (keys.size() + CHUNK - 1) / CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            Counts partial = new Counts();
+            for (byte[] key : keys.subList(c * CHUNK, Math.min(keys.size(), (c + 1) * CHUNK)))
+                partial.audit(key, 0, key.length);
+            this.merge(partial);
+        });
+    }
+
+    /**
+     * Audits the given number of random keys of {@code keyLength} bytes, in
+     * parallel. The keys only depend on the seed and on their number: they are
+     * drawn from at most {@link #STREAMS} generators split off a
+     * {@link MTRandom} with this seed (see {@link MTRandom#split()}), each of
+     * which draws a contiguous share of the keys in its own parallel task.
+     *
+     * @param seed     The seed of the generator of the keys
+     * @param keyCount The number of keys to audit
+     */
+    public void updateRandomKeys(long seed, long keyCount) {
+        if (keyCount < 0)
+            throw new IllegalArgumentException("keyCount must be non-negative");
+
+        int streams = (int) Math.max(1, Math.min(STREAMS, keyCount / CHUNK));
+        MTRandom root = new MTRandom(seed);
+        MTRandom[] generators = new MTRandom[streams];
+        for (int s = 0; s < streams; s++)
+            generators[s] = root.split();
+
+        IntStream.range(0, streams).parallel().forEach(s -> {
+            Counts partial = new Counts();
+            byte[] key = new byte[this.keyLength];
+            long n = keyCount / streams + ((s < keyCount % streams) ? 1 : 0);
+            for (long i = 0; i < n; i++) {
+                generators[s].nextBytes(key);
+                partial.audit(key, 0, key.length);
+            }
+            this.merge(partial);
+        });
+    }
+
+    private synchronized void merge(Counts partial) {
+        this.counts.add(partial);
+    }
+
+    // ==============================================================================
+    // Reading the audit
+
+    /**
+     * Returns the number of keys that have been audited so far.
+     *
+     * @return long The number of keys that have been audited
+     */
+    public synchronized long keyCount() {
+        return this.counts.keys;
+    }
+
+    /**
+     * Returns the empirical probability that the given output bit flips when
+     * the given input bit flips, over all audited keys and hash functions.
+     *
+     * @param inputBit  The index of the input bit, from {@code 0} (the least
+     *                  significant bit of the first byte) to
+     *                  {@code 8 * keyLength - 1}
+     * @param outputBit The index of the output bit, from {@code 0} (the least
+     *                  significant bit) to {@code OUTPUT_BITS - 1}
+     * @return double The probability that the output bit flips, or {@code NaN}
+     *         if no key long enough has been audited
+     */
+    public synchronized double flipProbability(int inputBit, int outputBit) {
+        if (inputBit < 0 || inputBit >= this.inputBits || outputBit < 0 || outputBit >= OUTPUT_BITS)
+            throw new IndexOutOfBoundsException();
+        return (double) this.counts.flips[inputBit * OUTPUT_BITS + outputBit] / this.counts.trials[inputBit];
+    }
+
+    /**
+     * Returns the matrix of the probabilities that each output bit flips when
+     * each input bit flips (see {@link #flipProbability(int, int)}), with one
+     * row per input bit.
+     *
+     * @return double[][] The matrix of flip probabilities
+     */
+    public synchronized double[][] flipProbabilities() {
+        double[][] matrix = new double[this.inputBits][OUTPUT_BITS];
+        for (int i = 0; i < this.inputBits; i++)
+            for (int o = 0; o < OUTPUT_BITS; o++)
+                matrix[i][o] = (double) this.counts.flips[i * OUTPUT_BITS + o] / this.counts.trials[i];
+        return matrix;
+    }
+
+    /**
+     * Returns the empirical probability that the given output bit is set, over
+     * all audited keys and hash functions.
+     *
+     * @param outputBit The index of the output bit, from {@code 0} (the least
+     *                  significant bit) to {@code OUTPUT_BITS - 1}
+     * @return double The probability that the output bit is set
+     */
+    public synchronized double bitProbability(int outputBit) {
+        if (outputBit < 0 || outputBit >= OUTPUT_BITS)
+            throw new IndexOutOfBoundsException();
+        return (double) this.counts.ones[outputBit] / this.counts.outputs;
+    }
+
+    /**
+     * Returns the largest deviation from 1/2 of the flip probabilities.
+     *
+     * @return double The largest value of {@code |p - 1/2|} in the matrix of
+     *         flip probabilities
+     */
+    public synchronized double maxAvalancheError() {
+        double max = 0.0;
+        for (int i = 0; i < this.inputBits; i++)
+            for (int o = 0; o < OUTPUT_BITS; o++)
+                if (this.counts.trials[i] > 0)
+                    max = Math.max(max, Math.abs(
+                            (double) this.counts.flips[i * OUTPUT_BITS + o] / this.counts.trials[i] - 0.5));
+        return max;
+    }
+
+    /**
+     * Returns the largest deviation from 1/2 of the probabilities that the
+     * output bits are set.
+     *
+     * @return double The largest value of {@code |p - 1/2|} over the output bits
+     */
+    public synchronized double maxBiasError() {
+        double max = 0.0;
+        for (int o = 0; o < OUTPUT_BITS && this.counts.outputs > 0; o++)
+            max = Math.max(max, Math.abs((double) this.counts.ones[o] / this.counts.outputs - 0.5));
+        return max;
+    }
+
+    /**
+     * Returns the p-value of the hypothesis that every output bit flips with
+     * probability 1/2 when any input bit flips, with a chi-square test over all
+     * the cells of the matrix of flip counts.
+     *
+     * @return double The p-value of the avalanche hypothesis
+     */
+    public synchronized double avalanchePValue() {
+        double statistic = 0.0;
+        int df = 0;
+        for (int i = 0; i < this.inputBits; i++) {
+            long n = this.counts.trials[i];
+            if (n == 0)
+                continue;
+            for (int o = 0; o < OUTPUT_BITS; o++) {
+                double d = 2.0 * this.counts.flips[i * OUTPUT_BITS + o] - n;
+                statistic += d * d / n;
+                df++;
+            }
+        }
+        return (df == 0) ? 1.0 : ChiSquared.pValue(df, statistic);
+    }
+
+    /**
+     * Returns the p-value of the hypothesis that every output bit is set with
+     * probability 1/2, with a chi-square test over the output bits.
+     *
+     * @return double The p-value of the hypothesis that the output bits are
+     *         unbiased
+     */
+    public synchronized double biasPValue() {
+        long n = this.counts.outputs;
+        if (n == 0)
+            return 1.0;
+        double statistic = 0.0;
+        for (int o = 0; o < OUTPUT_BITS; o++) {
+            double d = 2.0 * this.counts.ones[o] - n;
+            statistic += d * d / n;
+        }
+        return ChiSquared.pValue(OUTPUT_BITS, statistic);
+    }
+
+    /**
+     * Prints a report on the standard output, which describes the audited keys,
+     * the worst deviations of the flip and bit probabilities, and the p-values
+     * of the corresponding tests.
+     */
+    public synchronized void printReport() {
+        System.out.println("avalanche report:");
+        System.out.println("> hash functions: " + this.family.count());
+        System.out.println("> input bits flipped: " + this.inputBits + " (" + this.keyLength + " bytes)");
+        System.out.println("> total keys audited: " + this.counts.keys);
+        System.out.print("> worst |p(flip) - 0.5| per output bit: [ ");
+        for (int o = 0; o < OUTPUT_BITS; o++) {
+            double max = 0.0;
+            for (int i = 0; i < this.inputBits; i++)
+                if (this.counts.trials[i] > 0)
+                    max = Math.max(max, Math.abs(
+                            (double) this.counts.flips[i * OUTPUT_BITS + o] / this.counts.trials[i] - 0.5));
+            System.out.printf("%.3f ", max);
+        }
+        System.out.println(" ]");
+        System.out.printf("> worst |p(flip) - 0.5|: %f (p-value %f)\n", this.maxAvalancheError(),
+                this.avalanchePValue());
+        System.out.printf("> worst |p(bit set) - 0.5|: %f (p-value %f)\n", this.maxBiasError(), this.biasPValue());
+    }
+
+    // ==============================================================================
+    // Counting
+
+    /**
+     * Counters of a set of audited keys, with the buffers needed to audit them;
+     * each parallel task audits its keys in its own instance.
+     */
+    private final class Counts {
+
+        /**
+         * Number of times each output bit flipped when each input bit flipped,
+         * at {@code inputBit * OUTPUT_BITS + outputBit}.
+         */
+        final long[] flips = new long[inputBits * OUTPUT_BITS];
+
+        /**
+         * Number of hash values computed with each input bit flipped.
+         */
+        final long[] trials = new long[inputBits];
+
+        /**
+         * Number of times each output bit was set.
+         */
+        final long[] ones = new long[OUTPUT_BITS];
+
+        /**
+         * Number of hash values computed for the keys as given.
+         */
+        long outputs;
+
+        /**
+         * Number of audited keys.
+         */
+        long keys;
+
+        private final long[] hashes = new long[family.count()];
+        private final long[] flipped = new long[family.count()];
+        private byte[] key = new byte[keyLength];
+
+        void audit(byte[] src, int off, int len) {
+            if (this.key.length < len)
+                this.key = new byte[len];
+            System.arraycopy(src, off, this.key, 0, len);
+
+            int count = this.hashes.length;
+            family.hashes(this.key, 0, len, this.hashes);
+            for (int f = 0; f < count; f++)
+                for (long h = this.hashes[f]; h != 0; h &= h - 1)
+                    this.ones[Long.numberOfTrailingZeros(h)]++;
+            this.outputs += count;
+            this.keys++;
+
+            int bits = 8 * Math.min(len, keyLength);
+            for (int i = 0; i < bits; i++) {
+                this.key[i >>> 3] ^= (byte) (1 << (i & 7));
+                family.hashes(this.key, 0, len, this.flipped);
+                this.key[i >>> 3] ^= (byte) (1 << (i & 7));
+
+                int row = i * OUTPUT_BITS;
+                for (int f = 0; f < count; f++)
+                    for (long x = this.hashes[f] ^ this.flipped[f]; x != 0; x &= x - 1)
+                        this.flips[row + Long.numberOfTrailingZeros(x)]++;
+                this.trials[i] += count;
+            }
+        }
+
+        void add(Counts other) {
+            for (int i = 0; i < this.flips.length; i++)
+                this.flips[i] += other.flips[i];
+            for (int i = 0; i < this.trials.length; i++)
+                this.trials[i] += other.trials[i];
+            for (int o = 0; o < OUTPUT_BITS; o++)
+                this.ones[o] += other.ones[o];
+            this.outputs += other.outputs;
+            this.keys += other.keys;
+        }
+
+        void clear() {
+            Arrays.fill(this.flips, 0L);
+            Arrays.fill(this.trials, 0L);
+            Arrays.fill(this.ones, 0L);
+            this.outputs = 0;
+            this.keys = 0;
+        }
+    }
+}
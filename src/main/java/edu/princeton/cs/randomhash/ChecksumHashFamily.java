@@ -0,0 +1,121 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * A {@link RandomHashFamily} whose base hash function is any 32-bit
+ * {@link Checksum}, such as those of {@code java.util.zip}, instead of CRC32:
+ * for instance CRC-32C (Castagnoli), which has hardware instructions on recent
+ * x86 and ARM processors, or Adler-32, which is faster but known to be weak on
+ * short keys. The pseudo-random affine transformations applied to the base
+ * hash value are the same, and are drawn in the same way from the seed. <br/>
+ *
+ * The base hash functions that come with the JDK are available by name (see
+ * {@link #checksum(String)}), so that they can be compared (see
+ * {@link QualitySuite}).
+ */
+public class ChecksumHashFamily extends RandomHashFamily {
+
+    /**
+     * The names of the base hash functions of {@link #checksum(String)}.
+     */
+    public final static String[] CHECKSUMS = { "crc32", "crc32c", "adler32" };
+
+    /**
+     * The name of the base hash function.
+     */
+    protected final String name;
+
+    /**
+     * The instance of the base hash function of the current thread, which is
+     * reset for each key, so that hashing does not allocate.
+     */
+    protected final ThreadLocal<Checksum> checksum;
+
+    /**
+     * Constructor for {@link ChecksumHashFamily}, which initializes a family of
+     * hash functions, using the given seed to initialize the underlying PRNG.
+     *
+     * @param seed     The seed used to initialize the underlying PRNG.
+     * @param count    The number of pseudo-random hash functions in this family.
+     * @param name     The name of the base hash function
+     * @param checksum The constructor of the base hash function, whose values
+     *                 must fit in 32 bits; it is called once per thread
+     */
+    public ChecksumHashFamily(long seed, int count, String name, Supplier<? extends Checksum> checksum) {
+        super(seed, count);
+        this.name = name;
+        this.checksum = ThreadLocal.withInitial(checksum);
+    }
+
+    /**
+     * Constructor for {@link ChecksumHashFamily}, with one of the base hash
+     * functions of {@link #CHECKSUMS}.
+     *
+     * @param seed  The seed used to initialize the underlying PRNG.
+     * @param count The number of pseudo-random hash functions in this family.
+     * @param name  The name of the base hash function
+     */
+    public ChecksumHashFamily(long seed, int count, String name) {
+        this(seed, count, name, checksum(name));
+    }
+
+    /**
+     * Returns the constructor of the base hash function with the given name,
+     * among {@link #CHECKSUMS}.
+     *
+     * @param name The name of the base hash function
+     * @return Supplier&lt;Checksum&gt; The constructor of the base hash function
+     * @throws IllegalArgumentException If there is no such base hash function
+     */
+    public static Supplier<? extends Checksum> checksum(String name) {
+        switch (name) {
+        case "crc32":
+            return CRC32::new;
+        case "crc32c":
+            return CRC32C::new;
+        case "adler32":
+            return Adler32::new;
+        default:
+            throw new IllegalArgumentException("unknown checksum: " + name);
+        }
+    }
+
+    /**
+     * Returns the name of the base hash function.
+     *
+     * @return String The name of the base hash function
+     */
+    public String name() {
+        return this.name;
+    }
+
+    @Override
+    protected long baseHash(byte[] key, int off, int len) {
+        Checksum ck = this.checksum.get();
+        ck.reset();
+        ck.update(key, off, len);
+        return ck.getValue();
+    }
+
+    @Override
+    protected long baseHash(ByteBuffer key, int off, int len) {
+        if (key.hasArray())
+            return this.baseHash(key.array(), key.arrayOffset() + off, len);
+
+        int position = key.position(), limit = key.limit();
+        key.limit(key.capacity()).position(off).limit(off + len);
+
+        Checksum ck = this.checksum.get();
+        ck.reset();
+        ck.update(key);
+
+        key.limit(limit).position(position);
+        return ck.getValue();
+    }
+}
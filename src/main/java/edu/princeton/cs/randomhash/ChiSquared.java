@@ -0,0 +1,258 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The chi-square distribution, used by {@link UniformAudit} and the other
+ * audits to turn a chi-square statistic into a p-value, or a confidence level
+ * into a critical value, for any number of degrees of freedom. <br/>
+ *
+ * The cumulative distribution function of the chi-square distribution with
+ * {@code df} degrees of freedom is the regularized lower incomplete gamma
+ * function {@code P(df / 2, x / 2)}, which is computed with its series
+ * expansion or its continued fraction (see Press et al., "Numerical Recipes",
+ * section 6.2); critical values are found by Newton's method, from the
+ * Wilson-Hilferty approximation, and are cached, since audits tend to ask for
+ * the same few ones again and again.
+ */
+public final class ChiSquared {
+
+    private final static double EPSILON = 1e-15;
+
+    private final static int MAX_ITERATIONS = 1000000;
+
+    /**
+     * Coefficients of the Lanczos approximation of the gamma function
+     * ({@code g = 7}, {@code n = 9}).
+     */
+    private final static double[] LANCZOS = {
+            0.99999999999980993,
+            676.5203681218851,
+            -1259.1392167224028,
+            771.32342877765313,
+            -176.61502916214059,
+            12.507343278686905,
+            -0.13857109526572012,
+            9.9843695780195716e-6,
+            1.5056327351493116e-7,
+    };
+
+    /**
+     * Cache of the critical values computed so far, by confidence level and then
+     * by degrees of freedom.
+     */
+    private final static Map<Double, Map<Integer, Double>> criticalValues = new ConcurrentHashMap<>();
+
+    private ChiSquared() {
+    }
+
+    /**
+     * Returns the probability that a chi-square statistic with {@code df}
+     * degrees of freedom is at least {@code x}, that is, the p-value of the
+     * statistic {@code x} for the null hypothesis.
+     *
+     * @param df The number of degrees of freedom, strictly positive
+     * @param x  The chi-square statistic
+     * @return double The upper-tail probability of {@code x}
+     */
+    public static double pValue(int df, double x) {
+        checkDegreesOfFreedom(df);
+        if (x <= 0)
+            return 1.0;
+        return regularizedGammaQ(df / 2.0, x / 2.0);
+    }
+
+    /**
+     * Returns the probability that a chi-square statistic with {@code df}
+     * degrees of freedom is at most {@code x}.
+     *
+     * @param df The number of degrees of freedom, strictly positive
+     * @param x  The chi-square statistic
+     * @return double The cumulative distribution function at {@code x}
+     */
+    public static double cdf(int df, double x) {
+        checkDegreesOfFreedom(df);
+        if (x <= 0)
+            return 0.0;
+        return regularizedGammaP(df / 2.0, x / 2.0);
+    }
+
+    /**
+     * Returns the upper-tail critical value of the chi-square distribution with
+     * {@code df} degrees of freedom at the given confidence level: a statistic
+     * below this value is consistent with the null hypothesis, at this level of
+     * confidence (for instance, with {@code confidence = 0.90}, this is the
+     * value found in {@link UniformAudit#upperTailCV90}).
+     *
+     * @param df         The number of degrees of freedom, strictly positive
+     * @param confidence The confidence level, strictly between 0 and 1
+     * @return double The critical value {@code x} such that
+     *         {@code cdf(df, x) = confidence}
+     */
+    public static double criticalValue(int df, double confidence) {
+        checkDegreesOfFreedom(df);
+        if (!(confidence > 0.0 && confidence < 1.0))
+            throw new IllegalArgumentException("confidence must be strictly between 0 and 1");
+
+        return criticalValues
+                .computeIfAbsent(confidence, c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(df, d -> inverseCdf(d, confidence));
+    }
+
+    private static void checkDegreesOfFreedom(int df) {
+        if (df <= 0)
+            throw new IllegalArgumentException("df must be strictly positive");
+    }
+
+    // ==============================================================================
+    // Inverse of the cumulative distribution function
+
+    private static double inverseCdf(int df, double p) {
+        // Wilson-Hilferty: (x / df)^(1/3) is approximately normal
+        double z = inverseNormal(p);
+        double h = 2.0 / (9.0 * df);
+        double x = df * Math.pow(Math.max(1.0 - h + z * Math.sqrt(h), 1e-3), 3);
+
+        // Newton's method on the CDF, falling back to bisection whenever a step
+        // would leave the bracket [lo, hi] of the root
+        double lo = 0.0, hi = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < 200; i++) {
+            double error = cdf(df, x) - p;
+            if (error > 0)
+                hi = x;
+            else
+                lo = x;
+
+            double next = x - error / density(df, x);
+            if (!(next > lo && next < hi))
+                next = (hi == Double.POSITIVE_INFINITY) ? 2 * x + 1 : (lo + hi) / 2;
+            if (Math.abs(next - x) <= 1e-12 * x)
+                return next;
+            x = next;
+        }
+        return x;
+    }
+
+    /**
+     * Density of the chi-square distribution with {@code df} degrees of
+     * freedom.
+     */
+    private static double density(int df, double x) {
+        double k = df / 2.0;
+        return Math.exp((k - 1) * Math.log(x) - x / 2 - k * Math.log(2) - logGamma(k));
+    }
+
+    /**
+     * Quantile function of the standard normal distribution, with the rational
+     * approximation of Acklam (relative error below 1.15e-9), which is more
+     * than enough for a starting point.
+     */
+    private static double inverseNormal(double p) {
+        final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+        final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01 };
+        final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+        final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00 };
+
+        if (p < 0.02425) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - 0.02425) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        double q = p - 0.5, r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    // ==============================================================================
+    // Gamma functions
+
+    /**
+     * Returns the natural logarithm of the gamma function, with the Lanczos
+     * approximation.
+     *
+     * @param x A strictly positive number
+     * @return double {@code ln Γ(x)}
+     */
+    static double logGamma(double x) {
+        if (x < 0.5)
+            // reflection formula
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+
+        x -= 1;
+        double sum = LANCZOS[0];
+        for (int i = 1; i < LANCZOS.length; i++)
+            sum += LANCZOS[i] / (x + i);
+        double t = x + 7.5;
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+
+    /**
+     * Returns the regularized lower incomplete gamma function {@code P(a, x)}.
+     */
+    static double regularizedGammaP(double a, double x) {
+        if (x <= 0)
+            return 0.0;
+        return (x < a + 1) ? gammaSeries(a, x) : 1.0 - gammaContinuedFraction(a, x);
+    }
+
+    /**
+     * Returns the regularized upper incomplete gamma function
+     * {@code Q(a, x) = 1 - P(a, x)}.
+     */
+    static double regularizedGammaQ(double a, double x) {
+        if (x <= 0)
+            return 1.0;
+        return (x < a + 1) ? 1.0 - gammaSeries(a, x) : gammaContinuedFraction(a, x);
+    }
+
+    /**
+     * {@code P(a, x)} by its series expansion, which converges quickly for
+     * {@code x < a + 1}.
+     */
+    private static double gammaSeries(double a, double x) {
+        double ap = a, sum = 1.0 / a, term = sum;
+        for (int n = 0; n < MAX_ITERATIONS; n++) {
+            ap += 1;
+            term *= x / ap;
+            sum += term;
+            if (Math.abs(term) < Math.abs(sum) * EPSILON)
+                break;
+        }
+        return sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+    }
+
+    /**
+     * {@code Q(a, x)} by its continued fraction, evaluated with the modified
+     * Lentz method, which converges quickly for {@code x >= a + 1}.
+     */
+    private static double gammaContinuedFraction(double a, double x) {
+        final double tiny = 1e-300;
+        double b = x + 1 - a, c = 1 / tiny, d = 1 / b, h = d;
+        for (int i = 1; i < MAX_ITERATIONS; i++) {
+            double an = -i * (i - a);
+            b += 2;
+            d = an * d + b;
+            if (Math.abs(d) < tiny)
+                d = tiny;
+            c = b + an / c;
+            if (Math.abs(c) < tiny)
+                c = tiny;
+            d = 1 / d;
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < EPSILON)
+                break;
+        }
+        return Math.exp(-x + a * Math.log(x) - logGamma(a)) * h;
+    }
+}
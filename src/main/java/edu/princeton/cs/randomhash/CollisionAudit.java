@@ -0,0 +1,715 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Companion class to {@link RandomHashFamily}, which counts the collisions
+ * among the values of each of its pseudo-random hash functions, for sets of
+ * keys that may have billions of elements, and compares them to the number of
+ * collisions expected from the birthday problem. <br/>
+ *
+ * The values of each function are stored off-heap, in direct buffers, so that
+ * they neither weigh on the garbage collector nor are limited by the size of
+ * the heap (direct memory is limited by {@code -XX:MaxDirectMemorySize},
+ * which defaults to the maximum heap size). Each function starts with a small
+ * open-addressing table of 32-bit values, which doubles with the number of
+ * distinct values; once the table would take as much room as a bitmap of all
+ * the {@code 2^32} possible values (512 MB), it is replaced by that bitmap.
+ * <br/>
+ *
+ * All the buffers of an audit are bounded by a memory budget (by default, half
+ * the maximum heap size), which includes the peak of a growth, when the old
+ * table and its replacement are both allocated (up to 768 MB, for the 256 MB
+ * table replaced by the bitmap); the old buffer is then freed at once, rather
+ * than by the garbage collector. A function whose table cannot grow within the
+ * budget spills its values to a temporary file instead, partitioned by their
+ * top 8 bits, and empties its table: its distinct values are then counted
+ * when it is read, one partition at a time, with a bitmap of 2 MB. Auditing
+ * {@code n} keys thus takes at most the budget in memory, and up to
+ * {@code 4 n} bytes of disk for each function that spills. The temporary
+ * files are deleted by {@link #close()} and {@link #reset()}. <br/>
+ *
+ * A collision is a value that has already been seen for the same function;
+ * the keys that are fed to the audit should therefore be distinct, as two
+ * copies of a key always collide.
+ */
+public class CollisionAudit implements Closeable {
+
+    /**
+     * The number of distinct 32-bit values.
+     */
+    protected final static double VALUE_COUNT = 0x1.0p32;
+
+    /**
+     * The size of a bitmap of all the 32-bit values, in bytes.
+     */
+    protected final static int BITMAP_BYTES = 1 << 29;
+
+    /**
+     * The initial number of slots of the table of each function.
+     */
+    protected final static int INITIAL_CAPACITY = 1 << 12;
+
+    /**
+     * The number of partitions of the values spilled to disk, by their top
+     * bits, whose distinct values are counted with a bitmap of the other bits.
+     */
+    protected final static int PARTITIONS = 1 << 8;
+
+    /**
+     * The default memory budget: half the maximum heap size, which is also the
+     * default maximum direct memory size.
+     */
+    public final static long DEFAULT_MAX_MEMORY = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * The method of {@code sun.misc.Unsafe} that frees a direct or mapped
+     * buffer, or {@code null} if it is not available, in which case buffers
+     * are freed by the garbage collector.
+     */
+    private final static Method INVOKE_CLEANER;
+
+    private final static Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the garbage collector
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    /**
+     * The family of pseudo-random hash functions that is being audited.
+     */
+    protected final RandomHashFamily family;
+
+    /**
+     * The number of functions of the family that are audited.
+     */
+    protected final int count;
+
+    /**
+     * The largest number of bytes of direct memory of all the buffers.
+     */
+    protected final long maxMemory;
+
+    /**
+     * The values seen so far, for each function.
+     */
+    private final ValueSet[] sets;
+
+    private final long[] hashes;
+
+    /**
+     * The number of bytes of direct memory of all the buffers.
+     */
+    private long allocated;
+
+    /**
+     * The directory of the files of the values spilled to disk, or
+     * {@code null} until a function spills.
+     */
+    private Path directory;
+
+    /**
+     * Creates a new {@link CollisionAudit} instance, over all the functions of
+     * the given family.
+     *
+     * @param family The family of pseudo-random hash functions to audit
+     */
+    public CollisionAudit(RandomHashFamily family) {
+        this(family, family.count());
+    }
+
+    /**
+     * Creates a new {@link CollisionAudit} instance, over the first functions of
+     * the given family.
+     *
+     * @param family The family of pseudo-random hash functions to audit
+     * @param count  The number of functions to audit
+     */
+    public CollisionAudit(RandomHashFamily family, int count) {
+        this(family, count, DEFAULT_MAX_MEMORY);
+    }
+
+    /**
+     * Creates a new {@link CollisionAudit} instance, over the first functions of
+     * the given family, whose buffers never take more than the given number of
+     * bytes of direct memory.
+     *
+     * @param family    The family of pseudo-random hash functions to audit
+     * @param count     The number of functions to audit
+     * @param maxMemory The memory budget, in bytes, which must hold at least the
+     *                  initial table of every function ({@code 16 KB})
+     */
+    public CollisionAudit(RandomHashFamily family, int count, long maxMemory) {
+        if (count < 1 || count > family.count())
+            throw new IllegalArgumentException("count must be between 1 and the size of the family");
+        if (maxMemory < 4L * INITIAL_CAPACITY * count)
+            throw new IllegalArgumentException("maxMemory must hold the initial table of every function");
+
+        this.family = family;
+        this.count = count;
+        this.maxMemory = maxMemory;
+        this.sets = new ValueSet[count];
+        for (int f = 0; f < count; f++)
+            this.sets[f] = new ValueSet(f);
+        this.hashes = new long[count];
+    }
+
+    /**
+     * Resets all internal counters to zero, and releases the memory and the
+     * files used to store the values.
+     */
+    public synchronized void reset() {
+        this.release();
+        for (int f = 0; f < this.count; f++)
+            this.sets[f] = new ValueSet(f);
+    }
+
+    /**
+     * Releases the memory and deletes the files used to store the values; the
+     * audit must not be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        this.release();
+    }
+
+    private void release() {
+        for (ValueSet set : this.sets)
+            if (set != null)
+                set.release();
+        if (this.directory != null) {
+            try {
+                Files.deleteIfExists(this.directory);
+            } catch (IOException e) {
+                // the files are already deleted, when their channels are closed
+            }
+            this.directory = null;
+        }
+    }
+
+    // ==============================================================================
+    // Updating the audit
+
+    /**
+     * Process a single key.
+     *
+     * @param key A string key
+     */
+    public synchronized void update(String key) {
+        this.family.hashes(key, this.hashes);
+        this.add(this.hashes);
+    }
+
+    /**
+     * Process a single key, given as a range of bytes.
+     *
+     * @param key A byte array containing the key
+     * @param off The offset of the key in the array
+     * @param len The length of the key, in bytes
+     */
+    public synchronized void update(byte[] key, int off, int len) {
+        this.family.hashes(key, off, len, this.hashes);
+        this.add(this.hashes);
+    }
+
+    /**
+     * Process the hash values of a single key, as computed by
+     * {@link RandomHashFamily#hashes(String, long[])}.
+     *
+     * @param hashes The hash values of the key, of which the first
+     *               {@code count} are audited
+     */
+    public synchronized void update(long[] hashes) {
+        for (int f = 0; f < this.count; f++)
+            checkRange(hashes[f]);
+        this.add(hashes);
+    }
+
+    /**
+     * Process a single value of one of the functions.
+     *
+     * @param function The index of the function
+     * @param value    The value, a 32-bit unsigned integer
+     */
+    public synchronized void update(int function, long value) {
+        checkRange(value);
+        this.sets[function].add((int) value);
+    }
+
+    private void add(long[] hashes) {
+        for (int f = 0; f < this.count; f++)
+            this.sets[f].add((int) hashes[f]);
+    }
+
+    private static void checkRange(long value) {
+        if (value < 0 || value > RandomHashFamily.MAX_VALUE)
+            throw new IllegalArgumentException("value is not a 32-bit unsigned integer");
+    }
+
+    // ==============================================================================
+    // Reading the audit
+
+    /**
+     * Returns the number of values processed so far for the given function.
+     *
+     * @param function The index of the function
+     * @return long The number of values processed
+     */
+    public synchronized long total(int function) {
+        return this.sets[function].total;
+    }
+
+    /**
+     * Returns the number of distinct values processed so far for the given
+     * function.
+     *
+     * @param function The index of the function
+     * @return long The number of distinct values
+     */
+    public synchronized long distinct(int function) {
+        return this.sets[function].distinct();
+    }
+
+    /**
+     * Returns the number of collisions among the values processed so far for
+     * the given function, that is, the number of values that had already been
+     * seen.
+     *
+     * @param function The index of the function
+     * @return long The number of collisions
+     */
+    public synchronized long collisions(int function) {
+        return this.sets[function].total - this.sets[function].distinct();
+    }
+
+    /**
+     * Returns the number of collisions expected among {@code n} values drawn
+     * uniformly at random among the {@code 2^32} 32-bit values, that is,
+     * {@code n} minus the expected number of distinct values,
+     * {@code n - m (1 - (1 - 1/m)^n)} with {@code m = 2^32}.
+     *
+     * @param n The number of values
+     * @return double The expected number of collisions
+     */
+    public static double expectedCollisions(long n) {
+        return n + VALUE_COUNT * Math.expm1(n * Math.log1p(-1.0 / VALUE_COUNT));
+    }
+
+    /**
+     * Returns the number of bytes of off-heap memory used to store the values.
+     *
+     * @return long The number of bytes used
+     */
+    public synchronized long memoryUsage() {
+        return this.allocated;
+    }
+
+    /**
+     * Returns the number of bytes of the values spilled to disk.
+     *
+     * @return long The number of bytes spilled
+     */
+    public synchronized long spilledBytes() {
+        long bytes = 0;
+        for (ValueSet set : this.sets)
+            bytes += set.spilled;
+        return bytes;
+    }
+
+    /**
+     * Returns the standard score of the number of collisions of a function:
+     * the number of collisions is approximately Poisson, with a variance equal
+     * to its expectation.
+     */
+    private double score(int function) {
+        double expected = expectedCollisions(this.sets[function].total);
+        return (expected > 0) ? (this.collisions(function) - expected) / Math.sqrt(expected) : 0.0;
+    }
+
+    /**
+     * Prints a report on the standard output, with the total number of
+     * collisions and, for the ten functions whose number of collisions is the
+     * furthest from the expected one, their observed and expected numbers of
+     * collisions.
+     */
+    public synchronized void printReport() {
+        long observed = 0;
+        double expected = 0;
+        for (int f = 0; f < this.count; f++) {
+            observed += this.collisions(f);
+            expected += expectedCollisions(this.sets[f].total);
+        }
+
+        Integer[] order = new Integer[this.count];
+        for (int f = 0; f < this.count; f++)
+            order[f] = f;
+        Arrays.sort(order, Comparator.comparingDouble((Integer f) -> Math.abs(this.score(f))).reversed());
+
+        System.out.println("collision report:");
+        System.out.println("> functions: " + this.count);
+        System.out.println("> total values hashed per function: " + this.sets[0].total);
+        System.out.printf("> collisions, all functions: %d (expected %.1f)\n", observed, expected);
+        System.out.printf("> off-heap memory: %.1f MB (at most %.1f MB)\n", this.memoryUsage() / 1048576.0,
+                this.maxMemory / 1048576.0);
+        System.out.printf("> spilled to disk: %.1f MB\n", this.spilledBytes() / 1048576.0);
+        System.out.println("> functions furthest from expected:");
+        for (int r = 0; r < Math.min(10, this.count); r++) {
+            int f = order[r];
+            System.out.printf(">   %d: %d collisions (expected %.1f, z = %.2f)\n", f, this.collisions(f),
+                    expectedCollisions(this.sets[f].total), this.score(f));
+        }
+    }
+
+    // ==============================================================================
+    // Off-heap sets of 32-bit values
+
+    /**
+     * Allocates a direct buffer within the memory budget, or returns
+     * {@code null} if it does not fit.
+     */
+    private ByteBuffer allocate(int bytes) {
+        if (this.allocated + bytes > this.maxMemory)
+            return null;
+        this.allocated += bytes;
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Frees a direct buffer, which must not be used afterwards.
+     */
+    private void free(ByteBuffer buffer) {
+        this.allocated -= buffer.capacity();
+        unmap(buffer);
+    }
+
+    /**
+     * Frees a direct or mapped buffer at once, if possible, rather than when it
+     * is collected; the buffer must not be used afterwards.
+     */
+    private static void unmap(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // left to the garbage collector
+        }
+    }
+
+    /**
+     * The values spilled to disk at once: the offsets (in values, from
+     * {@code position}) of the partitions, in order.
+     */
+    private final static class Run {
+
+        final long position;
+
+        final long[] offsets;
+
+        Run(long position, long[] offsets) {
+            this.position = position;
+            this.offsets = offsets;
+        }
+    }
+
+    /**
+     * A set of 32-bit values, stored in a direct buffer: first an
+     * open-addressing table with linear probing, in which {@code 0} marks an
+     * empty slot (the value {@code 0} itself is tracked separately), then a
+     * bitmap of all the values; or, if the table cannot grow within the
+     * budget, in runs spilled to disk, and in the table.
+     */
+    private final class ValueSet {
+
+        final int function;
+
+        ByteBuffer buffer;
+
+        /**
+         * The number of slots of the table, a power of two, or {@code 0} once
+         * the table has been replaced by a bitmap.
+         */
+        int capacity;
+
+        int shift;
+
+        boolean hasZero;
+
+        long total;
+
+        /**
+         * The number of distinct values, if no value was spilled; otherwise,
+         * the number of values in the table.
+         */
+        long distinct;
+
+        final List<Run> runs = new ArrayList<Run>();
+
+        FileChannel channel;
+
+        long spilled;
+
+        /**
+         * The number of distinct values, counted over the runs, or {@code -1}
+         * if values were added since.
+         */
+        long merged = -1;
+
+        ValueSet(int function) {
+            this.function = function;
+            this.buffer = CollisionAudit.this.allocate(4 * INITIAL_CAPACITY);
+            this.setCapacity(INITIAL_CAPACITY);
+        }
+
+        private void setCapacity(int capacity) {
+            this.capacity = capacity;
+            this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        void add(int value) {
+            this.total++;
+            if (this.capacity == 0) {
+                this.addToBitmap(value);
+                return;
+            }
+            if (value == 0) {
+                if (!this.hasZero) {
+                    this.hasZero = true;
+                    if (this.runs.isEmpty())
+                        this.distinct++;
+                    this.merged = -1;
+                }
+                return;
+            }
+            if (this.insert(value)) {
+                this.distinct++;
+                this.merged = -1;
+                // grow at a load factor of 3/4
+                if (4 * this.distinct > 3L * this.capacity)
+                    this.grow();
+            }
+        }
+
+        /**
+         * Inserts a nonzero value in the table, and returns whether it was
+         * absent.
+         */
+        private boolean insert(int value) {
+            ByteBuffer table = this.buffer;
+            int mask = this.capacity - 1;
+            // Fibonacci hashing: the high bits of the product are well mixed
+            for (int i = (value * 0x9E3779B9) >>> this.shift;; i = (i + 1) & mask) {
+                int slot = table.getInt(4 * i);
+                if (slot == value)
+                    return false;
+                if (slot == 0) {
+                    table.putInt(4 * i, value);
+                    return true;
+                }
+            }
+        }
+
+        private void grow() {
+            ByteBuffer old = this.buffer;
+            int oldCapacity = this.capacity;
+
+            // a table of more values than the bitmap is never allocated
+            boolean bitmap = this.runs.isEmpty() && 8L * oldCapacity >= BITMAP_BYTES;
+            ByteBuffer buffer = CollisionAudit.this.allocate(bitmap ? BITMAP_BYTES : 8 * oldCapacity);
+            if (buffer == null) {
+                this.spill();
+                return;
+            }
+
+            this.buffer = buffer;
+            if (bitmap) {
+                this.capacity = 0;
+                for (int i = 0; i < oldCapacity; i++) {
+                    int value = old.getInt(4 * i);
+                    if (value != 0)
+                        this.setBit(value);
+                }
+                if (this.hasZero)
+                    this.setBit(0);
+            } else {
+                this.setCapacity(2 * oldCapacity);
+                for (int i = 0; i < oldCapacity; i++) {
+                    int value = old.getInt(4 * i);
+                    if (value != 0)
+                        this.insert(value);
+                }
+            }
+            CollisionAudit.this.free(old);
+        }
+
+        private void addToBitmap(int value) {
+            if (this.setBit(value))
+                this.distinct++;
+        }
+
+        /**
+         * Sets the bit of a value in the bitmap, and returns whether it was
+         * clear.
+         */
+        private boolean setBit(int value) {
+            int index = (value >>> 6) << 3;
+            long word = this.buffer.getLong(index), bit = 1L << value;
+            if ((word & bit) != 0)
+                return false;
+            this.buffer.putLong(index, word | bit);
+            return true;
+        }
+
+        /**
+         * Writes the values of the table to the file of the function, as a
+         * run partitioned by their top bits, and empties the table.
+         */
+        private void spill() {
+            ByteBuffer table = this.buffer;
+            long[] offsets = new long[PARTITIONS + 1];
+            for (int i = 0; i < this.capacity; i++) {
+                int value = table.getInt(4 * i);
+                if (value != 0)
+                    offsets[(value >>> 24) + 1]++;
+            }
+            for (int p = 0; p < PARTITIONS; p++)
+                offsets[p + 1] += offsets[p];
+
+            try {
+                if (this.channel == null)
+                    this.channel = CollisionAudit.this.spillFile(this.function);
+                long bytes = 4 * offsets[PARTITIONS];
+                MappedByteBuffer run = this.channel.map(FileChannel.MapMode.READ_WRITE, this.spilled, bytes);
+                run.order(ByteOrder.nativeOrder());
+                long[] next = offsets.clone();
+                for (int i = 0; i < this.capacity; i++) {
+                    int value = table.getInt(4 * i);
+                    if (value != 0)
+                        run.putInt((int) (4 * next[value >>> 24]++), value);
+                }
+                unmap(run);
+                this.runs.add(new Run(this.spilled, offsets));
+                this.spilled += bytes;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for (int i = 0; i < this.capacity; i += 2)
+                table.putLong(4 * i, 0L);
+            this.distinct = 0;
+            this.merged = -1;
+        }
+
+        /**
+         * Returns the number of distinct values.
+         */
+        long distinct() {
+            if (this.runs.isEmpty())
+                return this.distinct;
+            if (this.merged < 0) {
+                // the values of the table are spilled too, so that only the
+                // runs are merged
+                if (this.distinct > 0)
+                    this.spill();
+                this.merged = this.merge() + (this.hasZero ? 1 : 0);
+            }
+            return this.merged;
+        }
+
+        /**
+         * Counts the distinct values of the runs, one partition at a time.
+         */
+        private long merge() {
+            long[] bits = new long[1 << 18];
+            MappedByteBuffer[] runs = new MappedByteBuffer[this.runs.size()];
+            try {
+                for (int r = 0; r < runs.length; r++) {
+                    Run run = this.runs.get(r);
+                    runs[r] = this.channel.map(FileChannel.MapMode.READ_ONLY, run.position,
+                            4 * run.offsets[PARTITIONS]);
+                    runs[r].order(ByteOrder.nativeOrder());
+                }
+
+                long distinct = 0;
+                for (int p = 0; p < PARTITIONS; p++) {
+                    Arrays.fill(bits, 0L);
+                    for (int r = 0; r < runs.length; r++) {
+                        long[] offsets = this.runs.get(r).offsets;
+                        for (long i = offsets[p]; i < offsets[p + 1]; i++) {
+                            int value = runs[r].getInt((int) (4 * i));
+                            int word = (value >>> 6) & ((1 << 18) - 1);
+                            long bit = 1L << value;
+                            if ((bits[word] & bit) == 0) {
+                                bits[word] |= bit;
+                                distinct++;
+                            }
+                        }
+                    }
+                }
+                return distinct;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                for (MappedByteBuffer run : runs)
+                    if (run != null)
+                        unmap(run);
+            }
+        }
+
+        /**
+         * Frees the buffer and deletes the file of the values spilled.
+         */
+        void release() {
+            if (this.buffer != null) {
+                CollisionAudit.this.free(this.buffer);
+                this.buffer = null;
+            }
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException e) {
+                    // the file is deleted on close
+                }
+                this.channel = null;
+            }
+        }
+    }
+
+    /**
+     * Opens the file of the values spilled by a function, which is deleted
+     * when it is closed.
+     */
+    private FileChannel spillFile(int function) throws IOException {
+        if (this.directory == null)
+            this.directory = Files.createTempDirectory("collisions");
+        return FileChannel.open(this.directory.resolve("function-" + function), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+}
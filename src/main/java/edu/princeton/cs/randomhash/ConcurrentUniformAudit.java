@@ -0,0 +1,194 @@
+package edu.princeton.cs.randomhash;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link UniformAudit} that can be updated from several threads at once,
+ * for instance by hashing threads that each feed it the values they produce.
+ * <br/>
+ *
+ * Each updating thread counts in its own array of buckets, without any lock
+ * or atomic read-modify-write, so that updates scale with the number of
+ * threads; the arrays are merged whenever the audit is read, for instance by
+ * {@link #bucketDistribution()} or {@link #chiSquaredTest()}. The totals read
+ * are exact once the updating threads are done (for instance, once they have
+ * been joined); while they are still running, a read reflects some recent
+ * state of every thread's counts. <br/>
+ *
+ * Only the thread that owns an array ever writes it: {@link #reset()} records
+ * the counts of every thread as a baseline, which reads subtract, so that a
+ * reset never races with the increments of the updating threads.
+ */
+public class ConcurrentUniformAudit extends UniformAudit {
+
+    /**
+     * Opaque accesses to the counters: each array is written by a single
+     * thread, and read by any thread merging the counts.
+     */
+    private final static VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * The bucket counters of a thread, and their values at the last reset.
+     */
+    private final static class Counters {
+
+        /**
+         * The counts, only written by the thread that owns them.
+         */
+        final long[] counts;
+
+        /**
+         * The counts at the last reset, only written by {@link #reset()}.
+         */
+        final long[] base;
+
+        Counters(int bucketCount) {
+            this.counts = new long[bucketCount];
+            this.base = new long[bucketCount];
+        }
+    }
+
+    /**
+     * The bucket counters of every thread that has updated this audit.
+     */
+    private final Queue<Counters> counters = new ConcurrentLinkedQueue<Counters>();
+
+    /**
+     * The bucket counters of the current thread.
+     */
+    private final ThreadLocal<long[]> local = ThreadLocal.withInitial(this::register);
+
+    /**
+     * Creates a new {@link ConcurrentUniformAudit} instance.
+     *
+     * @param bucketCount The number of buckets in which to group the hash values
+     *                    that are processed
+     * @param min         The smallest value that we expect to see among the values
+     *                    fed to this class
+     * @param max         The largest value that we expect to see among the values
+     *                    fed to this class
+     */
+    public ConcurrentUniformAudit(int bucketCount, long min, long max) {
+        super(bucketCount, min, max);
+    }
+
+    /**
+     * Allocates the bucket counters of a thread that updates this audit for the
+     * first time.
+     */
+    private long[] register() {
+        Counters counters = new Counters(this.bucketCount);
+        this.counters.add(counters);
+        return counters.counts;
+    }
+
+    /**
+     * Resets all internal counters to zero. Values processed by other threads
+     * while the counters are being reset may or may not be counted, but those
+     * processed before are never counted again.
+     */
+    @Override
+    public synchronized void reset() {
+        // called by the constructor of UniformAudit, before the counters exist
+        if (this.counters == null)
+            return;
+
+        for (Counters counters : this.counters)
+            for (int i = 0; i < counters.counts.length; i++)
+                COUNTS.setOpaque(counters.base, i, (long) COUNTS.getOpaque(counters.counts, i));
+    }
+
+    /**
+     * Process a single hash value; this may be called concurrently from any
+     * number of threads.
+     *
+     * @param value The hash value to process
+     * @throws IllegalArgumentException If the given value is not in the range by
+     *                                  the internal minimum and maximum values
+     *                                  specified at construction time.
+     */
+    @Override
+    public void update(long value) {
+        this.checkRange(value);
+
+        long[] counts = this.local.get();
+        int bucketIndex = this.bucketIndex(value);
+        COUNTS.setOpaque(counts, bucketIndex, counts[bucketIndex] + 1);
+    }
+
+    /**
+     * Process a batch of hash values, with the same result as calling
+     * {@link #update(long)} on each of them; this may be called concurrently
+     * from any number of threads.
+     *
+     * @param values An array of hash values
+     * @param off    The offset of the first hash value to process
+     * @param len    The number of hash values to process
+     * @throws IllegalArgumentException  If any of the given values is not in the
+     *                                   range by the internal minimum and maximum
+     *                                   values specified at construction time.
+     * @throws IndexOutOfBoundsException If {@code off} and {@code len} do not
+     *                                   describe a range of the array.
+     */
+    @Override
+    public void update(long[] values, int off, int len) {
+        this.checkRange(values, off, len);
+
+        long[] counts = this.local.get();
+        for (int i = off; i < off + len; i++) {
+            int bucketIndex = this.bucketIndex(values[i]);
+            COUNTS.setOpaque(counts, bucketIndex, counts[bucketIndex] + 1);
+        }
+    }
+
+    /**
+     * Returns the number of hash values that have been processed so far in each
+     * bucket, merged over all threads, as a new array.
+     *
+     * @return long[] An array with the number of hash values in each bucket
+     */
+    @Override
+    public long[] bucketCounts() {
+        long[] merged = new long[this.bucketCount];
+        for (Counters counters : this.counters)
+            for (int i = 0; i < merged.length; i++) {
+                // the base is read first: the counts only grow
+                long base = (long) COUNTS.getOpaque(counters.base, i);
+                merged[i] += (long) COUNTS.getOpaque(counters.counts, i) - base;
+            }
+        return merged;
+    }
+
+    /**
+     * Returns the total number of hash values that have been processed so far,
+     * over all threads.
+     *
+     * @return long The total number of hash values that have been processed.
+     */
+    @Override
+    public long total() {
+        long total = 0;
+        for (long count : this.bucketCounts())
+            total += count;
+        return total;
+    }
+
+    /**
+     * Returns the probability distribution of the hash values that have been
+     * processed by all threads, as an array of values that sum to {@code 1.0}.
+     *
+     * @return double[] An array with the discrete probability distribution of the
+     *         hash values
+     */
+    @Override
+    public double[] bucketDistribution() {
+        long[] counts = this.bucketCounts();
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        return distribution(counts, total);
+    }
+}
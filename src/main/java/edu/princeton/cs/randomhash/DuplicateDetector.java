@@ -0,0 +1,457 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Detects duplicate lines in a file, exactly, with a bounded amount of memory
+ * and without keeping the lines themselves: the audits of
+ * {@link RandomHashFamily} are only meaningful on unique keys. <br/>
+ *
+ * Detection takes two passes over the lines, which may both be made by
+ * several threads at once:
+ * <ol>
+ * <li>each line is reduced to a 64-bit fingerprint, which is added to a Bloom
+ * filter (see {@link #add(ByteBuffer, int, int)}); the fingerprints that the
+ * filter has (possibly) seen before are recorded as candidates. The filter
+ * takes about 10 bits per line (rounded to a power of two), and the
+ * candidates are only the duplicates and the few false positives of the
+ * filter (about 1% of the lines);</li>
+ * <li>if there are candidates, the lines are read again, and those whose
+ * fingerprint is a candidate are stored in a table, by fingerprint, with
+ * their position in the file; when a fingerprint is already in the table, the
+ * bytes of both lines are compared, in the file (see
+ * {@link #findDuplicate(FileChannel, long[])}).</li>
+ * </ol>
+ * The Bloom filter is blocked: all the bits of a fingerprint are in the same
+ * 64-bit word, and are set with a single atomic operation, so that of two
+ * copies of a line added concurrently, one is always found to be a candidate.
+ * The Bloom filter has no false negatives, and lines are compared byte for
+ * byte, so that every duplicate is found, and only duplicates are. <br/>
+ *
+ * Lines that cannot be read twice, such as those of a stream, can instead be
+ * checked in a single pass (see {@link #addFingerprint(ByteBuffer, int, int)}),
+ * against the fingerprints of all the previous lines: this takes about 16
+ * bytes per line, and may report a possible duplicate that is not one, if two
+ * lines have the same 64-bit fingerprint. Lines held in memory are checked
+ * exactly, in a single pass (see
+ * {@link #findDuplicate(ByteBuffer, int[], int[])}).
+ */
+public class DuplicateDetector {
+
+    /**
+     * The number of bits of the Bloom filter for each expected line.
+     */
+    protected final static int BITS_PER_KEY = 10;
+
+    /**
+     * The number of bits set in the Bloom filter for each fingerprint, all in
+     * the same 64-bit word.
+     */
+    protected final static int BITS_PER_FINGERPRINT = 6;
+
+    private final static int STRIPES = 64;
+
+    private final static VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * The words of the Bloom filter, a power of two.
+     */
+    private final long[] bloom;
+
+    private final int bloomShift;
+
+    /**
+     * The fingerprints of the lines that may have been seen before.
+     */
+    private final FingerprintSet candidates = new FingerprintSet(1 << 10);
+
+    /**
+     * The fingerprints of all the lines of the single-pass check, in stripes
+     * selected by their high-order bits, each with its own lock.
+     */
+    private final FingerprintSet[] seen = new FingerprintSet[STRIPES];
+
+    /**
+     * Creates a new {@link DuplicateDetector}, for about the given number of
+     * lines (see {@link MappedLines#estimateLineCount(FileChannel)}): the false
+     * positive rate of the Bloom filter increases as the number of lines
+     * exceeds this number, which only slows down the second pass. The filter
+     * takes at most an eighth of the maximum heap size, and 1 GB.
+     *
+     * @param expectedKeys The expected number of lines
+     */
+    public DuplicateDetector(long expectedKeys) {
+        // the power of two nearest to the words needed, between 6.7 and 13.3
+        // bits per line, within an eighth of the heap
+        long words = Math.max(1L, Math.max(1L, expectedKeys) * BITS_PER_KEY / 64);
+        int log2 = 63 - Long.numberOfLeadingZeros(words);
+        if (words - (1L << log2) > (1L << log2) / 2)
+            log2++;
+        int maxLog2 = 63 - Long.numberOfLeadingZeros(Runtime.getRuntime().maxMemory() / 8 / Long.BYTES);
+        log2 = Math.max(10, Math.min(Math.min(27, maxLog2), log2));
+        this.bloom = new long[1 << log2];
+        this.bloomShift = 64 - log2;
+        for (int i = 0; i < STRIPES; i++)
+            this.seen[i] = new FingerprintSet(1 << 4);
+    }
+
+    // ==============================================================================
+    // First pass
+
+    /**
+     * Adds a line to the Bloom filter; this may be called concurrently from any
+     * number of threads.
+     *
+     * @param buffer The buffer containing the line
+     * @param off    The absolute index of the line in the buffer
+     * @param len    The length of the line, in bytes
+     * @return boolean {@code true} if the line may have been added before, in
+     *         which case its fingerprint is a candidate
+     */
+    public boolean add(ByteBuffer buffer, int off, int len) {
+        long fingerprint = fingerprint(buffer, off, len);
+        int index = (int) (fingerprint >>> this.bloomShift);
+        long bits = bloomBits(fingerprint);
+
+        long previous = (long) WORDS.getAndBitwiseOr(this.bloom, index, bits);
+        if ((previous & bits) != bits)
+            return false;
+
+        synchronized (this.candidates) {
+            this.candidates.add(fingerprint);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct candidate fingerprints, after the first
+     * pass: if there are none, there is no duplicate, and the second pass can
+     * be skipped.
+     *
+     * @return long The number of candidate fingerprints
+     */
+    public long candidateCount() {
+        synchronized (this.candidates) {
+            return this.candidates.size;
+        }
+    }
+
+    /**
+     * Returns the bits of a fingerprint in its word of the Bloom filter, from
+     * the low-order bits of the fingerprint (its high-order bits select the
+     * word).
+     */
+    private static long bloomBits(long fingerprint) {
+        long bits = 0L;
+        for (int i = 0; i < BITS_PER_FINGERPRINT; i++)
+            bits |= 1L << (fingerprint >>> (6 * i));
+        return bits;
+    }
+
+    // ==============================================================================
+    // Second pass
+
+    /**
+     * Reads the lines of a file again, in parallel, after they have all been
+     * added, to find a duplicate among the candidates.
+     *
+     * @param channel The channel of the file
+     * @param bounds  The boundaries of the chunks of the file, which are read
+     *                in parallel (see {@link MappedLines#split(FileChannel, int)})
+     * @return ByteBuffer A copy of a line that appears at least twice in the
+     *         file, or {@code null} if all the lines are unique
+     * @throws IOException If the file cannot be read
+     */
+    public ByteBuffer findDuplicate(FileChannel channel, long[] bounds) throws IOException {
+        if (this.candidateCount() == 0)
+            return null;
+
+        LineTable table = new LineTable(channel);
+        AtomicReference<ByteBuffer> duplicate = new AtomicReference<ByteBuffer>();
+        AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+        IntStream.range(0, bounds.length - 1).parallel().forEach(c -> {
+            try {
+                MappedLines.forEachPositionedLine(channel, bounds[c], bounds[c + 1], (position, buffer, off, len) -> {
+                    if (duplicate.get() != null)
+                        return;
+                    long fingerprint = fingerprint(buffer, off, len);
+                    if (!this.candidates.contains(fingerprint))
+                        return;
+                    try {
+                        if (table.addOrCompare(fingerprint, position, buffer, off, len))
+                            duplicate.compareAndSet(null, MappedLines.slice(buffer, off, len).asReadOnlyBuffer());
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+
+        if (failure.get() != null)
+            throw failure.get();
+        ByteBuffer line = duplicate.get();
+        if (line == null)
+            return null;
+        ByteBuffer copy = ByteBuffer.allocate(line.remaining());
+        copy.put(line).flip();
+        return copy;
+    }
+
+    // ==============================================================================
+    // Single pass
+
+    /**
+     * Adds the fingerprint of a line to those of all the lines added so far,
+     * for lines that cannot be read twice; this may be called concurrently from
+     * any number of threads. The line is reported as a duplicate if its
+     * fingerprint was added before: among {@code n} unique lines, this happens
+     * by chance with probability about {@code n^2 / 2^65} (3 in 10,000 for a
+     * hundred million lines, but 3% for a billion lines), so that the line is
+     * only a possible duplicate.
+     *
+     * @param buffer The buffer containing the line
+     * @param off    The absolute index of the line in the buffer
+     * @param len    The length of the line, in bytes
+     * @return boolean {@code true} if the line is possibly a duplicate
+     */
+    public boolean addFingerprint(ByteBuffer buffer, int off, int len) {
+        long fingerprint = fingerprint(buffer, off, len);
+        FingerprintSet stripe = this.seen[(int) (fingerprint >>> 58)];
+        synchronized (stripe) {
+            return !stripe.add(fingerprint);
+        }
+    }
+
+    // ==============================================================================
+    // Lines in memory
+
+    /**
+     * Finds a duplicate among lines held in memory, exactly, in a single pass:
+     * the lines are stored in a table by fingerprint, and the bytes of lines
+     * with the same fingerprint are compared. This takes about 20 bytes per
+     * line, on top of the lines.
+     *
+     * @param data    The buffer containing the lines
+     * @param offsets The absolute index of each line in the buffer
+     * @param lengths The length of each line, in bytes
+     * @return ByteBuffer A copy of a line that appears at least twice, or
+     *         {@code null} if all the lines are unique
+     */
+    static ByteBuffer findDuplicate(ByteBuffer data, int[] offsets, int[] lengths) {
+        int lines = offsets.length;
+        int capacity = (int) Math.min(1L << 30, (long) Integer.highestOneBit(Math.max(1, lines)) << 2);
+        int mask = capacity - 1;
+        long[] fingerprints = new long[lines];
+        // the index of the line in each slot, plus one
+        int[] slots = new int[capacity];
+
+        for (int k = 0; k < lines; k++) {
+            long fingerprint = fingerprints[k] = fingerprint(data, offsets[k], lengths[k]);
+            int i = slot(fingerprint, capacity);
+            for (; slots[i] != 0; i = (i + 1) & mask) {
+                int other = slots[i] - 1;
+                if (fingerprints[other] == fingerprint
+                        && sameBytes(data, offsets[other], lengths[other], offsets[k], lengths[k])) {
+                    ByteBuffer copy = ByteBuffer.allocate(lengths[k]);
+                    copy.put(MappedLines.slice(data, offsets[k], lengths[k])).flip();
+                    return copy;
+                }
+            }
+            slots[i] = k + 1;
+        }
+        return null;
+    }
+
+    private static boolean sameBytes(ByteBuffer data, int off, int len, int otherOff, int otherLen) {
+        if (len != otherLen)
+            return false;
+        for (int i = 0; i < len; i++)
+            if (data.get(off + i) != data.get(otherOff + i))
+                return false;
+        return true;
+    }
+
+    // ==============================================================================
+    // Fingerprints
+
+    /**
+     * Returns a 64-bit fingerprint of a range of bytes, which is never
+     * {@code 0}: the bytes are read eight at a time, in little-endian order,
+     * whatever the order of the buffer, and mixed with multiplications and
+     * rotations, followed by the finalizer of MurmurHash3.
+     *
+     * @param buffer The buffer containing the bytes
+     * @param off    The absolute index of the bytes in the buffer
+     * @param len    The number of bytes
+     * @return long The fingerprint of the bytes
+     */
+    static long fingerprint(ByteBuffer buffer, int off, int len) {
+        final long m = 0x9E3779B97F4A7C15L;
+        boolean swap = buffer.order() != ByteOrder.LITTLE_ENDIAN;
+        long h = 0x2545F4914F6CDD1DL ^ (len * m);
+
+        int i = off, end = off + len;
+        for (; i <= end - 8; i += 8) {
+            long word = buffer.getLong(i);
+            if (swap)
+                word = Long.reverseBytes(word);
+            h = Long.rotateLeft(h ^ (word * m), 29) * 0xBF58476D1CE4E5B9L;
+        }
+        if (i < end) {
+            long word = 0L;
+            for (int shift = 0; i < end; i++, shift += 8)
+                word |= (buffer.get(i) & 0xffL) << shift;
+            h = Long.rotateLeft(h ^ (word * m), 29) * 0xBF58476D1CE4E5B9L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h == 0L) ? 1L : h;
+    }
+
+    /**
+     * Returns the slot of a fingerprint in an open-addressing table of the
+     * given capacity, a power of two.
+     */
+    private static int slot(long fingerprint, int capacity) {
+        // the low-order bits of the fingerprint also select its Bloom bits
+        return (int) (fingerprint >>> 17) & (capacity - 1);
+    }
+
+    /**
+     * A set of nonzero fingerprints, with open addressing and linear probing,
+     * which is read without locks once the first pass is over.
+     */
+    private final static class FingerprintSet {
+
+        long[] slots;
+
+        int size;
+
+        FingerprintSet(int capacity) {
+            this.slots = new long[capacity];
+        }
+
+        /**
+         * Adds a fingerprint, and returns {@code false} if it was already in
+         * the set.
+         */
+        boolean add(long fingerprint) {
+            int mask = this.slots.length - 1;
+            for (int i = slot(fingerprint, this.slots.length);; i = (i + 1) & mask) {
+                if (this.slots[i] == fingerprint)
+                    return false;
+                if (this.slots[i] == 0L) {
+                    this.slots[i] = fingerprint;
+                    break;
+                }
+            }
+            if (4 * ++this.size > 3 * this.slots.length) {
+                long[] old = this.slots;
+                this.slots = new long[2 * old.length];
+                this.size = 0;
+                for (long f : old)
+                    if (f != 0L)
+                        this.add(f);
+            }
+            return true;
+        }
+
+        boolean contains(long fingerprint) {
+            long[] slots = this.slots;
+            int mask = slots.length - 1;
+            for (int i = slot(fingerprint, slots.length);; i = (i + 1) & mask) {
+                if (slots[i] == fingerprint)
+                    return true;
+                if (slots[i] == 0L)
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * The lines of the second pass whose fingerprint is a candidate, stored by
+     * fingerprint, with their position and length in the file; several lines
+     * may have the same fingerprint.
+     */
+    private final static class LineTable {
+
+        private final FileChannel channel;
+
+        private long[] fingerprints = new long[1 << 10];
+
+        private long[] positions = new long[1 << 10];
+
+        private int[] lengths = new int[1 << 10];
+
+        private int size;
+
+        LineTable(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Adds a line, unless a line with the same bytes is already in the
+         * table, and returns whether there was one.
+         */
+        synchronized boolean addOrCompare(long fingerprint, long position, ByteBuffer buffer, int off, int len)
+                throws IOException {
+            int mask = this.fingerprints.length - 1;
+            int i = slot(fingerprint, this.fingerprints.length);
+            for (; this.fingerprints[i] != 0L; i = (i + 1) & mask)
+                if (this.fingerprints[i] == fingerprint && this.lengths[i] == len
+                        && this.positions[i] != position && this.sameBytes(this.positions[i], buffer, off, len))
+                    return true;
+
+            this.fingerprints[i] = fingerprint;
+            this.positions[i] = position;
+            this.lengths[i] = len;
+            if (4 * ++this.size > 3 * this.fingerprints.length)
+                this.grow();
+            return false;
+        }
+
+        private boolean sameBytes(long position, ByteBuffer buffer, int off, int len) throws IOException {
+            ByteBuffer other = ByteBuffer.allocate(len);
+            while (other.hasRemaining())
+                if (this.channel.read(other, position + other.position()) < 0)
+                    return false;
+            for (int i = 0; i < len; i++)
+                if (other.get(i) != buffer.get(off + i))
+                    return false;
+            return true;
+        }
+
+        private void grow() {
+            long[] fingerprints = this.fingerprints, positions = this.positions;
+            int[] lengths = this.lengths;
+            int capacity = 2 * fingerprints.length, mask = capacity - 1;
+            this.fingerprints = new long[capacity];
+            this.positions = new long[capacity];
+            this.lengths = new int[capacity];
+            for (int j = 0; j < fingerprints.length; j++) {
+                if (fingerprints[j] == 0L)
+                    continue;
+                int i = slot(fingerprints[j], capacity);
+                while (this.fingerprints[i] != 0L)
+                    i = (i + 1) & mask;
+                this.fingerprints[i] = fingerprints[j];
+                this.positions[i] = positions[j];
+                this.lengths[i] = lengths[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Companion class to {@link RandomHashFamily}, which audits the distribution
+ * of the values of each of its pseudo-random hash functions separately. <br/>
+ *
+ * Pouring the values of all the functions of a family into a single
+ * {@link UniformAudit} hides a bad function among good ones; this audit keeps
+ * the bucket counts of every function, in a single flat array of
+ * {@code count * bucketCount} counters, updated straight from the arrays
+ * filled by {@link RandomHashFamily#hashes(String, long[])}, so that each
+ * function gets its own Chi Square statistic, and the worst functions can be
+ * singled out. The pooled distribution, over all the functions, is still
+ * available (see {@link #pooled()}).
+ */
+public class FamilyAudit {
+
+    /**
+     * The number of functions whose values are audited.
+     */
+    protected final int count;
+
+    /**
+     * The number of buckets in which to group the values of each function.
+     */
+    protected final int bucketCount;
+
+    /**
+     * The layout of the buckets, which maps each value to its bucket.
+     */
+    protected final UniformAudit layout;
+
+    /**
+     * The number of values of function {@code f} in bucket {@code b}, at
+     * {@code f * bucketCount + b}.
+     */
+    protected long[] counts;
+
+    /**
+     * The number of values processed for each function.
+     */
+    protected long total;
+
+    /**
+     * Creates a new {@link FamilyAudit} instance, for the full range of values
+     * of the pseudo-random hash functions of a {@link RandomHashFamily}.
+     *
+     * @param count       The number of functions whose values are audited
+     * @param bucketCount The number of buckets in which to group the values of
+     *                    each function
+     */
+    public FamilyAudit(int count, int bucketCount) {
+        this(count, bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new {@link FamilyAudit} instance.
+     *
+     * @param count       The number of functions whose values are audited
+     * @param bucketCount The number of buckets in which to group the values of
+     *                    each function
+     * @param min         The smallest value that we expect to see among the values
+     *                    fed to this class
+     * @param max         The largest value that we expect to see among the values
+     *                    fed to this class
+     */
+    public FamilyAudit(int count, int bucketCount, long min, long max) {
+        if (count <= 0)
+            throw new IllegalArgumentException("count must be strictly positive");
+        if ((long) count * bucketCount > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("too many functions and buckets to audit at once");
+
+        this.count = count;
+        this.bucketCount = bucketCount;
+        this.layout = new UniformAudit(bucketCount, min, max);
+        this.reset();
+    }
+
+    /**
+     * Resets all internal counters to zero.
+     */
+    public void reset() {
+        this.counts = new long[this.count * this.bucketCount];
+        this.total = 0;
+    }
+
+    /**
+     * Process the hash values of a single key, as computed by
+     * {@link RandomHashFamily#hashes(String, long[])}: the value at index
+     * {@code f} is counted for function {@code f}.
+     *
+     * @param hashes The hash values of the key, of which the first
+     *               {@code count} are processed
+     * @throws IllegalArgumentException If any of the given values is not in the
+     *                                  range by the internal minimum and maximum
+     *                                  values specified at construction time.
+     */
+    public void update(long[] hashes) {
+        this.layout.checkRange(hashes, 0, this.count);
+
+        this.layout.countRows(this.counts, hashes, this.count);
+        this.total++;
+    }
+
+    /**
+     * Adds the counts of another audit to this one, as if the values processed
+     * by the other audit had been processed by this one; for instance, to
+     * combine the audits of several threads, each of which processes its own
+     * part of the keys. The result does not depend on the order in which the
+     * audits are merged.
+     *
+     * @param other An audit with the same number of functions and the same
+     *              buckets
+     */
+    public void merge(FamilyAudit other) {
+        if (other.count != this.count || other.bucketCount != this.bucketCount
+                || other.layout.minValue != this.layout.minValue || other.layout.maxValue != this.layout.maxValue)
+            throw new IllegalArgumentException("audits have different functions or buckets");
+
+        for (int i = 0; i < this.counts.length; i++)
+            this.counts[i] += other.counts[i];
+        this.total += other.total;
+    }
+
+    // ==============================================================================
+    // Reading the audit
+
+    /**
+     * Returns the number of values that have been processed so far for each
+     * function, which is the number of keys.
+     *
+     * @return long The number of values processed for each function
+     */
+    public long total() {
+        return this.total;
+    }
+
+    /**
+     * Returns the number of values of the given function in each bucket, as a
+     * new array.
+     *
+     * @param function The index of the function
+     * @return long[] An array with the number of values in each bucket
+     */
+    public long[] bucketCounts(int function) {
+        int from = function * this.bucketCount;
+        return Arrays.copyOfRange(this.counts, from, from + this.bucketCount);
+    }
+
+    /**
+     * Computes and returns Pearson's Chi Square statistic for the bucket counts
+     * of the given function (see {@link UniformAudit#chiSquaredStatistic()}).
+     *
+     * @param function The index of the function
+     * @return double Pearson's Chi Square statistic for the function
+     */
+    public double chiSquaredStatistic(int function) {
+        return UniformAudit.chiSquaredStatistic(this.bucketCounts(function));
+    }
+
+    /**
+     * Returns the p-value of the Chi Square statistic of the given function.
+     *
+     * @param function The index of the function
+     * @return double The p-value of the function
+     */
+    public double pValue(int function) {
+        return ChiSquared.pValue(this.bucketCount - 1, this.chiSquaredStatistic(function));
+    }
+
+    /**
+     * Returns {@code true} if the values of the given function are consistent
+     * with a uniform distribution at the given confidence level.
+     *
+     * @param function   The index of the function
+     * @param confidence The confidence level, strictly between 0 and 1
+     * @return boolean {@code true} if the values of the function are consistent
+     *         with a uniform distribution
+     */
+    public boolean isLikelyUniform(int function, double confidence) {
+        return UniformAudit.acceptNullHypothesis(this.bucketCount - 1, this.chiSquaredStatistic(function),
+                confidence);
+    }
+
+    /**
+     * Returns the functions whose values are the furthest from a uniform
+     * distribution, that is, with the largest Chi Square statistics.
+     *
+     * @param k The number of functions to return
+     * @return int[] The indexes of up to {@code k} functions, from the worst one
+     */
+    public int[] worstFunctions(int k) {
+        double[] statistics = new double[this.count];
+        Integer[] order = new Integer[this.count];
+        for (int f = 0; f < this.count; f++) {
+            statistics[f] = this.chiSquaredStatistic(f);
+            order[f] = f;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer f) -> statistics[f]).reversed());
+
+        int[] worst = new int[Math.min(k, this.count)];
+        for (int r = 0; r < worst.length; r++)
+            worst[r] = order[r];
+        return worst;
+    }
+
+    /**
+     * Returns a {@link UniformAudit} with the bucket counts of all the
+     * functions pooled together, as if the values of all the functions had been
+     * fed to a single {@link UniformAudit}. The returned audit is a copy, which
+     * is not updated by this one.
+     *
+     * @return UniformAudit The pooled audit
+     */
+    public UniformAudit pooled() {
+        UniformAudit pooled = new UniformAudit(this.bucketCount, this.layout.minValue, this.layout.maxValue);
+        for (int f = 0, row = 0; f < this.count; f++, row += this.bucketCount)
+            for (int b = 0; b < this.bucketCount; b++)
+                pooled.buckets[b] += this.counts[row + b];
+        pooled.total = this.total * this.count;
+        return pooled;
+    }
+
+    /**
+     * Prints the report of the pooled audit (see {@link UniformAudit#printReport()}),
+     * followed by the number of functions whose values do not seem uniformly
+     * distributed at 90% confidence (about 10% of them are expected to fail,
+     * by chance alone), and the ten worst functions.
+     */
+    public void printReport() {
+        this.pooled().printReport();
+
+        int failing = 0;
+        for (int f = 0; f < this.count; f++)
+            if (!this.isLikelyUniform(f, 0.90))
+                failing++;
+
+        System.out.printf("> functions not uniform (with 90%% confidence): %d of %d (expected about %.1f)\n",
+                failing, this.count, 0.10 * this.count);
+        System.out.println("> worst functions:");
+        for (int f : this.worstFunctions(10))
+            System.out.printf(">   %d: chi^2 = %f, p-value = %g\n", f, this.chiSquaredStatistic(f), this.pValue(f));
+    }
+}
@@ -0,0 +1,32 @@
+package edu.princeton.cs.randomhash;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the construction of a {@link RandomHashFamily},
+ * which draws the coefficients of its functions; it is only committed when
+ * the instrumentation is enabled (see {@link HashMetrics#ENABLED}).
+ */
+@Name("edu.princeton.cs.randomhash.FamilyConstruction")
+@Label("Hash Family Construction")
+@Category("Random Hash")
+@Description("Construction of a family of pseudo-random hash functions")
+final class FamilyConstructionEvent extends Event {
+
+    @Label("Family Class")
+    String family;
+
+    @Label("Seed")
+    long seed;
+
+    @Label("Functions")
+    int count;
+
+    @Label("Parallel")
+    @Description("Whether the coefficients were drawn in parallel")
+    boolean parallel;
+}
@@ -0,0 +1,70 @@
+package edu.princeton.cs.randomhash;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the hashing of a batch of keys with a
+ * {@link RandomHashFamily}, such as a chunk of the lines of a file. Hashing
+ * a single key is too short to be recorded, so clients time their own
+ * batches: they create the event with {@link #begin(RandomHashFamily)} when
+ * the instrumentation is enabled (see {@link HashMetrics#ENABLED}), and
+ * commit it with {@link #end(long, long)}.
+ */
+@Name("edu.princeton.cs.randomhash.HashBatch")
+@Label("Hash Batch")
+@Category("Random Hash")
+@Description("Hashing of a batch of keys by a family of pseudo-random hash functions")
+public final class HashBatchEvent extends Event {
+
+    @Label("Family Class")
+    String family;
+
+    @Label("Functions")
+    int functions;
+
+    @Label("Keys")
+    long keys;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    private HashBatchEvent() {
+    }
+
+    /**
+     * Starts timing a batch of keys hashed with the given family.
+     *
+     * @param family The family of hash functions
+     * @return HashBatchEvent The event, to be committed with
+     *         {@link #end(long, long)}
+     */
+    public static HashBatchEvent begin(RandomHashFamily family) {
+        HashBatchEvent event = new HashBatchEvent();
+        event.family = family.getClass().getName();
+        event.functions = family.count();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Stops timing the batch, and commits the event, if it is enabled in the
+     * Flight Recorder.
+     *
+     * @param keys  The number of keys hashed
+     * @param bytes The total length of the keys, in bytes
+     */
+    public void end(long keys, long bytes) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.keys = keys;
+            this.bytes = bytes;
+            this.commit();
+        }
+    }
+}
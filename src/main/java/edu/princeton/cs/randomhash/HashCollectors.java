@@ -0,0 +1,181 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.LongStream;
+
+/**
+ * Collectors that hash the elements of a stream with a
+ * {@link RandomHashFamily}, and build an audit or a sketch of them, such as
+ * {@link java.util.stream.Collectors} does for collections: for instance,
+ *
+ * <pre>
+ * FamilyAudit audit = lines.parallel().collect(HashCollectors.toFamilyAudit(family, 10));
+ * long[] signature = words.parallel().collect(HashCollectors.toMinHash(family));
+ * </pre>
+ *
+ * Each thread of a parallel stream accumulates into its own container, with
+ * its own array of hash values, and the containers are then merged by the
+ * combiner, so that the threads never share mutable state nor take locks; the
+ * family itself is immutable, and is shared. The collectors are unordered, and
+ * the result does not depend on how the stream is split. <br/>
+ *
+ * Streams of {@code long} keys, which have no collectors, are collected with
+ * {@link #familyAudit(LongStream, RandomHashFamily, int)} and
+ * {@link #minHash(LongStream, RandomHashFamily)}; each key is hashed as its 8
+ * bytes, in little-endian order.
+ */
+public final class HashCollectors {
+
+    private HashCollectors() {
+    }
+
+    /**
+     * The container of a thread: the audit or sketch that it builds, and the
+     * arrays into which it hashes the keys.
+     */
+    private final static class Container<R> {
+
+        final R result;
+
+        final long[] hashes;
+
+        final byte[] bytes = new byte[8];
+
+        Container(R result, int count) {
+            this.result = result;
+            this.hashes = new long[count];
+        }
+
+        /**
+         * Hashes a {@code long} key, as its 8 bytes in little-endian order.
+         */
+        void hash(RandomHashFamily family, long key) {
+            for (int i = 0; i < 8; i++)
+                this.bytes[i] = (byte) (key >>> (8 * i));
+            family.hashes(this.bytes, 0, 8, this.hashes);
+        }
+    }
+
+    // ==============================================================================
+    // Audits
+
+    private static Supplier<Container<FamilyAudit>> auditSupplier(RandomHashFamily family, int bucketCount) {
+        return () -> new Container<FamilyAudit>(new FamilyAudit(family.count(), bucketCount), family.count());
+    }
+
+    private static void mergeAudits(Container<FamilyAudit> left, Container<FamilyAudit> right) {
+        left.result.merge(right.result);
+    }
+
+    /**
+     * Returns a {@link Collector} that hashes string keys with all the
+     * functions of a family, and audits the distribution of each function (see
+     * {@link FamilyAudit}).
+     *
+     * @param family      The family of hash functions
+     * @param bucketCount The number of buckets in which to group the values of
+     *                    each function
+     * @return Collector&lt;String, ?, FamilyAudit&gt; The collector of the audit
+     */
+    public static Collector<String, ?, FamilyAudit> toFamilyAudit(RandomHashFamily family, int bucketCount) {
+        return Collector.of(auditSupplier(family, bucketCount),
+                (Container<FamilyAudit> c, String key) -> {
+                    family.hashes(key, c.hashes);
+                    c.result.update(c.hashes);
+                },
+                (left, right) -> {
+                    mergeAudits(left, right);
+                    return left;
+                },
+                c -> c.result,
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Hashes {@code long} keys with all the functions of a family, and audits
+     * the distribution of each function (see
+     * {@link #toFamilyAudit(RandomHashFamily, int)}).
+     *
+     * @param keys        The keys, which may be a parallel stream
+     * @param family      The family of hash functions
+     * @param bucketCount The number of buckets in which to group the values of
+     *                    each function
+     * @return FamilyAudit The audit
+     */
+    public static FamilyAudit familyAudit(LongStream keys, RandomHashFamily family, int bucketCount) {
+        ObjLongConsumer<Container<FamilyAudit>> accumulator = (c, key) -> {
+            c.hash(family, key);
+            c.result.update(c.hashes);
+        };
+        return keys.collect(auditSupplier(family, bucketCount), accumulator, HashCollectors::mergeAudits).result;
+    }
+
+    // ==============================================================================
+    // MinHash
+
+    private static Supplier<Container<long[]>> signatureSupplier(RandomHashFamily family) {
+        return () -> {
+            long[] signature = new long[family.count()];
+            Arrays.fill(signature, Long.MAX_VALUE);
+            return new Container<long[]>(signature, family.count());
+        };
+    }
+
+    /**
+     * Folds the hash values of a key into a MinHash signature.
+     */
+    private static void fold(long[] signature, long[] hashes) {
+        for (int f = 0; f < signature.length; f++) {
+            if (hashes[f] < signature[f])
+                signature[f] = hashes[f];
+        }
+    }
+
+    private static void combineSignatures(Container<long[]> left, Container<long[]> right) {
+        fold(left.result, right.result);
+    }
+
+    /**
+     * Returns a {@link Collector} that computes the MinHash signature of a set
+     * of string keys: the smallest value of each function of a family over the
+     * keys (see also {@link ShingleHasher}, which computes the signature of
+     * the shingles of a text, and {@link ShingleHasher#similarity(long[], long[])}).
+     * The signature of an empty stream has {@link Long#MAX_VALUE} for every
+     * function.
+     *
+     * @param family The family of hash functions
+     * @return Collector&lt;String, ?, long[]&gt; The collector of the signature
+     */
+    public static Collector<String, ?, long[]> toMinHash(RandomHashFamily family) {
+        return Collector.of(signatureSupplier(family),
+                (Container<long[]> c, String key) -> {
+                    family.hashes(key, c.hashes);
+                    fold(c.result, c.hashes);
+                },
+                (left, right) -> {
+                    combineSignatures(left, right);
+                    return left;
+                },
+                c -> c.result,
+                Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Computes the MinHash signature of a set of {@code long} keys (see
+     * {@link #toMinHash(RandomHashFamily)}).
+     *
+     * @param keys   The keys, which may be a parallel stream
+     * @param family The family of hash functions
+     * @return long[] The signature
+     */
+    public static long[] minHash(LongStream keys, RandomHashFamily family) {
+        ObjLongConsumer<Container<long[]>> accumulator = (c, key) -> {
+            c.hash(family, key);
+            fold(c.result, c.hashes);
+        };
+        return keys.collect(signatureSupplier(family), accumulator, HashCollectors::combineSignatures).result;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.princeton.cs.randomhash;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in instrumentation of {@link RandomHashFamily}, to tell how much work
+ * goes into hashing in an application: counters of the keys hashed, of their
+ * bytes and of the functions evaluated, and Flight Recorder events for the
+ * construction of families (see {@link FamilyConstructionEvent}) and for the
+ * hashing of batches of keys (see {@link HashBatchEvent}). <br/>
+ *
+ * The instrumentation is enabled by setting the system property
+ * {@value #PROPERTY} to {@code true} when the JVM starts; it is read once,
+ * into the constant {@link #ENABLED}, so that when it is disabled the JIT
+ * compiler removes the instrumentation from the hashing methods altogether.
+ * The counters are {@link LongAdder}s, which many threads can update without
+ * contending, and are exported over JMX under the name {@value #OBJECT_NAME}
+ * (see {@link HashMetricsMXBean}).
+ */
+public final class HashMetrics implements HashMetricsMXBean {
+
+    /**
+     * The system property which enables the instrumentation.
+     */
+    public final static String PROPERTY = "randomhash.metrics";
+
+    /**
+     * Whether the instrumentation is enabled, which is decided once and for
+     * all when this class is initialized.
+     */
+    public final static boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    /**
+     * The name under which the counters of {@link #global()} are registered
+     * with the platform MBean server.
+     */
+    public final static String OBJECT_NAME = "edu.princeton.cs.randomhash:type=HashMetrics";
+
+    private final static HashMetrics GLOBAL = new HashMetrics();
+
+    static {
+        if (ENABLED)
+            GLOBAL.register(OBJECT_NAME);
+    }
+
+    private final LongAdder families = new LongAdder();
+
+    private final LongAdder keys = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder functions = new LongAdder();
+
+    /**
+     * Creates new counters, all zero; the library updates those of
+     * {@link #global()}.
+     */
+    public HashMetrics() {
+    }
+
+    /**
+     * Returns the counters updated by all the families, when the
+     * instrumentation is enabled.
+     *
+     * @return HashMetrics The counters of the library
+     */
+    public static HashMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Registers these counters with the platform MBean server, under the given
+     * name.
+     *
+     * @param name The object name of the MBean
+     * @throws IllegalStateException If the MBean cannot be registered
+     */
+    public void register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + name, e);
+        }
+    }
+
+    /**
+     * Records the construction of a family.
+     */
+    public void recordFamily() {
+        this.families.increment();
+    }
+
+    /**
+     * Records the hashing of a key.
+     *
+     * @param length    The length of the key, in bytes (string keys count the
+     *                  bytes they are hashed as, in the default charset)
+     * @param functions The number of functions evaluated
+     */
+    public void recordKey(int length, int functions) {
+        this.keys.increment();
+        this.bytes.add(length);
+        this.functions.add(functions);
+    }
+
+    @Override
+    public long getFamiliesConstructed() {
+        return this.families.sum();
+    }
+
+    @Override
+    public long getKeysHashed() {
+        return this.keys.sum();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return this.bytes.sum();
+    }
+
+    @Override
+    public long getFunctionsEvaluated() {
+        return this.functions.sum();
+    }
+
+    @Override
+    public void reset() {
+        this.families.reset();
+        this.keys.reset();
+        this.bytes.reset();
+        this.functions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("families: %d, keys: %d, bytes: %d, functions: %d", this.getFamiliesConstructed(),
+                this.getKeysHashed(), this.getBytesHashed(), this.getFunctionsEvaluated());
+    }
+}
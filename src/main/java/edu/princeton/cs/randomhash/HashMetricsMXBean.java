@@ -0,0 +1,44 @@
+package edu.princeton.cs.randomhash;
+
+/**
+ * The management interface of {@link HashMetrics}, through which its counters
+ * are exported over JMX, under the name {@link HashMetrics#OBJECT_NAME}, when
+ * the instrumentation is enabled.
+ */
+public interface HashMetricsMXBean {
+
+    /**
+     * Returns the number of families of hash functions constructed.
+     *
+     * @return long The number of families constructed
+     */
+    long getFamiliesConstructed();
+
+    /**
+     * Returns the number of keys hashed, by all the families.
+     *
+     * @return long The number of keys hashed
+     */
+    long getKeysHashed();
+
+    /**
+     * Returns the total length of the keys hashed, in bytes (in chars, for
+     * string keys).
+     *
+     * @return long The total length of the keys hashed
+     */
+    long getBytesHashed();
+
+    /**
+     * Returns the number of hash values computed, which is the number of keys
+     * hashed times the number of functions evaluated for each.
+     *
+     * @return long The number of functions evaluated
+     */
+    long getFunctionsEvaluated();
+
+    /**
+     * Resets all the counters to zero.
+     */
+    void reset();
+}
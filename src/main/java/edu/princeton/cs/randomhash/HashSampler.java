@@ -0,0 +1,360 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Down-samples a stream of events by key: an event is kept when the value of
+ * the first function of a {@link RandomHashFamily} for its key is below a
+ * threshold, which is precomputed from the sampling rate, so that all the
+ * events of a key are kept or dropped together, and that every process that
+ * uses a family with the same seed makes the same decisions. Since the
+ * decision is a comparison with a threshold, the keys kept at some rate are
+ * also kept at any higher rate. <br/>
+ *
+ * The rate can be changed at any time (see {@link #setRate(double)}), or be
+ * adapted to keep a target number of events per second (see
+ * {@link #HashSampler(RandomHashFamily, double, long, TimeUnit)}): the events
+ * offered are then counted, and a daemon thread periodically sets the rate to
+ * the target divided by the number of events offered per second, smoothed
+ * over the periods. Since events are kept by key, this only keeps about the
+ * target number of events when the events are spread over many keys (see
+ * {@link #adapt(long, long)}). <br/>
+ *
+ * Deciding for a key costs its base hash, a multiplication and a comparison:
+ * less than {@link RandomHashFamily#hash(String)}, which fills an array. Keys
+ * may be filtered by batches (see {@link #filter(String[], BitSet)}), and a
+ * sampler may be used by several threads at once.
+ */
+public class HashSampler implements Closeable {
+
+    /**
+     * The weight of the rate computed for the last period, when the rate is
+     * adapted, against that of the previous rate.
+     */
+    protected final static double SMOOTHING = 0.5;
+
+    /**
+     * The family, whose first function decides which keys are kept.
+     */
+    protected final RandomHashFamily family;
+
+    /**
+     * Whether the value of the first function is computed from the
+     * coefficients of the family directly, rather than with
+     * {@link RandomHashFamily#fillHashes(long, long[], int)}.
+     */
+    private final boolean direct;
+
+    private final long coprime;
+
+    private final long noise;
+
+    /**
+     * An array of one value per thread, for families which are not
+     * {@link #direct}.
+     */
+    private final ThreadLocal<long[]> hash = ThreadLocal.withInitial(() -> new long[1]);
+
+    private volatile double rate;
+
+    /**
+     * The keys whose value is strictly lower are kept.
+     */
+    private volatile long threshold;
+
+    /**
+     * The target number of events kept per second, or 0 if the rate is not
+     * adapted.
+     */
+    private final double targetPerSecond;
+
+    /**
+     * The number of events offered since the rate was last adapted, or
+     * {@code null} if the rate is not adapted.
+     */
+    private final LongAdder offered;
+
+    private final ScheduledExecutorService scheduler;
+
+    private long lastAdapted;
+
+    /**
+     * Creates a new {@link HashSampler}, with the given sampling rate.
+     *
+     * @param family The family, whose first function decides which keys are
+     *               kept
+     * @param rate   The fraction of the keys to keep, between 0 and 1
+     */
+    public HashSampler(RandomHashFamily family, double rate) {
+        this(family, rate, 0.0, 0L, null);
+    }
+
+    /**
+     * Creates a new {@link HashSampler}, whose rate is adapted to keep the
+     * given number of events per second, at the given interval, starting with
+     * all the events. The rate is adapted by a daemon thread, which is stopped
+     * by {@link #close()}.
+     *
+     * @param family          The family, whose first function decides which
+     *                        keys are kept
+     * @param targetPerSecond The number of events to keep per second
+     * @param interval        The interval at which the rate is adapted
+     * @param unit            The unit of the interval
+     * @throws IllegalArgumentException If the target or the interval is not
+     *                                  strictly positive
+     */
+    public HashSampler(RandomHashFamily family, double targetPerSecond, long interval, TimeUnit unit) {
+        this(family, 1.0, targetPerSecond, interval, Objects.requireNonNull(unit, "unit"));
+    }
+
+    /**
+     * Creates a new {@link HashSampler}, whose rate is adapted if
+     * {@code unit} is not {@code null}; the arguments are all checked before
+     * the thread that adapts the rate is started, which would otherwise be
+     * left running.
+     */
+    private HashSampler(RandomHashFamily family, double rate, double targetPerSecond, long interval,
+            TimeUnit unit) {
+        if (family.count() < 1)
+            throw new IllegalArgumentException("the family must have at least one function");
+        if (unit != null && !(targetPerSecond > 0))
+            throw new IllegalArgumentException("the target must be strictly positive");
+        if (unit != null && interval <= 0)
+            throw new IllegalArgumentException("the interval must be strictly positive");
+
+        this.family = family;
+        // subclasses may override fillHashes(), which then computes their values
+        this.direct = family.getClass() == RandomHashFamily.class || family.getClass() == ChecksumHashFamily.class;
+        this.coprime = this.direct ? family.numsCoprime[0] : 0;
+        this.noise = this.direct ? family.numsNoise[0] : 0;
+
+        this.targetPerSecond = targetPerSecond;
+        this.offered = unit != null ? new LongAdder() : null;
+        this.setRate(rate);
+
+        if (unit == null) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hash-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastAdapted = System.nanoTime();
+        this.scheduler.scheduleAtFixedRate(this::adapt, interval, interval, unit);
+    }
+
+    /**
+     * Returns the fraction of the keys that are kept.
+     *
+     * @return double The sampling rate, between 0 and 1
+     */
+    public double rate() {
+        return this.rate;
+    }
+
+    /**
+     * Changes the fraction of the keys that are kept, from now on.
+     *
+     * @param rate The sampling rate, between 0 and 1
+     */
+    public void setRate(double rate) {
+        if (!(rate >= 0.0 && rate <= 1.0))
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+
+        // the values are the 2^32 integers from 0 to MAX_VALUE
+        this.threshold = (long) Math.floor(rate * (RandomHashFamily.MAX_VALUE + 1.0));
+        this.rate = rate;
+    }
+
+    /**
+     * Returns the threshold of the values of the keys that are kept.
+     *
+     * @return long The keys whose value is strictly lower are kept
+     */
+    public long threshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Returns the value of the first function of the family for a key with
+     * the given base hash value.
+     */
+    private long value(long baseHash) {
+        if (this.direct)
+            return RandomHashFamily.truncateLong(RandomHashFamily.affineTransform(baseHash, this.coprime, this.noise));
+
+        long[] hash = this.hash.get();
+        this.family.fillHashes(baseHash, hash, 1);
+        return hash[0];
+    }
+
+    private boolean keep(long baseHash, int length, long threshold) {
+        if (HashMetrics.ENABLED)
+            HashMetrics.global().recordKey(length, 1);
+        return this.value(baseHash) < threshold;
+    }
+
+    private void offer(int events) {
+        if (this.offered != null)
+            this.offered.add(events);
+    }
+
+    /**
+     * Returns whether the events of the given key are kept.
+     *
+     * @param key A string key
+     * @return boolean Whether the events of the key are kept
+     */
+    public boolean keep(String key) {
+        this.offer(1);
+        long baseHash = this.family.baseHash(key);
+        return this.keep(baseHash, HashMetrics.ENABLED ? RandomHashFamily.encodedLength(key) : 0, this.threshold);
+    }
+
+    /**
+     * Returns whether the events of the given key are kept.
+     *
+     * @param key A byte array key
+     * @return boolean Whether the events of the key are kept
+     */
+    public boolean keep(byte[] key) {
+        return this.keep(key, 0, key.length);
+    }
+
+    /**
+     * Returns whether the events of the given key, given as a range of bytes,
+     * are kept.
+     *
+     * @param key A byte array containing the key
+     * @param off The offset of the key in the array
+     * @param len The length of the key, in bytes
+     * @return boolean Whether the events of the key are kept
+     */
+    public boolean keep(byte[] key, int off, int len) {
+        this.offer(1);
+        return this.keep(this.family.baseHash(key, off, len), len, this.threshold);
+    }
+
+    /**
+     * Returns whether the events of the given key, given as a range of bytes
+     * of a buffer, are kept (see
+     * {@link RandomHashFamily#hashes(ByteBuffer, int, int, long[])}).
+     *
+     * @param key A buffer containing the key
+     * @param off The absolute index of the key in the buffer
+     * @param len The length of the key, in bytes
+     * @return boolean Whether the events of the key are kept
+     */
+    public boolean keep(ByteBuffer key, int off, int len) {
+        this.offer(1);
+        return this.keep(this.family.baseHash(key, off, len), len, this.threshold);
+    }
+
+    /**
+     * Decides which of a batch of keys are kept, with the same rate for all.
+     *
+     * @param keys The string keys
+     * @param kept The set in which bit {@code i} is set if key {@code i} is
+     *             kept, and cleared otherwise
+     * @return int The number of keys kept
+     */
+    public int filter(String[] keys, BitSet kept) {
+        this.offer(keys.length);
+        long threshold = this.threshold;
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long baseHash = this.family.baseHash(keys[i]);
+            boolean keep = this.keep(baseHash, HashMetrics.ENABLED ? RandomHashFamily.encodedLength(keys[i]) : 0,
+                    threshold);
+            kept.set(i, keep);
+            if (keep)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decides which of a batch of keys are kept, with the same rate for all.
+     *
+     * @param keys The byte array keys
+     * @param kept The set in which bit {@code i} is set if key {@code i} is
+     *             kept, and cleared otherwise
+     * @return int The number of keys kept
+     */
+    public int filter(byte[][] keys, BitSet kept) {
+        this.offer(keys.length);
+        long threshold = this.threshold;
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            boolean keep = this.keep(this.family.baseHash(keys[i], 0, keys[i].length), keys[i].length, threshold);
+            kept.set(i, keep);
+            if (keep)
+                count++;
+        }
+        return count;
+    }
+
+    // ==============================================================================
+    // Adaptive sampling
+
+    /**
+     * Returns the number of events to keep per second, when the rate is
+     * adapted.
+     *
+     * @return double The target number of events per second, or 0 if the rate
+     *         is not adapted
+     */
+    public double targetPerSecond() {
+        return this.targetPerSecond;
+    }
+
+    private void adapt() {
+        long now = System.nanoTime();
+        this.adapt(this.offered.sumThenReset(), now - this.lastAdapted);
+        this.lastAdapted = now;
+    }
+
+    /**
+     * Adapts the rate to the number of events offered in the last period: the
+     * rate that would have kept the target number of events per second is
+     * averaged with the current rate. The rate is left unchanged when no
+     * event was offered. <br/>
+     *
+     * This assumes that a rate {@code r} keeps a fraction {@code r} of the
+     * events, as sampling events independently would; but events are sampled
+     * by key, so that this only holds when no key has a large share of the
+     * events. When a few keys carry most of them, the events kept in a period
+     * depend on whether these keys are below the threshold, and the number of
+     * events kept does not converge to the target: it may stay above it, or
+     * well below it, whatever the number of periods.
+     *
+     * @param offered      The number of events offered during the period
+     * @param elapsedNanos The length of the period, in nanoseconds
+     */
+    void adapt(long offered, long elapsedNanos) {
+        if (offered <= 0 || elapsedNanos <= 0)
+            return;
+
+        double offeredPerSecond = offered * 1e9 / elapsedNanos;
+        double rate = Math.min(1.0, this.targetPerSecond / offeredPerSecond);
+        this.setRate(SMOOTHING * rate + (1 - SMOOTHING) * this.rate);
+    }
+
+    /**
+     * Stops adapting the rate, which keeps its last value.
+     */
+    @Override
+    public void close() {
+        if (this.scheduler != null)
+            this.scheduler.shutdownNow();
+    }
+}
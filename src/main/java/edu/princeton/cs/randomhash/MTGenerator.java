@@ -0,0 +1,15 @@
+package edu.princeton.cs.randomhash;
+
+/**
+ * The interfaces implemented by {@link MTRandom} beyond those of
+ * {@link java.util.Random}. <br/>
+ *
+ * This version, used up to JDK 16, is empty; the version of this interface
+ * packaged for JDK 17 and later (in {@code META-INF/versions/17} of the
+ * multi-release JAR) extends
+ * {@code java.util.random.RandomGenerator.JumpableGenerator}, which
+ * {@link MTRandom} implements with its {@code copy()}, {@code jump()} and
+ * {@code jumpDistance()} methods.
+ */
+interface MTGenerator {
+}
@@ -0,0 +1,346 @@
+package edu.princeton.cs.randomhash;
+
+/**
+ * Jump-ahead support for {@link MTRandom}, using the polynomial method of
+ * Haramoto, Matsumoto, Nishimura, Panneton and L'Ecuyer, "Efficient Jump
+ * Ahead for F2-Linear Random Number Generators" (INFORMS Journal on
+ * Computing, 2008). <br/>
+ *
+ * The state transition {@code T} of MT19937 is a linear map over GF(2), whose
+ * minimal polynomial {@code φ} has degree 19937. Advancing the generator by
+ * {@code J} steps is the same as applying {@code g(T)} to the state, where
+ * {@code g(x) = x^J mod φ(x)}; computing {@code g} takes {@code O(log J)}
+ * polynomial squarings, and applying it takes 19937 single steps of the
+ * generator, regardless of {@code J}. <br/>
+ *
+ * The polynomial {@code φ} is recovered once, lazily, with the
+ * Berlekamp-Massey algorithm, from an output sequence of the generator.
+ */
+final class MTJump {
+
+    // Constants of the MT19937 recurrence (see MTRandom)
+    private final static int N = 624;
+    private final static int M = 397;
+    private final static int UPPER_MASK = 0x80000000;
+    private final static int LOWER_MASK = 0x7fffffff;
+    private final static int MATRIX_A = 0x9908b0df;
+
+    /**
+     * Degree of the minimal polynomial of the MT19937 state transition.
+     */
+    final static int DEGREE = 19937;
+
+    /**
+     * Number of 64-bit words used to store a polynomial of degree smaller than
+     * {@link #DEGREE}.
+     */
+    private final static int WORDS = (DEGREE + 63) >>> 6;
+
+    /**
+     * Number of squarings for which the polynomials {@code x^(2^k) mod φ} are
+     * cached, which covers all jump distances that are powers of two up to
+     * {@code 2^255}.
+     */
+    private final static int CACHED_POWERS = 256;
+
+    private final static long[][] powersOfTwo = new long[CACHED_POWERS][];
+
+    private MTJump() {
+    }
+
+    /**
+     * Lazily computed minimal polynomial of the MT19937 state transition, as
+     * a bit array of {@code DEGREE + 1} coefficients (lowest degree first).
+     */
+    private final static class Minimal {
+        final static long[] POLY = minimalPolynomial();
+
+        /**
+         * The 256 multiples {@code q(x) φ(x)} with {@code deg q < 8}, indexed by
+         * their coefficients of degree {@code DEGREE} to {@code DEGREE + 7}, so
+         * that reductions can clear 8 bits at a time.
+         */
+        final static long[][] MULTIPLES = multiples(POLY);
+    }
+
+    // ==============================================================================
+    // Stepping the generator one word at a time
+
+    /**
+     * Generates one new word of the MT19937 recurrence in the circular buffer
+     * {@code ring}, overwriting the oldest word at position {@code i}.
+     */
+    private static void step(int[] ring, int i) {
+        int i1 = (i + 1 < N) ? i + 1 : i + 1 - N;
+        int iM = (i + M < N) ? i + M : i + M - N;
+        int y = (ring[i] & UPPER_MASK) | (ring[i1] & LOWER_MASK);
+        ring[i] = ring[iM] ^ (y >>> 1) ^ ((-(y & 0x1)) & MATRIX_A);
+    }
+
+    // ==============================================================================
+    // Recovering the minimal polynomial
+
+    /**
+     * Recovers the minimal polynomial of the state transition from the
+     * lowest bit of 2 * {@link #DEGREE} consecutive words of the generator,
+     * using the Berlekamp-Massey algorithm over GF(2).
+     */
+    private static long[] minimalPolynomial() {
+        final int length = 2 * DEGREE;
+
+        // Any state generated by the recurrence will do, since the minimal
+        // polynomial is irreducible; the seeding is that of init_genrand(5489)
+        int[] ring = new int[N];
+        ring[0] = 5489;
+        for (int i = 1; i < N; i++)
+            ring[i] = 1812433253 * (ring[i - 1] ^ (ring[i - 1] >>> 30)) + i;
+
+        // The sequence is stored reversed, so that the discrepancy can be
+        // computed as the dot product of two bit arrays
+        long[] reversed = new long[(length >>> 6) + 2];
+        for (int n = 0, i = 0; n < length; n++) {
+            step(ring, i);
+            if ((ring[i] & 0x1) != 0) {
+                int pos = length - 1 - n;
+                reversed[pos >>> 6] |= 1L << pos;
+            }
+            if (++i == N)
+                i = 0;
+        }
+
+        int size = ((length + 1) >>> 6) + 2;
+        long[] c = new long[size];
+        long[] b = new long[size];
+        long[] t = new long[size];
+        c[0] = b[0] = 1L;
+        int l = 0, m = 1;
+
+        for (int n = 0; n < length; n++) {
+            // discrepancy: s[n] + sum_{i=1..l} c[i] s[n-i]
+            int base = length - 1 - n;
+            long acc = 0;
+            for (int w = 0, last = l >>> 6; w <= last; w++)
+                acc ^= c[w] & bitsAt(reversed, base + (w << 6));
+            if ((Long.bitCount(acc) & 0x1) == 0) {
+                m++;
+            } else if (2 * l <= n) {
+                System.arraycopy(c, 0, t, 0, size);
+                xorShifted(c, b, m);
+                l = n + 1 - l;
+                long[] swap = b;
+                b = t;
+                t = swap;
+                m = 1;
+            } else {
+                xorShifted(c, b, m);
+                m++;
+            }
+        }
+
+        if (l != DEGREE)
+            throw new IllegalStateException("unexpected linear complexity: " + l);
+
+        // the characteristic polynomial is the reciprocal of the connection
+        // polynomial: phi(x) = x^l c(1/x)
+        long[] phi = new long[(DEGREE >>> 6) + 1];
+        for (int i = 0; i <= l; i++)
+            if (((c[i >>> 6] >>> i) & 0x1) != 0)
+                phi[(l - i) >>> 6] |= 1L << (l - i);
+        return phi;
+    }
+
+    /**
+     * Computes the table of multiples of {@code phi} used in
+     * {@link #reduce(long[])}.
+     */
+    private static long[][] multiples(long[] phi) {
+        long[][] table = new long[256][];
+        for (int q = 0; q < 256; q++) {
+            long[] product = new long[WORDS + 1];
+            for (int j = 0; j < 8; j++)
+                if (((q >>> j) & 0x1) != 0)
+                    xorShifted(product, phi, j);
+            table[(int) (bitsAt(product, DEGREE) & 0xff)] = product;
+        }
+        return table;
+    }
+
+    /**
+     * Returns the 64 bits of {@code bits} starting at bit position {@code pos},
+     * reading zeros past the end of the array.
+     */
+    private static long bitsAt(long[] bits, int pos) {
+        int q = pos >>> 6, r = pos & 63;
+        long lo = (q < bits.length) ? bits[q] : 0L;
+        if (r == 0)
+            return lo;
+        long hi = (q + 1 < bits.length) ? bits[q + 1] : 0L;
+        return (lo >>> r) | (hi << (64 - r));
+    }
+
+    /**
+     * Sets {@code a ^= b * x^shift}, ignoring the bits that overflow
+     * {@code a}.
+     */
+    private static void xorShifted(long[] a, long[] b, int shift) {
+        int q = shift >>> 6, r = shift & 63;
+        if (r == 0) {
+            for (int i = 0; i + q < a.length && i < b.length; i++)
+                a[i + q] ^= b[i];
+        } else {
+            long carry = 0;
+            for (int i = 0, end = Math.min(a.length - q, b.length + 1); i < end; i++) {
+                long w = (i < b.length) ? b[i] : 0L;
+                a[i + q] ^= (w << r) | carry;
+                carry = w >>> (64 - r);
+            }
+        }
+    }
+
+    // ==============================================================================
+    // Arithmetic modulo the minimal polynomial
+
+    /**
+     * Reduces, in place, a polynomial of degree smaller than
+     * {@code 2 * DEGREE} modulo the minimal polynomial, and returns its
+     * {@link #WORDS} low-order words.
+     */
+    private static long[] reduce(long[] p) {
+        long[][] multiples = Minimal.MULTIPLES;
+        int bit = (p.length << 6) - 1;
+        for (; bit - 7 >= DEGREE; bit -= 8) {
+            int top = (int) (bitsAt(p, bit - 7) & 0xff);
+            if (top != 0)
+                xorShifted(p, multiples[top], bit - 7 - DEGREE);
+        }
+        for (; bit >= DEGREE; bit--)
+            if (((p[bit >>> 6] >>> bit) & 0x1) != 0)
+                xorShifted(p, Minimal.POLY, bit - DEGREE);
+        long[] result = new long[WORDS];
+        System.arraycopy(p, 0, result, 0, WORDS);
+        return result;
+    }
+
+    /**
+     * Returns {@code p(x)^2 mod φ(x)}.
+     */
+    private static long[] square(long[] p) {
+        // squaring over GF(2) interleaves the coefficients with zeros
+        long[] sq = new long[2 * WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            sq[2 * i] = spread((int) p[i]);
+            sq[2 * i + 1] = spread((int) (p[i] >>> 32));
+        }
+        return reduce(sq);
+    }
+
+    /**
+     * Returns the 64-bit value whose even bits are the bits of {@code v}.
+     */
+    private static long spread(int v) {
+        long x = Integer.toUnsignedLong(v);
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Returns {@code x * p(x) mod φ(x)}.
+     */
+    private static long[] timesX(long[] p) {
+        long[] r = new long[WORDS + 1];
+        xorShifted(r, p, 1);
+        return reduce(r);
+    }
+
+    /**
+     * Returns the polynomial {@code x^steps mod φ(x)}.
+     *
+     * @param steps The non-negative jump distance.
+     * @return long[] The jump polynomial for {@code steps} steps.
+     */
+    static long[] jumpPolynomial(long steps) {
+        long[] p = new long[WORDS];
+        p[0] = 1L;
+        for (int bit = 63 - Long.numberOfLeadingZeros(steps); bit >= 0; bit--) {
+            p = square(p);
+            if (((steps >>> bit) & 0x1) != 0)
+                p = timesX(p);
+        }
+        return p;
+    }
+
+    /**
+     * Returns the polynomial {@code x^(2^log2Steps) mod φ(x)}; these are
+     * cached, as they are typically requested again and again to split
+     * generators.
+     *
+     * @param log2Steps The base 2 logarithm of the jump distance.
+     * @return long[] The jump polynomial for {@code 2^log2Steps} steps.
+     */
+    static long[] jumpPolynomialPowerOfTwo(int log2Steps) {
+        if (log2Steps < 0 || log2Steps >= CACHED_POWERS)
+            throw new IllegalArgumentException("log2Steps must be between 0 and " + (CACHED_POWERS - 1));
+        synchronized (powersOfTwo) {
+            if (powersOfTwo[0] == null)
+                powersOfTwo[0] = jumpPolynomial(1L);
+            int k = log2Steps;
+            while (powersOfTwo[k] == null)
+                k--;
+            for (; k < log2Steps; k++)
+                powersOfTwo[k + 1] = square(powersOfTwo[k]);
+            return powersOfTwo[log2Steps];
+        }
+    }
+
+    // ==============================================================================
+    // Applying a jump
+
+    /**
+     * Computes the state reached from the given state after applying the jump
+     * polynomial {@code g}. <br/>
+     *
+     * The state is given as in {@link MTRandom}: the array {@code mt} of the
+     * last block of {@code N} words generated, of which the first {@code mti}
+     * have already been consumed. The result is the block of the next
+     * {@code N} words to be consumed after the jump, so that it is a valid
+     * state for {@code mti = 0}.
+     *
+     * @param mt  The current block of words.
+     * @param mti The number of words of the block already consumed.
+     * @param g   The jump polynomial.
+     * @return int[] The next {@code N} words to be consumed after the jump.
+     */
+    static int[] advance(int[] mt, int mti, long[] g) {
+        // bring the circular buffer to the window of the next N words
+        int[] ring = mt.clone();
+        int start = 0;
+        for (int k = 0; k < mti; k++) {
+            step(ring, start);
+            if (++start == N)
+                start = 0;
+        }
+
+        // sum_{i} g_i T^i (window)
+        int[] result = new int[N];
+        int degree = (WORDS << 6) - 1;
+        while (degree > 0 && ((g[degree >>> 6] >>> degree) & 0x1) == 0)
+            degree--;
+        for (int i = 0; i <= degree; i++) {
+            if (((g[i >>> 6] >>> i) & 0x1) != 0) {
+                int tail = N - start;
+                for (int k = 0; k < tail; k++)
+                    result[k] ^= ring[start + k];
+                for (int k = tail; k < N; k++)
+                    result[k] ^= ring[k - tail];
+            }
+            step(ring, start);
+            if (++start == N)
+                start = 0;
+        }
+        return result;
+    }
+}
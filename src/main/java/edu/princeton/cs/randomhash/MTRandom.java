@@ -27,7 +27,11 @@
 
 package edu.princeton.cs.randomhash;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * A Java implementation of the MT19937 (Mersenne Twister) pseudo random
@@ -53,6 +57,13 @@ import java.util.Random;
  *         advantage of having a far longer period and the ability to use a
  *         far larger seed value.
  *         <p>
+ *         The methods nextLong(), nextInt(int) and the stream methods
+ *         (ints(), longs() and doubles()) are specialized, so as to draw
+ *         all the words they need under a single lock. On JDK 17 and later,
+ *         this class is also a
+ *         java.util.random.RandomGenerator.JumpableGenerator (and so a
+ *         StreamableGenerator), whose jump() moves 2^128 words ahead.
+ *         <p>
  *         This is <b>not</b> a cryptographically strong source of randomness
  *         and should <b>not</b> be used for cryptographic systems or in any
  *         other situation where true random numbers are required.
@@ -90,7 +101,7 @@ import java.util.Random;
  *         -->
  * 
  */
-public class MTRandom extends Random {
+public class MTRandom extends Random implements MTGenerator {
 
 	/**
 	 * Auto-generated serial version UID. Note that MTRandom does NOT
@@ -115,6 +126,20 @@ public class MTRandom extends Random {
 	private final static int MAGIC_SEED = 19650218;
 	private final static long DEFAULT_SEED = 5489L;
 
+	/**
+	 * The number of 32-bit words in a snapshot of the state of an
+	 * instance (see saveState()): the 624 words of the internal state,
+	 * followed by the index of the next word to be used.
+	 */
+	public final static int STATE_SIZE = N + 1;
+
+	// Below this distance, jumping ahead is done by generating the words
+	private final static long JUMP_THRESHOLD = 1L << 20;
+
+	// Distance (as a power of two) of jump(), and between the streams
+	// returned by split()
+	private final static int JUMP_LOG2 = 128;
+
 	// Internal state
 	private transient int[] mt;
 	private transient int mti;
@@ -197,6 +222,22 @@ public class MTRandom extends Random {
 		setSeed(buf);
 	}
 
+	/**
+	 * This private constructor creates a copy of the given instance, which
+	 * will produce the same pseudo random number sequence from this point
+	 * on, independently of the original.
+	 * 
+	 * @param other The instance to copy.
+	 */
+	private MTRandom(MTRandom other) {
+		super(0L);
+		synchronized (other) {
+			compat = other.compat;
+			mt = other.mt.clone();
+			mti = other.mti;
+		}
+	}
+
 	// Initializes mt[N] with a simple integer seed. This method is
 	// required as part of the Mersenne Twister algorithm but need
 	// not be made public.
@@ -339,6 +380,13 @@ public class MTRandom extends Random {
 	 *         specified number of bits in the lower part of the integer.
 	 */
 	protected final synchronized int next(int bits) {
+		return (nextWord() >>> (32 - bits));
+	}
+
+	// Generates the next 32-bit word of the sequence; this is genrand_int32
+	// of the original C code. Callers must hold the lock on this instance,
+	// which allows several words to be drawn under a single lock.
+	private int nextWord() {
 		// ---- Begin Mersenne Twister Algorithm ----
 		int y, kk;
 		if (mti >= N) { // generate N words at one time
@@ -373,7 +421,291 @@ public class MTRandom extends Random {
 		y ^= (y << 15) & MAGIC_MASK2;
 		y ^= (y >>> 18);
 		// ---- End Mersenne Twister Algorithm ----
-		return (y >>> (32 - bits));
+		return y;
+	}
+
+	/**
+	 * Fills the given array with the next words of the pseudo random
+	 * sequence, as next(32) would return them, under a single lock.
+	 * 
+	 * @param buf The array to fill.
+	 * @param len The number of words to generate.
+	 */
+	final synchronized void nextWords(int[] buf, int len) {
+		for (int i = 0; i < len; i++)
+			buf[i] = nextWord();
+	}
+
+	/**
+	 * Returns the next pseudo random 64 bit value. This returns the
+	 * same values as java.util.Random would (the concatenation of two
+	 * 32-bit words), but draws both words under a single lock.
+	 * 
+	 * @return The next pseudo random long value.
+	 */
+	@Override
+	public synchronized long nextLong() {
+		return ((long) nextWord() << 32) + nextWord();
+	}
+
+	/**
+	 * Returns a pseudo random value uniformly distributed between 0
+	 * (inclusive) and the given bound (exclusive). This returns the same
+	 * values as java.util.Random would (from 31-bit values, retried when
+	 * they fall in the incomplete last multiple of the bound), but draws
+	 * all the words it needs under a single lock.
+	 * 
+	 * @param bound The upper bound (exclusive), which must be positive.
+	 * @return The next pseudo random value between 0 and bound.
+	 * @throws IllegalArgumentException if the bound is not positive.
+	 */
+	@Override
+	public int nextInt(int bound) {
+		if (bound <= 0)
+			throw new IllegalArgumentException("bound must be positive");
+		synchronized (this) {
+			int r = nextWord() >>> 1;
+			int m = bound - 1;
+			if ((bound & m) == 0)
+				return (int) ((bound * (long) r) >> 31);
+			for (int u = r; u - (r = u % bound) + m < 0; u = nextWord() >>> 1)
+				;
+			return r;
+		}
+	}
+
+	@Override
+	public IntStream ints(long streamSize) {
+		return MTStreams.ints(this, streamSize);
+	}
+
+	@Override
+	public IntStream ints() {
+		return MTStreams.ints(this, Long.MAX_VALUE);
+	}
+
+	@Override
+	public IntStream ints(long streamSize, int randomNumberOrigin, int randomNumberBound) {
+		return MTStreams.ints(this, streamSize, randomNumberOrigin, randomNumberBound);
+	}
+
+	@Override
+	public IntStream ints(int randomNumberOrigin, int randomNumberBound) {
+		return MTStreams.ints(this, Long.MAX_VALUE, randomNumberOrigin, randomNumberBound);
+	}
+
+	@Override
+	public LongStream longs(long streamSize) {
+		return MTStreams.longs(this, streamSize);
+	}
+
+	@Override
+	public LongStream longs() {
+		return MTStreams.longs(this, Long.MAX_VALUE);
+	}
+
+	@Override
+	public LongStream longs(long streamSize, long randomNumberOrigin, long randomNumberBound) {
+		return MTStreams.longs(this, streamSize, randomNumberOrigin, randomNumberBound);
+	}
+
+	@Override
+	public LongStream longs(long randomNumberOrigin, long randomNumberBound) {
+		return MTStreams.longs(this, Long.MAX_VALUE, randomNumberOrigin, randomNumberBound);
+	}
+
+	@Override
+	public DoubleStream doubles(long streamSize) {
+		return MTStreams.doubles(this, streamSize);
+	}
+
+	@Override
+	public DoubleStream doubles() {
+		return MTStreams.doubles(this, Long.MAX_VALUE);
+	}
+
+	@Override
+	public DoubleStream doubles(long streamSize, double randomNumberOrigin, double randomNumberBound) {
+		return MTStreams.doubles(this, streamSize, randomNumberOrigin, randomNumberBound);
+	}
+
+	@Override
+	public DoubleStream doubles(double randomNumberOrigin, double randomNumberBound) {
+		return MTStreams.doubles(this, Long.MAX_VALUE, randomNumberOrigin, randomNumberBound);
+	}
+
+	/**
+	 * Returns a new instance of MTRandom, in the exact same state as this
+	 * instance. Both instances will then produce the same pseudo random
+	 * number sequence, independently of each other.
+	 * 
+	 * @return A copy of this instance.
+	 */
+	public MTRandom copy() {
+		return new MTRandom(this);
+	}
+
+	/**
+	 * This method advances the state of this instance as if next() had
+	 * been called the given number of times, and so skips that many
+	 * 32-bit words of the pseudo random number sequence (note that
+	 * nextLong() and nextDouble() consume two words each).
+	 * <p>
+	 * Large distances are skipped using the polynomial jump-ahead
+	 * method of Haramoto et al. (2008), whose cost is essentially
+	 * independent of the distance: it amounts to generating about
+	 * 20000 words, plus a few polynomial squarings per bit of the
+	 * distance. Shorter distances are skipped by generating the words.
+	 * 
+	 * @param steps The non-negative number of words to skip.
+	 * @throws IllegalArgumentException if the distance is negative.
+	 */
+	public final synchronized void jump(long steps) {
+		if (steps < 0)
+			throw new IllegalArgumentException("Jump distance may not be negative");
+		if (steps < JUMP_THRESHOLD) {
+			for (long k = 0; k < steps; k++)
+				next(32);
+		} else {
+			mt = MTJump.advance(mt, mti, MTJump.jumpPolynomial(steps));
+			mti = 0;
+		}
+	}
+
+	/**
+	 * This method advances the state of this instance as if next() had
+	 * been called 2^log2Steps times. The polynomials used to jump ahead
+	 * by powers of two are cached, so that repeated jumps of the same
+	 * distance only cost about 20000 words of generation.
+	 * 
+	 * @param log2Steps The base 2 logarithm of the number of words to
+	 *                  skip, between 0 and 255.
+	 * @throws IllegalArgumentException if the logarithm is out of range.
+	 */
+	public final synchronized void jumpPowerOfTwo(int log2Steps) {
+		if (log2Steps < 63 && (1L << log2Steps) < JUMP_THRESHOLD) {
+			jump(1L << log2Steps);
+		} else {
+			mt = MTJump.advance(mt, mti, MTJump.jumpPolynomialPowerOfTwo(log2Steps));
+			mti = 0;
+		}
+	}
+
+	/**
+	 * This method advances the state of this instance by 2^128 words,
+	 * the distance between the streams returned by split().
+	 */
+	public void jump() {
+		jumpPowerOfTwo(JUMP_LOG2);
+	}
+
+	/**
+	 * Returns the distance by which jump() advances the state of this
+	 * instance, that is 2^128 words.
+	 * 
+	 * @return The jump distance, as a double.
+	 */
+	public double jumpDistance() {
+		return 0x1.0p128;
+	}
+
+	/**
+	 * Returns a new instance of MTRandom which produces the pseudo random
+	 * number sequence this instance would have produced, and then moves
+	 * this instance 2^128 words ahead. Instances obtained by successive
+	 * calls to split() thus produce non-overlapping sequences (as long as
+	 * each uses fewer than 2^128 words), and can be handed out to
+	 * independent workers.
+	 * 
+	 * @return A new instance, positioned where this instance was.
+	 */
+	public final synchronized MTRandom split() {
+		MTRandom child = copy();
+		jump();
+		return child;
+	}
+
+	/**
+	 * This method copies the exact state of this instance, as
+	 * STATE_SIZE words, into the given array. Restoring this snapshot
+	 * with restoreState(), on this or any other instance, resumes the
+	 * pseudo random number sequence from this exact point, without
+	 * having to reseed; it is therefore a cheap way to checkpoint a
+	 * stream of random numbers.
+	 * <p>
+	 * Note that the compatibility flag is not part of the snapshot, as
+	 * it only affects the seeding of an instance.
+	 * 
+	 * @param buf The array in which to store the snapshot.
+	 * @param off The offset in the array at which to store it.
+	 * @throws IndexOutOfBoundsException if the array is too short.
+	 */
+	public final synchronized void saveState(int[] buf, int off) {
+		if (off < 0 || buf.length - off < STATE_SIZE)
+			throw new IndexOutOfBoundsException("State buffer too short");
+		System.arraycopy(mt, 0, buf, off, N);
+		buf[off + N] = mti;
+	}
+
+	/**
+	 * This method writes the exact state of this instance, as
+	 * STATE_SIZE words (4 * STATE_SIZE bytes, in the byte order of the
+	 * buffer), at the current position of the given buffer, which is
+	 * advanced accordingly. See saveState(int[], int).
+	 * 
+	 * @param buf The buffer in which to store the snapshot.
+	 * @throws java.nio.BufferOverflowException if the buffer does not
+	 *                                          have enough space left.
+	 */
+	public final synchronized void saveState(ByteBuffer buf) {
+		if (buf.remaining() < 4 * STATE_SIZE)
+			throw new java.nio.BufferOverflowException();
+		for (int k = 0; k < N; k++)
+			buf.putInt(mt[k]);
+		buf.putInt(mti);
+	}
+
+	/**
+	 * This method restores a snapshot taken with saveState(), after
+	 * which this instance produces the pseudo random number sequence
+	 * from the point where the snapshot was taken. This takes time
+	 * proportional to the size of the state, and unlike setSeed(), does
+	 * not run the initialisation of the Mersenne Twister.
+	 * 
+	 * @param buf The array from which to read the snapshot.
+	 * @param off The offset in the array at which the snapshot starts.
+	 * @throws IndexOutOfBoundsException if the array is too short.
+	 * @throws IllegalArgumentException  if the snapshot is not valid.
+	 */
+	public final synchronized void restoreState(int[] buf, int off) {
+		if (off < 0 || buf.length - off < STATE_SIZE)
+			throw new IndexOutOfBoundsException("State buffer too short");
+		int index = buf[off + N];
+		if (index < 0 || index > N)
+			throw new IllegalArgumentException("Invalid state index: " + index);
+		System.arraycopy(buf, off, mt, 0, N);
+		mti = index;
+	}
+
+	/**
+	 * This method restores a snapshot written with saveState(ByteBuffer),
+	 * read from the current position of the given buffer, which is
+	 * advanced accordingly. See restoreState(int[], int).
+	 * 
+	 * @param buf The buffer from which to read the snapshot.
+	 * @throws java.nio.BufferUnderflowException if the buffer does not
+	 *                                           contain a whole snapshot.
+	 * @throws IllegalArgumentException          if the snapshot is not valid.
+	 */
+	public final synchronized void restoreState(ByteBuffer buf) {
+		if (buf.remaining() < 4 * STATE_SIZE)
+			throw new java.nio.BufferUnderflowException();
+		int index = buf.getInt(buf.position() + 4 * N);
+		if (index < 0 || index > N)
+			throw new IllegalArgumentException("Invalid state index: " + index);
+		for (int k = 0; k < N; k++)
+			mt[k] = buf.getInt();
+		mti = buf.getInt();
 	}
 
 	// This is a fairly obscure little code section to pack a
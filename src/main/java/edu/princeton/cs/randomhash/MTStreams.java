@@ -0,0 +1,410 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Spliterator;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Primitive streams of pseudo-random numbers drawn from an {@link MTRandom},
+ * returned by its {@code ints()}, {@code longs()} and {@code doubles()}
+ * methods. <br/>
+ *
+ * The spliterators of {@link java.util.Random} lock the generator once per
+ * value; these draw the words of the generator in batches, under a single
+ * lock, and hand independent generators obtained with {@link MTRandom#split()}
+ * to the portions of a parallel stream, which therefore never contend. <br/>
+ *
+ * A sequential stream produces the values that the matching methods of
+ * {@link MTRandom} ({@code nextInt()}, {@code nextInt(int)},
+ * {@code nextLong()}, {@code nextDouble()}) would return, in the same order,
+ * and consumes exactly the same words: a batch never draws more words than
+ * the remaining values are certain to need. <br/>
+ *
+ * A parallel stream does not advance the generator it was created from: when
+ * it is first split, it copies the generator, and each of its portions draws
+ * from its own generator split from that copy, 2^128 words apart from the
+ * others. Its values are thus not
+ * those of a sequential stream, and depend on how the stream is split (and so
+ * on the parallelism); each split costs a jump of the generator, of a few
+ * milliseconds.
+ */
+final class MTStreams {
+
+    /**
+     * The largest number of words drawn under a single lock.
+     */
+    private final static int BATCH = 256;
+
+    private final static double DOUBLE_UNIT = 0x1.0p-53;
+
+    private final static int CHARACTERISTICS = Spliterator.SIZED | Spliterator.SUBSIZED
+            | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+
+    private MTStreams() {
+    }
+
+    static IntStream ints(MTRandom rng, long size) {
+        checkSize(size);
+        return StreamSupport.intStream(
+                new IntSpliterator(new Words(rng, null), 0L, size, Integer.MAX_VALUE, 0), false);
+    }
+
+    static IntStream ints(MTRandom rng, long size, int origin, int bound) {
+        checkSize(size);
+        if (origin >= bound)
+            throw new IllegalArgumentException("bound must be greater than origin");
+        return StreamSupport.intStream(
+                new IntSpliterator(new Words(rng, null), 0L, size, origin, bound), false);
+    }
+
+    static LongStream longs(MTRandom rng, long size) {
+        checkSize(size);
+        return StreamSupport.longStream(
+                new LongSpliterator(new Words(rng, null), 0L, size, Long.MAX_VALUE, 0L), false);
+    }
+
+    static LongStream longs(MTRandom rng, long size, long origin, long bound) {
+        checkSize(size);
+        if (origin >= bound)
+            throw new IllegalArgumentException("bound must be greater than origin");
+        return StreamSupport.longStream(
+                new LongSpliterator(new Words(rng, null), 0L, size, origin, bound), false);
+    }
+
+    static DoubleStream doubles(MTRandom rng, long size) {
+        checkSize(size);
+        return StreamSupport.doubleStream(
+                new DoubleSpliterator(new Words(rng, null), 0L, size, Double.MAX_VALUE, 0.0), false);
+    }
+
+    static DoubleStream doubles(MTRandom rng, long size, double origin, double bound) {
+        checkSize(size);
+        if (!(origin < bound))
+            throw new IllegalArgumentException("bound must be greater than origin");
+        return StreamSupport.doubleStream(
+                new DoubleSpliterator(new Words(rng, null), 0L, size, origin, bound), false);
+    }
+
+    private static void checkSize(long size) {
+        if (size < 0L)
+            throw new IllegalArgumentException("size must be non-negative");
+    }
+
+    // ==============================================================================
+    // Drawing words in batches
+
+    /**
+     * Cursor over the words of a generator, which keeps track of the number of
+     * words that are certain to be consumed ({@code owed}), and never draws
+     * more than that.
+     */
+    private final static class Words {
+
+        private MTRandom rng;
+        private final int[] buf = new int[BATCH];
+        private int pos;
+        private int len;
+        private long owed;
+
+        /**
+         * The generator from which the portions of a parallel stream obtain
+         * their own, with {@link MTRandom#split()}: a copy of the generator
+         * the stream was created from, shared by all its portions, or
+         * {@code null} until the stream is first split.
+         */
+        private MTRandom source;
+
+        Words(MTRandom rng, MTRandom source) {
+            this.rng = rng;
+            this.source = source;
+        }
+
+        /**
+         * Returns a cursor over words that this cursor, and all the others of
+         * the stream, never draw.
+         */
+        Words split() {
+            if (source == null) {
+                // the generator the stream was created from is left unchanged
+                source = rng.copy();
+                rng = source.split();
+            }
+            return new Words(source.split(), source);
+        }
+
+        /**
+         * Records that {@code values} more values of {@code wordsPerValue} words
+         * each are going to be drawn.
+         */
+        void owe(long values, int wordsPerValue) {
+            long words = (values > Long.MAX_VALUE / wordsPerValue) ? Long.MAX_VALUE : values * wordsPerValue;
+            owed = (owed > Long.MAX_VALUE - words) ? Long.MAX_VALUE : owed + words;
+        }
+
+        /**
+         * Returns the next word; each call settles one word owed.
+         */
+        int next() {
+            if (pos == len) {
+                len = (int) Math.min(BATCH, owed);
+                pos = 0;
+                rng.nextWords(buf, len);
+            }
+            owed--;
+            return buf[pos++];
+        }
+
+        /**
+         * Returns the next word, in place of a rejected one: the value being
+         * drawn is still owed its word.
+         */
+        int retry() {
+            owed++;
+            return next();
+        }
+
+        int nextInt(int origin, int bound) {
+            if (origin >= bound)
+                return next();
+            int n = bound - origin;
+            if (n > 0) {
+                // same algorithm as java.util.Random, and MTRandom.nextInt(int)
+                int r = next() >>> 1, m = n - 1;
+                if ((n & m) == 0)
+                    return origin + (int) ((n * (long) r) >> 31);
+                for (int u = r; u - (r = u % n) + m < 0; u = retry() >>> 1)
+                    ;
+                return origin + r;
+            }
+            // the range is not representable as an int
+            int r = next();
+            while (r < origin || r >= bound)
+                r = retry();
+            return r;
+        }
+
+        long nextLong() {
+            return ((long) next() << 32) + next();
+        }
+
+        long retryLong() {
+            owed += 2;
+            return nextLong();
+        }
+
+        long nextLong(long origin, long bound) {
+            // same algorithm as java.util.Random
+            long r = nextLong();
+            if (origin < bound) {
+                long n = bound - origin, m = n - 1;
+                if ((n & m) == 0L) {
+                    r = (r & m) + origin;
+                } else if (n > 0L) {
+                    for (long u = r >>> 1; u + m - (r = u % n) < 0L; u = retryLong() >>> 1)
+                        ;
+                    r += origin;
+                } else {
+                    while (r < origin || r >= bound)
+                        r = retryLong();
+                }
+            }
+            return r;
+        }
+
+        double nextDouble(double origin, double bound) {
+            // same as java.util.Random.nextDouble(): 26 + 27 bits
+            double r = (((long) (next() >>> 6) << 27) + (next() >>> 5)) * DOUBLE_UNIT;
+            if (origin < bound) {
+                r = r * (bound - origin) + origin;
+                if (r >= bound)
+                    r = Math.nextDown(bound);
+            }
+            return r;
+        }
+    }
+
+    // ==============================================================================
+    // Spliterators
+
+    private final static class IntSpliterator implements Spliterator.OfInt {
+
+        private final Words words;
+        private long index;
+        private final long fence;
+        private final int origin;
+        private final int bound;
+
+        IntSpliterator(Words words, long index, long fence, int origin, int bound) {
+            this.words = words;
+            this.index = index;
+            this.fence = fence;
+            this.origin = origin;
+            this.bound = bound;
+        }
+
+        @Override
+        public IntSpliterator trySplit() {
+            long i = index, m = (i + fence) >>> 1;
+            if (m <= i)
+                return null;
+            index = m;
+            return new IntSpliterator(words.split(), i, m, origin, bound);
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer consumer) {
+            if (consumer == null)
+                throw new NullPointerException();
+            if (index >= fence)
+                return false;
+            words.owe(1L, 1);
+            consumer.accept(words.nextInt(origin, bound));
+            index++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer consumer) {
+            if (consumer == null)
+                throw new NullPointerException();
+            long i = index, f = fence;
+            index = f;
+            words.owe(f - i, 1);
+            for (; i < f; i++)
+                consumer.accept(words.nextInt(origin, bound));
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
+
+    private final static class LongSpliterator implements Spliterator.OfLong {
+
+        private final Words words;
+        private long index;
+        private final long fence;
+        private final long origin;
+        private final long bound;
+
+        LongSpliterator(Words words, long index, long fence, long origin, long bound) {
+            this.words = words;
+            this.index = index;
+            this.fence = fence;
+            this.origin = origin;
+            this.bound = bound;
+        }
+
+        @Override
+        public LongSpliterator trySplit() {
+            long i = index, m = (i + fence) >>> 1;
+            if (m <= i)
+                return null;
+            index = m;
+            return new LongSpliterator(words.split(), i, m, origin, bound);
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer consumer) {
+            if (consumer == null)
+                throw new NullPointerException();
+            if (index >= fence)
+                return false;
+            words.owe(1L, 2);
+            consumer.accept(words.nextLong(origin, bound));
+            index++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer consumer) {
+            if (consumer == null)
+                throw new NullPointerException();
+            long i = index, f = fence;
+            index = f;
+            words.owe(f - i, 2);
+            for (; i < f; i++)
+                consumer.accept(words.nextLong(origin, bound));
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
+
+    private final static class DoubleSpliterator implements Spliterator.OfDouble {
+
+        private final Words words;
+        private long index;
+        private final long fence;
+        private final double origin;
+        private final double bound;
+
+        DoubleSpliterator(Words words, long index, long fence, double origin, double bound) {
+            this.words = words;
+            this.index = index;
+            this.fence = fence;
+            this.origin = origin;
+            this.bound = bound;
+        }
+
+        @Override
+        public DoubleSpliterator trySplit() {
+            long i = index, m = (i + fence) >>> 1;
+            if (m <= i)
+                return null;
+            index = m;
+            return new DoubleSpliterator(words.split(), i, m, origin, bound);
+        }
+
+        @Override
+        public boolean tryAdvance(DoubleConsumer consumer) {
+            if (consumer == null)
+                throw new NullPointerException();
+            if (index >= fence)
+                return false;
+            words.owe(1L, 2);
+            consumer.accept(words.nextDouble(origin, bound));
+            index++;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(DoubleConsumer consumer) {
+            if (consumer == null)
+                throw new NullPointerException();
+            long i = index, f = fence;
+            index = f;
+            words.owe(f - i, 2);
+            for (; i < f; i++)
+                consumer.accept(words.nextDouble(origin, bound));
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return CHARACTERISTICS;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a file without decoding them: the file is memory-mapped,
+ * and each line is handed over as a range of bytes of the mapped buffer,
+ * which can be hashed in place (see
+ * {@link RandomHashFamily#hashes(ByteBuffer, int, int, long[])}), without
+ * creating a {@link String} nor copying the bytes. <br/>
+ *
+ * Lines are terminated by {@code '\n'}, and a {@code '\r'} right before it is
+ * dropped, as are both characters of a Windows line terminator by
+ * {@link java.io.BufferedReader#readLine()}; the last line need not be
+ * terminated. Files larger than what a single buffer can map (2 GB) are
+ * mapped in several regions, which end at line boundaries. <br/>
+ *
+ * A file can also be split into chunks at line boundaries (see
+ * {@link #split(FileChannel, int)}), to be read in parallel; each thread then
+ * maps its own regions of the file, and the channel can be shared.
+ */
+public final class MappedLines {
+
+    /**
+     * The largest number of bytes mapped at once; no line may be longer.
+     */
+    final static int REGION_SIZE = 1 << 30;
+
+    /**
+     * The number and size of the samples from which the number of lines of a
+     * file is estimated (see {@link #estimateLineCount(FileChannel)}).
+     */
+    private final static int SAMPLES = 64, SAMPLE_SIZE = 1 << 16;
+
+    /**
+     * Receives the lines read by {@link MappedLines}.
+     */
+    @FunctionalInterface
+    public interface LineConsumer {
+
+        /**
+         * Processes a line, given as a range of bytes of a buffer. The buffer is
+         * only valid for the duration of the call, and its position and limit
+         * may be changed (see
+         * {@link RandomHashFamily#hashes(ByteBuffer, int, int, long[])}).
+         *
+         * @param buffer The buffer containing the line
+         * @param off    The absolute index of the line in the buffer
+         * @param len    The length of the line, in bytes, without its terminator
+         */
+        void accept(ByteBuffer buffer, int off, int len);
+    }
+
+    /**
+     * Receives the lines read by {@link MappedLines}, with their position in
+     * the file.
+     */
+    @FunctionalInterface
+    public interface PositionedLineConsumer {
+
+        /**
+         * Processes a line, given as a range of bytes of a buffer, as
+         * {@link LineConsumer#accept(ByteBuffer, int, int)} does.
+         *
+         * @param position The position of the line in the file
+         * @param buffer   The buffer containing the line
+         * @param off      The absolute index of the line in the buffer
+         * @param len      The length of the line, in bytes, without its
+         *                 terminator
+         */
+        void accept(long position, ByteBuffer buffer, int off, int len);
+    }
+
+    private MappedLines() {
+    }
+
+    /**
+     * Reads all the lines of a file.
+     *
+     * @param path     The path of the file
+     * @param consumer The consumer of the lines
+     * @return long The number of lines read
+     * @throws IOException If the file cannot be read, or has a line longer than
+     *                     1 GB
+     */
+    public static long forEachLine(Path path, LineConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return forEachLine(channel, 0L, channel.size(), REGION_SIZE, consumer);
+        }
+    }
+
+    /**
+     * Splits a file into chunks of about the same size, which start at the
+     * beginning of a line, so that each chunk can be read separately, for
+     * instance by its own thread (see
+     * {@link #forEachLine(FileChannel, long, long, LineConsumer)}). Reading all
+     * the chunks reads every line of the file exactly once; some chunks may be
+     * empty, if the file is small or has long lines.
+     *
+     * @param channel The channel of the file
+     * @param chunks  The number of chunks
+     * @return long[] The {@code chunks + 1} boundaries of the chunks: chunk
+     *         {@code c} starts at {@code bounds[c]} and ends at
+     *         {@code bounds[c + 1]}
+     * @throws IOException If the file cannot be read
+     */
+    public static long[] split(FileChannel channel, int chunks) throws IOException {
+        if (chunks <= 0)
+            throw new IllegalArgumentException("chunks must be strictly positive");
+
+        long size = channel.size();
+        long[] bounds = new long[chunks + 1];
+        bounds[chunks] = size;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        for (int c = 1; c < chunks; c++) {
+            long target = size / chunks * c + size % chunks * c / chunks;
+            bounds[c] = (target <= bounds[c - 1]) ? bounds[c - 1] : lineStart(channel, target, buffer);
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns an estimate of the number of lines of a file, from the newlines
+     * of {@code SAMPLES} samples of {@code SAMPLE_SIZE} bytes spread evenly
+     * over the file, which is read in full if it is not larger than that; the
+     * estimate is exact for such files, and otherwise as good as the samples
+     * are representative of the file.
+     *
+     * @param channel The channel of the file
+     * @return long An estimate of the number of lines of the file
+     * @throws IOException If the file cannot be read
+     */
+    public static long estimateLineCount(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0L)
+            return 0L;
+        boolean whole = size <= (long) SAMPLES * SAMPLE_SIZE;
+        int samples = whole ? (int) ((size + SAMPLE_SIZE - 1) / SAMPLE_SIZE) : SAMPLES;
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+        long sampled = 0L, newlines = 0L;
+        for (int s = 0; s < samples; s++) {
+            long position = whole ? (long) s * SAMPLE_SIZE : (size - SAMPLE_SIZE) / (SAMPLES - 1) * s;
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0)
+                ;
+            for (int i = 0; i < buffer.position(); i++)
+                if (buffer.get(i) == '\n')
+                    newlines++;
+            sampled += buffer.position();
+        }
+        long lines = whole ? newlines : (long) ((double) newlines / sampled * size);
+
+        // the last line need not be terminated
+        buffer.clear().limit(1);
+        channel.read(buffer, size - 1);
+        return (buffer.get(0) == '\n') ? lines : lines + 1;
+    }
+
+    /**
+     * Returns the position of the first line that starts at or after the given
+     * position, or the size of the file if there is none.
+     */
+    private static long lineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        // a line starts at position if the byte before it is a newline
+        long start = position - 1;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, start);
+            if (read <= 0)
+                return channel.size();
+            for (int i = 0; i < read; i++)
+                if (buffer.get(i) == '\n')
+                    return start + i + 1;
+            start += read;
+        }
+    }
+
+    /**
+     * Reads the lines of a range of a file, such as a chunk returned by
+     * {@link #split(FileChannel, int)}. The range must start at the beginning
+     * of a line, and ends with the last line that starts before its end.
+     *
+     * @param channel  The channel of the file
+     * @param from     The position of the first line of the range
+     * @param to       The end of the range
+     * @param consumer The consumer of the lines
+     * @return long The number of lines read
+     * @throws IOException If the file cannot be read, or has a line longer than
+     *                     1 GB
+     */
+    public static long forEachLine(FileChannel channel, long from, long to, LineConsumer consumer)
+            throws IOException {
+        return forEachLine(channel, from, to, REGION_SIZE, consumer);
+    }
+
+    /**
+     * Reads the lines of a range of a file, as
+     * {@link #forEachLine(FileChannel, long, long, LineConsumer)} does, and
+     * hands them over with their position in the file.
+     *
+     * @param channel  The channel of the file
+     * @param from     The position of the first line of the range
+     * @param to       The end of the range
+     * @param consumer The consumer of the lines
+     * @return long The number of lines read
+     * @throws IOException If the file cannot be read, or has a line longer than
+     *                     1 GB
+     */
+    public static long forEachPositionedLine(FileChannel channel, long from, long to,
+            PositionedLineConsumer consumer) throws IOException {
+        return forEachLine(channel, from, to, REGION_SIZE, consumer);
+    }
+
+    static long forEachLine(FileChannel channel, long from, long to, int regionSize, LineConsumer consumer)
+            throws IOException {
+        return forEachLine(channel, from, to, regionSize,
+                (PositionedLineConsumer) (position, buffer, off, len) -> consumer.accept(buffer, off, len));
+    }
+
+    /**
+     * Reads the lines of a range of a file, which must start at the beginning
+     * of a line; the range ends with the last line that starts before its end.
+     *
+     * @param channel    The channel of the file
+     * @param from       The position of the first line of the range
+     * @param to         The end of the range
+     * @param regionSize The largest number of bytes to map at once
+     * @param consumer   The consumer of the lines
+     * @return long The number of lines read
+     * @throws IOException If the file cannot be read, or has a line longer than
+     *                     {@code regionSize}
+     */
+    static long forEachLine(FileChannel channel, long from, long to, int regionSize,
+            PositionedLineConsumer consumer) throws IOException {
+        long size = channel.size();
+        long lines = 0;
+        long start = from;
+        while (start < to) {
+            // map enough to reach the end of the last line that starts in the range
+            long length = Math.min(regionSize, size - start);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            boolean atEnd = start + length == size;
+            int limit = (int) Math.min(length, to - start);
+
+            int lineStart = 0;
+            int end = (int) length;
+            for (int i = nextNewline(buffer, 0, end); i >= 0; i = nextNewline(buffer, i + 1, end)) {
+                accept(consumer, start, buffer, lineStart, i);
+                lines++;
+                lineStart = i + 1;
+                if (lineStart >= limit)
+                    break;
+            }
+
+            if (lineStart < limit && atEnd) {
+                // last line of the file, without a terminator
+                accept(consumer, start, buffer, lineStart, end);
+                lines++;
+                lineStart = end;
+            } else if (lineStart == 0) {
+                throw new IOException("line longer than " + regionSize + " bytes at position " + start);
+            }
+            start += lineStart;
+        }
+        return lines;
+    }
+
+    /**
+     * Reads the lines of a range of a buffer in little-endian order, such as a
+     * batch of a stream (see {@link StreamedLines}); the last line of the range
+     * need not be terminated.
+     *
+     * @param buffer   The buffer containing the lines
+     * @param from     The index of the first line
+     * @param to       The end of the range
+     * @param consumer The consumer of the lines
+     * @return long The number of lines read
+     */
+    static long forEachLine(ByteBuffer buffer, int from, int to, LineConsumer consumer) {
+        long lines = 0;
+        int lineStart = from;
+        for (int i = nextNewline(buffer, from, to); i >= 0; i = nextNewline(buffer, i + 1, to)) {
+            accept(consumer, buffer, lineStart, i);
+            lines++;
+            lineStart = i + 1;
+        }
+        if (lineStart < to) {
+            accept(consumer, buffer, lineStart, to);
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the index of the first {@code '\n'} in the given range of a
+     * buffer in little-endian order, or {@code -1} if there is none. The bytes
+     * are searched eight at a time: with {@code x} a word of the bytes xored
+     * with {@code '\n'}, the expression {@code (x - 0x01..01) & ~x & 0x80..80}
+     * has its high bit set in the lowest byte of {@code x} that is zero, which
+     * is the first one in the buffer (higher bytes may be flagged spuriously,
+     * by the borrow, but are not looked at).
+     */
+    static int nextNewline(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i <= to - 8; i += 8) {
+            long x = buffer.getLong(i) ^ 0x0a0a0a0a0a0a0a0aL;
+            long found = (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+            if (found != 0)
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < to; i++)
+            if (buffer.get(i) == '\n')
+                return i;
+        return -1;
+    }
+
+    private static void accept(PositionedLineConsumer consumer, long start, ByteBuffer buffer, int from, int to) {
+        if (to > from && buffer.get(to - 1) == '\r')
+            to--;
+        consumer.accept(start + from, buffer, from, to - from);
+    }
+
+    private static void accept(LineConsumer consumer, ByteBuffer buffer, int from, int to) {
+        if (to > from && buffer.get(to - 1) == '\r')
+            to--;
+        consumer.accept(buffer, from, to - from);
+    }
+
+    /**
+     * Returns the given range of bytes of a buffer, as a new buffer that shares
+     * its content (for instance, to keep a line after
+     * {@link LineConsumer#accept(ByteBuffer, int, int)} returns).
+     *
+     * @param buffer The buffer
+     * @param off    The absolute index of the range in the buffer
+     * @param len    The length of the range
+     * @return ByteBuffer A buffer whose content is the given range
+     */
+    public static ByteBuffer slice(ByteBuffer buffer, int off, int len) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(off + len).position(off);
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,212 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link RandomHashFamily} whose coefficients are read from a file, which
+ * is memory-mapped read-only instead of being drawn and kept on the heap: all
+ * the processes of a host that use the same family then share a single copy
+ * of its coefficients, in the page cache, and start by mapping the file
+ * rather than drawing the coefficients again. The hash values are the same as
+ * those of the {@link RandomHashFamily} with the same seed and count. <br/>
+ *
+ * The file is written once (see {@link #write(Path, long, int)}), or by the
+ * first process that needs it (see {@link #openOrCreate(Path, long, int)}).
+ * It starts with a header of {@value #HEADER_SIZE} bytes: the magic number
+ * {@code RHFC}, the version of the format, the seed and the number of
+ * functions; then come the coefficients of each function, its multiplier and
+ * its translation, as 64-bit little-endian integers, so that those of a
+ * function are next to each other.
+ */
+public class MappedRandomHashFamily extends RandomHashFamily {
+
+    /**
+     * The first four bytes of a coefficient file, {@code RHFC}.
+     */
+    public final static int MAGIC = 0x52484643;
+
+    /**
+     * The version of the format of the coefficient files.
+     */
+    public final static int VERSION = 1;
+
+    /**
+     * The size of the header of a coefficient file, in bytes.
+     */
+    public final static int HEADER_SIZE = 32;
+
+    /**
+     * The number of functions whose coefficients are written at once.
+     */
+    private final static int WRITE_CHUNK = 1 << 16;
+
+    /**
+     * The coefficients of the functions, after the header: those of function
+     * {@code i} at {@code 16 * i} and {@code 16 * i + 8}.
+     */
+    protected final ByteBuffer coefficients;
+
+    /**
+     * Creates a family from a buffer holding a coefficient file.
+     */
+    private MappedRandomHashFamily(long seed, int count, ByteBuffer coefficients) {
+        super(seed, count, null, null);
+        this.coefficients = coefficients;
+    }
+
+    /**
+     * Returns the size of the coefficient file of a family of the given number
+     * of functions.
+     *
+     * @param count The number of functions
+     * @return long The size of the file, in bytes
+     */
+    public static long fileSize(int count) {
+        return HEADER_SIZE + 16L * count;
+    }
+
+    /**
+     * Maps a coefficient file, and returns its family.
+     *
+     * @param file The coefficient file
+     * @return MappedRandomHashFamily The family whose coefficients are in the file
+     * @throws IOException If the file cannot be read, or is not a coefficient
+     *                     file
+     */
+    public static MappedRandomHashFamily open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+                throw new IOException("not a coefficient file: " + file);
+
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC)
+                throw new IOException("not a coefficient file: " + file);
+            if (buffer.getInt(4) != VERSION)
+                throw new IOException("unsupported version " + buffer.getInt(4) + " of coefficient file: " + file);
+
+            long seed = buffer.getLong(8);
+            int count = buffer.getInt(16);
+            if (count < 0 || size != fileSize(count))
+                throw new IOException("truncated coefficient file: " + file);
+
+            return new MappedRandomHashFamily(seed, count, buffer);
+        }
+    }
+
+    /**
+     * Maps a coefficient file, or writes it first if it does not exist; the
+     * file must be that of the family with the given seed and count.
+     *
+     * @param file  The coefficient file
+     * @param seed  The seed used to initialize the underlying PRNG.
+     * @param count The number of pseudo-random hash functions in this family.
+     * @return MappedRandomHashFamily The family whose coefficients are in the file
+     * @throws IOException              If the file cannot be read or written
+     * @throws IllegalArgumentException If the file is that of another family
+     */
+    public static MappedRandomHashFamily openOrCreate(Path file, long seed, int count) throws IOException {
+        if (!Files.exists(file))
+            write(file, seed, count);
+
+        MappedRandomHashFamily family = open(file);
+        if (family.seed != seed || family.count != count)
+            throw new IllegalArgumentException(String.format(
+                    "%s holds the family of seed %d and count %d, not of seed %d and count %d", file,
+                    family.seed, family.count, seed, count));
+        return family;
+    }
+
+    /**
+     * Draws the coefficients of the family with the given seed and count (as
+     * {@link RandomHashFamily#RandomHashFamily(long, int)} does), and writes
+     * them to a coefficient file. The file is written under a temporary name,
+     * then atomically renamed, so that processes that race to write the same
+     * file never map a partial one. The file is created with the default
+     * permissions of new files (those of the umask, on POSIX file systems),
+     * so that the processes of other users can map it too.
+     *
+     * @param file  The coefficient file
+     * @param seed  The seed used to initialize the underlying PRNG.
+     * @param count The number of pseudo-random hash functions in this family.
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(Path file, long seed, int count) throws IOException {
+        if (count < 0 || fileSize(count) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                    "count must be between 0 and " + (Integer.MAX_VALUE - HEADER_SIZE) / 16);
+
+        RandomHashFamily family = new RandomHashFamily(seed, count);
+
+        // not Files.createTempFile(), which makes the file readable by its owner only
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp;
+        FileChannel created;
+        while (true) {
+            temp = parent.resolve(file.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                created = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // another writer drew the same name
+            }
+        }
+        try {
+            try (FileChannel channel = created) {
+                ByteBuffer buffer = ByteBuffer.allocate(16 * WRITE_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putLong(seed).putInt(count);
+                buffer.position(HEADER_SIZE);
+
+                for (int i = 0; i < count; i++) {
+                    if (buffer.remaining() < 16)
+                        writeFully(channel, buffer);
+                    buffer.putLong(family.numsCoprime[i]).putLong(family.numsNoise[i]);
+                }
+                writeFully(channel, buffer);
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Returns the seed from which the coefficients of the file were drawn.
+     *
+     * @return long The seed of the family
+     */
+    public long seed() {
+        return this.seed;
+    }
+
+    @Override
+    protected void fillHashes(long baseHash, long[] hashes, int count) {
+        // absolute reads, which do not change the state of the buffer
+        ByteBuffer coefficients = this.coefficients;
+        for (int i = 0, index = HEADER_SIZE; i < count; i++, index += 16) {
+            hashes[i] = RandomHashFamily.truncateLong(RandomHashFamily.affineTransform(baseHash,
+                    coefficients.getLong(index), coefficients.getLong(index + 8)));
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Companion class to {@link RandomHashFamily}, which audits the independence
+ * of the pseudo-random hash functions of a family, pair by pair: the functions
+ * are all affine maps of the same base hash value, while sketches that use
+ * several of them at once assume that they are independent. <br/>
+ *
+ * For every pair of functions, the audit counts the joint histogram of the
+ * buckets of their values, in a single pass over the keys; a pair of
+ * independent functions has a joint histogram that is the product of its
+ * marginal histograms, which is checked with a chi-square test of
+ * independence, with {@code (bucketCount - 1)^2} degrees of freedom. <br/>
+ *
+ * The histograms of all the pairs are stored in a single flat array, with
+ * {@code bucketCount * bucketCount} counters per pair. The buckets of the
+ * values of a batch of keys are buffered, and the batch is then counted by a
+ * fork-join task over the pairs, in which every subtask owns the counters of
+ * its own range of pairs.
+ */
+public class PairwiseAudit {
+
+    /**
+     * The number of keys whose buckets are buffered before they are counted.
+     */
+    protected final static int BATCH = 1 << 12;
+
+    /**
+     * The largest number of pairs counted by a single fork-join subtask.
+     */
+    protected final static int PAIRS_PER_TASK = 64;
+
+    /**
+     * The family of pseudo-random hash functions that is being audited.
+     */
+    protected final RandomHashFamily family;
+
+    /**
+     * The number of functions of the family that are audited.
+     */
+    protected final int count;
+
+    /**
+     * The number of buckets in which to group the values of each function.
+     */
+    protected final int bucketCount;
+
+    /**
+     * The layout of the buckets, over the full range of values of the
+     * pseudo-random hash functions.
+     */
+    protected final UniformAudit layout;
+
+    /**
+     * The first and second function of each pair, by pair index.
+     */
+    private final int[] first, second;
+
+    /**
+     * The joint histograms: the number of keys for which the first function of
+     * pair {@code p} has a value in bucket {@code a} and the second one in
+     * bucket {@code b}, at {@code (p * bucketCount + a) * bucketCount + b}.
+     */
+    protected final long[] joint;
+
+    /**
+     * The total number of keys counted.
+     */
+    protected long total;
+
+    /**
+     * The buckets of the buffered keys, by function: the bucket of the value of
+     * function {@code f} for buffered key {@code k} is at {@code f * BATCH + k}.
+     */
+    private final int[] pending;
+
+    /**
+     * The number of buffered keys.
+     */
+    private int pendingCount;
+
+    private final long[] hashes;
+
+    /**
+     * Creates a new {@link PairwiseAudit} instance, over all the functions of
+     * the given family.
+     *
+     * @param family      The family of pseudo-random hash functions to audit
+     * @param bucketCount The number of buckets in which to group the values of
+     *                    each function
+     */
+    public PairwiseAudit(RandomHashFamily family, int bucketCount) {
+        this(family, family.count(), bucketCount);
+    }
+
+    /**
+     * Creates a new {@link PairwiseAudit} instance, over the first functions of
+     * the given family.
+     *
+     * @param family      The family of pseudo-random hash functions to audit
+     * @param count       The number of functions to audit, at least 2
+     * @param bucketCount The number of buckets in which to group the values of
+     *                    each function
+     */
+    public PairwiseAudit(RandomHashFamily family, int count, int bucketCount) {
+        if (count < 2 || count > family.count())
+            throw new IllegalArgumentException("count must be between 2 and the size of the family");
+        if (bucketCount < 2)
+            throw new IllegalArgumentException("bucketCount must be at least 2");
+
+        long pairs = (long) count * (count - 1) / 2;
+        if (pairs * bucketCount * bucketCount > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("too many pairs and buckets to audit at once");
+
+        this.family = family;
+        this.count = count;
+        this.bucketCount = bucketCount;
+        this.layout = new UniformAudit(bucketCount, 0, RandomHashFamily.MAX_VALUE);
+
+        this.first = new int[(int) pairs];
+        this.second = new int[(int) pairs];
+        int p = 0;
+        for (int i = 0; i < count; i++)
+            for (int j = i + 1; j < count; j++) {
+                this.first[p] = i;
+                this.second[p] = j;
+                p++;
+            }
+
+        this.joint = new long[(int) pairs * bucketCount * bucketCount];
+        this.pending = new int[count * BATCH];
+        this.hashes = new long[count];
+    }
+
+    /**
+     * Resets all internal counters to zero, and discards the buffered keys.
+     */
+    public synchronized void reset() {
+        Arrays.fill(this.joint, 0L);
+        this.total = 0;
+        this.pendingCount = 0;
+    }
+
+    // ==============================================================================
+    // Updating the audit
+
+    /**
+     * Process a single key.
+     *
+     * @param key A string key
+     */
+    public synchronized void update(String key) {
+        this.family.hashes(key, this.hashes);
+        this.buffer(this.hashes);
+    }
+
+    /**
+     * Process a single key, given as a range of bytes.
+     *
+     * @param key A byte array containing the key
+     * @param off The offset of the key in the array
+     * @param len The length of the key, in bytes
+     */
+    public synchronized void update(byte[] key, int off, int len) {
+        this.family.hashes(key, off, len, this.hashes);
+        this.buffer(this.hashes);
+    }
+
+    /**
+     * Process the hash values of a single key, as computed by
+     * {@link RandomHashFamily#hashes(String, long[])}.
+     *
+     * @param hashes The hash values of the key, of which the first
+     *               {@code count} are audited
+     */
+    public synchronized void update(long[] hashes) {
+        for (int f = 0; f < this.count; f++)
+            this.layout.checkRange(hashes[f]);
+        this.buffer(hashes);
+    }
+
+    private void buffer(long[] hashes) {
+        int k = this.pendingCount;
+        for (int f = 0; f < this.count; f++)
+            this.pending[f * BATCH + k] = this.layout.bucketIndex(hashes[f]);
+        if (++this.pendingCount == BATCH)
+            this.flush();
+    }
+
+    /**
+     * Counts the buffered keys. This is done automatically whenever the buffer
+     * is full, and before the counters are read.
+     */
+    public synchronized void flush() {
+        if (this.pendingCount == 0)
+            return;
+        ForkJoinPool.commonPool().invoke(new PairsTask(0, this.first.length, this.pendingCount));
+        this.total += this.pendingCount;
+        this.pendingCount = 0;
+    }
+
+    /**
+     * Counts the buffered keys in the histograms of a range of pairs.
+     */
+    private final class PairsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, keys;
+
+        PairsTask(int from, int to, int keys) {
+            this.from = from;
+            this.to = to;
+            this.keys = keys;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > PAIRS_PER_TASK) {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(new PairsTask(this.from, mid, this.keys), new PairsTask(mid, this.to, this.keys));
+                return;
+            }
+
+            final int b = bucketCount;
+            for (int p = this.from; p < this.to; p++) {
+                int rowI = first[p] * BATCH, rowJ = second[p] * BATCH, base = p * b * b;
+                for (int k = 0; k < this.keys; k++)
+                    joint[base + pending[rowI + k] * b + pending[rowJ + k]]++;
+            }
+        }
+    }
+
+    // ==============================================================================
+    // Reading the audit
+
+    /**
+     * Returns the number of keys that have been processed so far.
+     *
+     * @return long The number of keys that have been processed
+     */
+    public synchronized long total() {
+        return this.total + this.pendingCount;
+    }
+
+    /**
+     * Returns the joint histogram of the buckets of a pair of functions, as a
+     * new array: the number of keys for which function {@code i} has a value in
+     * bucket {@code a} and function {@code j} in bucket {@code b} is at
+     * {@code a * bucketCount + b}.
+     *
+     * @param i The index of the first function
+     * @param j The index of the second function, distinct from {@code i}
+     * @return long[] The joint histogram of the pair
+     */
+    public synchronized long[] jointCounts(int i, int j) {
+        this.flush();
+        int b = this.bucketCount;
+        long[] counts = new long[b * b];
+        int base = this.pairIndex(Math.min(i, j), Math.max(i, j)) * b * b;
+        for (int x = 0; x < b; x++)
+            for (int y = 0; y < b; y++)
+                counts[(i < j) ? x * b + y : y * b + x] = this.joint[base + x * b + y];
+        return counts;
+    }
+
+    /**
+     * Returns the chi-square statistic of the test of independence of a pair
+     * of functions, from their joint histogram.
+     *
+     * @param i The index of the first function
+     * @param j The index of the second function, distinct from {@code i}
+     * @return double The chi-square statistic of the pair
+     */
+    public synchronized double chiSquaredStatistic(int i, int j) {
+        this.flush();
+        return this.statistic(this.pairIndex(Math.min(i, j), Math.max(i, j)));
+    }
+
+    /**
+     * Returns the p-value of the hypothesis that a pair of functions is
+     * independent; small p-values are evidence of a dependence.
+     *
+     * @param i The index of the first function
+     * @param j The index of the second function, distinct from {@code i}
+     * @return double The p-value of the independence of the pair
+     */
+    public synchronized double pValue(int i, int j) {
+        return ChiSquared.pValue(this.degreesOfFreedom(), this.chiSquaredStatistic(i, j));
+    }
+
+    /**
+     * Returns the pairs of functions that are the least likely to be
+     * independent, that is, with the largest chi-square statistics.
+     *
+     * @param k The number of pairs to return
+     * @return int[][] Up to {@code k} pairs {@code {i, j}}, from the worst one
+     */
+    public synchronized int[][] worstPairs(int k) {
+        this.flush();
+        int pairs = this.first.length;
+        double[] statistics = new double[pairs];
+        for (int p = 0; p < pairs; p++)
+            statistics[p] = this.statistic(p);
+
+        Integer[] order = new Integer[pairs];
+        for (int p = 0; p < pairs; p++)
+            order[p] = p;
+        Arrays.sort(order, Comparator.comparingDouble((Integer p) -> statistics[p]).reversed());
+
+        int[][] worst = new int[Math.min(k, pairs)][];
+        for (int r = 0; r < worst.length; r++)
+            worst[r] = new int[] { this.first[order[r]], this.second[order[r]] };
+        return worst;
+    }
+
+    /**
+     * Returns the number of degrees of freedom of the test of independence of
+     * a pair, {@code (bucketCount - 1)^2}.
+     *
+     * @return int The number of degrees of freedom
+     */
+    public int degreesOfFreedom() {
+        return (this.bucketCount - 1) * (this.bucketCount - 1);
+    }
+
+    private int pairIndex(int i, int j) {
+        if (i < 0 || j >= this.count || i == j)
+            throw new IllegalArgumentException("invalid pair of functions: " + i + ", " + j);
+        // pairs (i, *) start after the (count - 1) + ... + (count - i) pairs before them
+        return i * (2 * this.count - i - 1) / 2 + (j - i - 1);
+    }
+
+    private double statistic(int p) {
+        int b = this.bucketCount, base = p * b * b;
+        long[] rows = new long[b], columns = new long[b];
+        long n = 0;
+        for (int x = 0; x < b; x++)
+            for (int y = 0; y < b; y++) {
+                long c = this.joint[base + x * b + y];
+                rows[x] += c;
+                columns[y] += c;
+                n += c;
+            }
+        if (n == 0)
+            return 0.0;
+
+        double statistic = 0.0;
+        for (int x = 0; x < b; x++)
+            for (int y = 0; y < b; y++) {
+                double expected = (double) rows[x] * columns[y] / n;
+                if (expected > 0) {
+                    double d = this.joint[base + x * b + y] - expected;
+                    statistic += d * d / expected;
+                }
+            }
+        return statistic;
+    }
+
+    /**
+     * Prints a report on the standard output, with the ten pairs of functions
+     * that are the least likely to be independent.
+     */
+    public void printReport() {
+        this.printReport(10);
+    }
+
+    /**
+     * Prints a report on the standard output, with the pairs of functions that
+     * are the least likely to be independent.
+     *
+     * @param k The number of pairs to report
+     */
+    public synchronized void printReport(int k) {
+        int[][] worst = this.worstPairs(k);
+
+        System.out.println("pairwise independence report:");
+        System.out.println("> functions: " + this.count + " (" + this.first.length + " pairs)");
+        System.out.println("> bucket count: " + this.bucketCount);
+        System.out.println("> total keys hashed: " + this.total);
+        System.out.println("> worst pairs:");
+        for (int[] pair : worst) {
+            double statistic = this.chiSquaredStatistic(pair[0], pair[1]);
+            System.out.printf(">   (%d, %d): chi^2 = %f, p-value = %g\n", pair[0], pair[1], statistic,
+                    ChiSquared.pValue(this.degreesOfFreedom(), statistic));
+        }
+    }
+}
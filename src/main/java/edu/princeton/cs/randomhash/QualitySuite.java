@@ -0,0 +1,395 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the base hash functions of {@link ChecksumHashFamily}, and the
+ * tabulation hashing of {@link TabulationHashFamily}, on the key sets of
+ * SMHasher (Appleby), which are known to defeat weak hash functions: sparse
+ * keys, cyclic keys, permutations of a small alphabet, sequential integers,
+ * and text. <br/>
+ *
+ * For each hash function and each key set, a family of
+ * {@link #FUNCTIONS} functions hashes every key once, and its values are
+ * audited: their distribution, pooled and function by function, with
+ * {@link FamilyAudit}, and their collisions, with {@link CollisionAudit};
+ * then all the keys are hashed again, a few times, to measure the time per
+ * key. The results are printed as a single comparison table (see
+ * {@link #printReport(List)}). <br/>
+ *
+ * The test cases are independent, and are run in parallel, one per thread;
+ * since the time per key is measured while the other cases run, it is only
+ * comparable between cases run with the same number of threads (a single one
+ * gives the most reliable times).
+ */
+public class QualitySuite {
+
+    /**
+     * The number of functions of the families.
+     */
+    public final static int FUNCTIONS = 8;
+
+    /**
+     * The names of the hash functions compared: the base hash functions of
+     * {@link ChecksumHashFamily#CHECKSUMS}, and the tabulation hashing of
+     * {@link TabulationHashFamily}.
+     */
+    public final static String[] HASHERS = { "crc32", "crc32c", "adler32", "tabulation" };
+
+    /**
+     * The number of buckets of the audits of the distributions.
+     */
+    public final static int BUCKETS = 256;
+
+    /**
+     * The seed of the families, and of the random key sets.
+     */
+    public final static long SEED = 42L;
+
+    /**
+     * The p-value below which a distribution is reported as not uniform, for
+     * the pooled values and (divided by {@link #FUNCTIONS}) for the worst
+     * function.
+     */
+    public final static double SIGNIFICANCE = 0.001;
+
+    /**
+     * The number of times the keys are hashed to measure the time per key, of
+     * which the fastest is kept.
+     */
+    protected final static int SPEED_ROUNDS = 3;
+
+    /**
+     * Prevents the JIT compiler from discarding the hash values of the speed
+     * measurements.
+     */
+    private static volatile long sink;
+
+    /**
+     * The results of a base hash function on a key set.
+     */
+    public static final class Result {
+
+        /**
+         * The name of the key set.
+         */
+        public final String keySet;
+
+        /**
+         * The name of the base hash function.
+         */
+        public final String hasher;
+
+        /**
+         * The number of keys.
+         */
+        public final int keys;
+
+        /**
+         * The p-value of the values of all the functions, pooled.
+         */
+        public final double pooledPValue;
+
+        /**
+         * The smallest p-value of the values of a function.
+         */
+        public final double worstPValue;
+
+        /**
+         * The number of collisions, over all the functions.
+         */
+        public final long collisions;
+
+        /**
+         * The largest number of collisions of a function.
+         */
+        public final long maxCollisions;
+
+        /**
+         * The expected number of collisions, over all the functions.
+         */
+        public final double expectedCollisions;
+
+        /**
+         * The time it takes to hash a key with all the functions, in
+         * nanoseconds.
+         */
+        public final double nanosPerKey;
+
+        Result(String keySet, String hasher, int keys, double pooledPValue, double worstPValue, long collisions,
+                long maxCollisions, double expectedCollisions, double nanosPerKey) {
+            this.keySet = keySet;
+            this.hasher = hasher;
+            this.keys = keys;
+            this.pooledPValue = pooledPValue;
+            this.worstPValue = worstPValue;
+            this.collisions = collisions;
+            this.maxCollisions = maxCollisions;
+            this.expectedCollisions = expectedCollisions;
+            this.nanosPerKey = nanosPerKey;
+        }
+
+        /**
+         * Returns {@code true} if the values seem uniformly distributed, and
+         * if no function has significantly more collisions than expected (more
+         * than four standard deviations above the expectation, which is also
+         * the variance, for a Poisson distribution); fewer collisions than
+         * expected are not a failure. The functions are compared one by one,
+         * since a collision of the base hash function is a collision of every
+         * function.
+         *
+         * @return boolean {@code true} if the base hash function passes the test
+         */
+        public boolean passed() {
+            double expected = this.expectedCollisions / FUNCTIONS;
+            return this.pooledPValue >= SIGNIFICANCE && this.worstPValue >= SIGNIFICANCE / FUNCTIONS
+                    && this.maxCollisions <= expected + 4 * Math.sqrt(expected) + 1;
+        }
+    }
+
+    // ==============================================================================
+    // Key sets
+
+    /**
+     * Returns the key sets of the suite, by name, in order.
+     *
+     * @param text A file whose distinct lines are a key set
+     * @return Map&lt;String, byte[][]&gt; The key sets
+     * @throws IOException If the file cannot be read
+     */
+    public static Map<String, byte[][]> keySets(Path text) throws IOException {
+        Map<String, byte[][]> keySets = new LinkedHashMap<String, byte[][]>();
+        keySets.put("sparse (16 bytes, <= 3 bits)", sparseKeys(16, 3));
+        keySets.put("cyclic (32 bytes, 8-byte cycle)", cyclicKeys(32, 8, 1 << 18));
+        keySets.put("permutations (10 of ACGT)", permutationKeys("ACGT".getBytes(StandardCharsets.US_ASCII), 10));
+        keySets.put("integers (4 bytes)", integerKeys(1 << 20, false));
+        keySets.put("integers (decimal)", integerKeys(1 << 20, true));
+        keySets.put("text (" + text + ")", textKeys(text));
+        return keySets;
+    }
+
+    /**
+     * Returns all the keys of the given length with at most the given number
+     * of bits set.
+     */
+    static byte[][] sparseKeys(int length, int maxBits) {
+        List<byte[]> keys = new ArrayList<byte[]>();
+        addSparseKeys(keys, new byte[length], 0, maxBits);
+        return keys.toArray(new byte[0][]);
+    }
+
+    private static void addSparseKeys(List<byte[]> keys, byte[] key, int fromBit, int bits) {
+        keys.add(key.clone());
+        if (bits == 0)
+            return;
+        for (int bit = fromBit; bit < 8 * key.length; bit++) {
+            key[bit >>> 3] ^= 1 << (bit & 7);
+            addSparseKeys(keys, key, bit + 1, bits - 1);
+            key[bit >>> 3] ^= 1 << (bit & 7);
+        }
+    }
+
+    /**
+     * Returns keys made of a random block of bytes, repeated.
+     */
+    static byte[][] cyclicKeys(int length, int cycle, int count) {
+        MTRandom prng = new MTRandom(SEED);
+        byte[][] keys = new byte[count][length];
+        byte[] block = new byte[cycle];
+        for (byte[] key : keys) {
+            prng.nextBytes(block);
+            for (int i = 0; i < length; i++)
+                key[i] = block[i % cycle];
+        }
+        return keys;
+    }
+
+    /**
+     * Returns all the keys of the given length over the given alphabet.
+     */
+    static byte[][] permutationKeys(byte[] alphabet, int length) {
+        int count = (int) Math.pow(alphabet.length, length);
+        byte[][] keys = new byte[count][length];
+        for (int k = 0; k < count; k++)
+            for (int i = 0, digits = k; i < length; i++, digits /= alphabet.length)
+                keys[k][i] = alphabet[digits % alphabet.length];
+        return keys;
+    }
+
+    /**
+     * Returns the integers from 0, as 4 bytes in little-endian order, or as
+     * decimal numbers.
+     */
+    static byte[][] integerKeys(int count, boolean decimal) {
+        byte[][] keys = new byte[count][];
+        for (int k = 0; k < count; k++)
+            keys[k] = decimal ? Integer.toString(k).getBytes(StandardCharsets.US_ASCII)
+                    : new byte[] { (byte) k, (byte) (k >>> 8), (byte) (k >>> 16), (byte) (k >>> 24) };
+        return keys;
+    }
+
+    /**
+     * Returns the distinct lines of a file.
+     */
+    static byte[][] textKeys(Path text) throws IOException {
+        Set<String> lines = new LinkedHashSet<String>(Files.readAllLines(text, StandardCharsets.UTF_8));
+        byte[][] keys = new byte[lines.size()][];
+        int k = 0;
+        for (String line : lines)
+            keys[k++] = line.getBytes(StandardCharsets.UTF_8);
+        return keys;
+    }
+
+    // ==============================================================================
+    // Running the suite
+
+    /**
+     * Returns the family of {@link #FUNCTIONS} functions of the given hash
+     * function: {@code tabulation} for {@link TabulationHashFamily}, and
+     * otherwise the {@link ChecksumHashFamily} of the given base hash function.
+     *
+     * @param hasher The name of the hash function (see {@link #HASHERS})
+     * @return RandomHashFamily The family
+     */
+    public static RandomHashFamily family(String hasher) {
+        if (hasher.equals("tabulation"))
+            return new TabulationHashFamily(SEED, FUNCTIONS);
+        return new ChecksumHashFamily(SEED, FUNCTIONS, hasher);
+    }
+
+    /**
+     * Runs a hash function on a key set.
+     *
+     * @param keySet The name of the key set
+     * @param keys   The keys, which must be distinct
+     * @param hasher The name of the hash function (see {@link #HASHERS})
+     * @return Result The results
+     */
+    public static Result run(String keySet, byte[][] keys, String hasher) {
+        RandomHashFamily family = family(hasher);
+        FamilyAudit audit = new FamilyAudit(FUNCTIONS, BUCKETS);
+        CollisionAudit collisions = new CollisionAudit(family);
+
+        long[] hashes = new long[FUNCTIONS];
+        for (byte[] key : keys) {
+            family.hashes(key, 0, key.length, hashes);
+            audit.update(hashes);
+            collisions.update(hashes);
+        }
+
+        double worst = 1.0;
+        long observed = 0, max = 0;
+        for (int f = 0; f < FUNCTIONS; f++) {
+            worst = Math.min(worst, audit.pValue(f));
+            observed += collisions.collisions(f);
+            max = Math.max(max, collisions.collisions(f));
+        }
+        collisions.close();
+        double expected = FUNCTIONS * CollisionAudit.expectedCollisions(keys.length);
+
+        long best = Long.MAX_VALUE, checksum = 0;
+        for (int r = 0; r <= SPEED_ROUNDS; r++) {
+            long begin = System.nanoTime();
+            for (byte[] key : keys) {
+                family.hashes(key, 0, key.length, hashes);
+                checksum += hashes[0];
+            }
+            // the first round warms up the JIT compiler
+            if (r > 0)
+                best = Math.min(best, System.nanoTime() - begin);
+        }
+        sink += checksum;
+
+        return new Result(keySet, hasher, keys.length, audit.pooled().pValue(), worst, observed, max, expected,
+                (double) best / keys.length);
+    }
+
+    /**
+     * Runs every base hash function on every key set, in parallel, and returns
+     * the results, by key set and then by base hash function.
+     *
+     * @param keySets The key sets, by name (see {@link #keySets(Path)})
+     * @param hashers The names of the base hash functions
+     * @param threads The number of test cases to run at once
+     * @return List&lt;Result&gt; The results
+     * @throws InterruptedException If interrupted while waiting for the results
+     */
+    public static List<Result> runAll(Map<String, byte[][]> keySets, String[] hashers, int threads)
+            throws InterruptedException {
+        List<String[]> cases = new ArrayList<String[]>();
+        for (String keySet : keySets.keySet())
+            for (String hasher : hashers)
+                cases.add(new String[] { keySet, hasher });
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> cases.parallelStream()
+                    .map(c -> run(c[0], keySets.get(c[0]), c[1]))
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Prints the results as a table, with one line per key set and base hash
+     * function.
+     *
+     * @param results The results (see {@link #runAll(Map, String[], int)})
+     */
+    public static void printReport(List<Result> results) {
+        System.out.println("quality report:");
+        System.out.printf("> functions per family: %d, buckets: %d, significance: %g\n", FUNCTIONS, BUCKETS,
+                SIGNIFICANCE);
+        System.out.printf("> %-32s %-10s %8s %10s %10s %22s %9s  %s\n", "key set", "hasher", "keys", "p pooled",
+                "p worst", "collisions (expected)", "ns/key", "verdict");
+        for (Result r : results)
+            System.out.printf("> %-32s %-10s %8d %10.4g %10.4g %10d (%9.1f) %9.1f  %s\n", r.keySet, r.hasher,
+                    r.keys, r.pooledPValue, r.worstPValue, r.collisions, r.expectedCollisions, r.nanosPerKey,
+                    r.passed() ? "pass" : "FAIL");
+    }
+
+    /**
+     * Runs the suite on all the hash functions of {@link #HASHERS}.
+     *
+     * <pre>
+     * java -cp randomhash.jar edu.princeton.cs.randomhash.QualitySuite [--threads=&lt;n&gt;] [&lt;text file&gt;]
+     * </pre>
+     *
+     * @param args The number of threads, and the file of the text key set
+     *             (by default, {@code data/unique.txt})
+     * @throws Exception If the text file cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path text = Paths.get("data", "unique.txt");
+        for (String arg : args) {
+            if (arg.startsWith("--threads="))
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else
+                text = Paths.get(arg);
+        }
+
+        List<Result> results = runAll(keySets(text), HASHERS, threads);
+        printReport(results);
+        System.out.printf("> passed: %d of %d\n", results.stream().filter(Result::passed).count(),
+                results.size());
+    }
+}
@@ -3,8 +3,15 @@ package edu.princeton.cs.randomhash;
 
 import java.lang.Math;
 import java.lang.System;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.Random;
-import java.util.zip.Checksum;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.zip.CRC32;
 
 /**
@@ -27,6 +34,11 @@ import java.util.zip.CRC32;
  * he invented the data streaming algorithm, Probabilistic Counting (1973).
  * <br/>
  *
+ * The construction of families and the hashing of keys can be counted, and
+ * traced with the Flight Recorder, by enabling the instrumentation of
+ * {@link HashMetrics}, which otherwise costs nothing.
+ * <br/>
+ *
  * @author Jérémie Lumbroso
  * @version 1.1.1
  */
@@ -44,10 +56,37 @@ public class RandomHashFamily {
      */
     public final static long MIN_VALUE = 0;
 
+    /**
+     * Number of functions whose coefficients are drawn by a single worker,
+     * when large families are constructed in parallel (see
+     * {@link #RandomHashFamily(long, int)}).
+     */
+    protected final static int PARALLEL_CHUNK = 1 << 18;
+
+    /**
+     * Length of the longest string key that is encoded into the buffer of
+     * the current thread (see {@link #baseHash(String)}); longer keys are
+     * encoded into a new array.
+     */
+    protected final static int MAX_SCRATCH_CHARS = 1 << 14;
+
+    /**
+     * Whether the platform's default charset is UTF-8, in which case string
+     * keys are encoded by {@link #encodeUTF8(String, byte[])}, rather than by
+     * an encoder of the charset.
+     */
+    private final static boolean DEFAULT_UTF8 = Charset.defaultCharset().equals(StandardCharsets.UTF_8);
+
+    /**
+     * The objects reused by the current thread to hash keys, so that hashing
+     * does not allocate.
+     */
+    private final static ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
     /**
      * The internal seed used to initialize the underlying PRNG.
      */
-    protected long seed;
+    protected final long seed;
 
     /**
      * The underlying PRNG, which is of type {@see java.util.Random}.
@@ -55,23 +94,26 @@ public class RandomHashFamily {
     protected Random prng;
 
     /**
-     * Number of pseudo-random hash functions in this {@link RandomHashFamily}.
+     * Number of pseudo-random hash functions in this {@link RandomHashFamily};
+     * like the seed and the coefficients, it is final, so that a family can be
+     * shared by threads (see {@link HashCollectors}): subclasses give them to
+     * {@link #RandomHashFamily(long, int, long[], long[])}.
      */
-    protected int count;
+    protected final int count;
 
     /**
      * Unsigned integer array (stored as {@code long}) of random coprime numbers
      * used as the linear map of the affine transformation used to generate
      * the pseudo-random hash functions.
      */
-    protected long[] numsCoprime;
+    protected final long[] numsCoprime;
 
     /**
      * Unsigned integer arrays (stored as {@code long}) of random uniform numbers
      * used as the translation of the affine transformation used to generate
      * the pseudo-random hash functions.
      */
-    protected long[] numsNoise;
+    protected final long[] numsNoise;
 
     /**
      * Constructor for {@link RandomHashFamily}, which initializes a family
@@ -105,23 +147,184 @@ public class RandomHashFamily {
     /**
      * Constructor for {@link RandomHashFamily}, which initializes a family
      * of hash functions, using the given seed to initialize the underlying
-     * PRNG.
+     * PRNG. <br/>
+     * 
+     * Large families (of at least twice {@link #PARALLEL_CHUNK} functions)
+     * are constructed in parallel on the common fork-join pool: each worker
+     * copies the PRNG, and jumps ahead (see {@link MTRandom#jump(long)}) to
+     * the portion of the pseudo-random sequence that the sequential
+     * construction would have used for its chunk of functions, so that the
+     * resulting family is exactly the same.
      * 
      * @param seed  The seed used to initialize the underlying PRNG.
      * @param count The number of pseudo-random hash functions in this family.
      */
     public RandomHashFamily(long seed, int count) {
-        prng = new MTRandom();
-        prng.setSeed(seed);
+        FamilyConstructionEvent event = null;
+        if (HashMetrics.ENABLED) {
+            event = new FamilyConstructionEvent();
+            event.begin();
+        }
+
+        MTRandom mt = new MTRandom();
+        mt.setSeed(seed);
+        prng = mt;
 
+        this.seed = seed;
         this.count = count;
 
         this.numsCoprime = new long[this.count];
         this.numsNoise = new long[this.count];
 
-        for (int i = 0; i < this.count; i++) {
-            numsCoprime[i] = this.generateCoprime();
-            numsNoise[i] = Integer.toUnsignedLong(prng.nextInt());
+        // subclasses may override generateCoprime(), which the workers cannot
+        // call, so they are always constructed sequentially
+        boolean parallel = this.count >= 2 * PARALLEL_CHUNK && this.getClass() == RandomHashFamily.class
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(new CoefficientsTask(mt, 0, this.count));
+            mt.jump(2L * this.count);
+        } else {
+            for (int i = 0; i < this.count; i++) {
+                numsCoprime[i] = this.generateCoprime();
+                numsNoise[i] = Integer.toUnsignedLong(prng.nextInt());
+            }
+        }
+
+        if (HashMetrics.ENABLED) {
+            HashMetrics.global().recordFamily();
+            event.end();
+            if (event.shouldCommit()) {
+                event.family = this.getClass().getName();
+                event.seed = seed;
+                event.count = count;
+                event.parallel = parallel;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Constructor for subclasses whose coefficients are not drawn, but given:
+     * for instance, read from a file, or kept elsewhere than in arrays (see
+     * {@link MappedRandomHashFamily}), in which case the arrays are
+     * {@code null}, and {@link #fillHashes(long, long[], int)} must be
+     * overridden to read them.
+     * 
+     * @param seed        The seed from which the coefficients were drawn.
+     * @param count       The number of pseudo-random hash functions in this family.
+     * @param numsCoprime The multipliers of the functions, or {@code null}
+     * @param numsNoise   The translations of the functions, or {@code null}
+     */
+    protected RandomHashFamily(long seed, int count, long[] numsCoprime, long[] numsNoise) {
+        this.seed = seed;
+        this.count = count;
+        this.numsCoprime = numsCoprime;
+        this.numsNoise = numsNoise;
+
+        if (HashMetrics.ENABLED)
+            HashMetrics.global().recordFamily();
+    }
+
+    /**
+     * Fork-join task drawing the coefficients of the functions with indexes
+     * {@code from} (inclusive) to {@code to} (exclusive), from the same words
+     * of the pseudo-random sequence as the sequential construction: two words
+     * per function, the first for the coprime and the second for the noise.
+     */
+    private final class CoefficientsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MTRandom origin;
+        private final int from;
+        private final int to;
+
+        CoefficientsTask(MTRandom origin, int from, int to) {
+            this.origin = origin;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from >= 2 * PARALLEL_CHUNK) {
+                int mid = from + (to - from) / 2;
+                invokeAll(new CoefficientsTask(origin, from, mid), new CoefficientsTask(origin, mid, to));
+                return;
+            }
+
+            MTRandom r = origin.copy();
+            r.jump(2L * from);
+            for (int i = from; i < to; i++) {
+                numsCoprime[i] = 2 * Integer.toUnsignedLong(r.nextInt()) + 1;
+                numsNoise[i] = Integer.toUnsignedLong(r.nextInt());
+            }
+        }
+    }
+
+    /**
+     * The objects reused by a thread to hash keys: the checksum of the base
+     * hash function, a buffer into which string keys are encoded, and an
+     * array for the single hash value of {@link #hash(String)}; when the
+     * default charset is not UTF-8, also an encoder of the charset, and a
+     * buffer into which the chars of string keys are copied.
+     */
+    private final static class Scratch {
+
+        final CRC32 crc = new CRC32();
+
+        byte[] bytes = new byte[256];
+
+        final long[] hash = new long[1];
+
+        /**
+         * The number of bytes of the last string key encoded, when the
+         * metrics are enabled, or {@code -1} once read (see
+         * {@link RandomHashFamily#encodedLength(String)}).
+         */
+        int encoded = -1;
+
+        private CharsetEncoder encoder;
+
+        private CharBuffer in = CharBuffer.allocate(0);
+
+        private ByteBuffer out = ByteBuffer.wrap(this.bytes);
+
+        /**
+         * Returns the buffer into which string keys are encoded, grown to at
+         * least the given length.
+         */
+        byte[] bytes(int length) {
+            if (this.bytes.length < length) {
+                this.bytes = new byte[Math.max(length, 2 * this.bytes.length)];
+                this.out = ByteBuffer.wrap(this.bytes);
+            }
+            return this.bytes;
+        }
+
+        /**
+         * Encodes a string in the default charset, as {@link String#getBytes()}
+         * does, into {@link #bytes}, and returns the number of bytes of the
+         * encoded string, or {@code -1} if the encoder failed.
+         */
+        int encode(String key) {
+            if (this.encoder == null)
+                this.encoder = Charset.defaultCharset().newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            int n = key.length();
+            if (this.in.capacity() < n)
+                this.in = CharBuffer.allocate(Math.max(n, 2 * this.in.capacity()));
+            key.getChars(0, n, this.in.array(), 0);
+            this.in.clear().limit(n);
+
+            this.bytes((int) Math.ceil(this.encoder.maxBytesPerChar() * n) + 1);
+            this.out.clear();
+            this.encoder.reset();
+            if (!this.encoder.encode(this.in, this.out, true).isUnderflow()
+                    || !this.encoder.flush(this.out).isUnderflow())
+                return -1;
+            return this.out.position();
         }
     }
 
@@ -160,6 +363,15 @@ public class RandomHashFamily {
         return Integer.toUnsignedLong((int) value);
     }
 
+    /**
+     * Returns the number of pseudo-random hash functions in this family.
+     * 
+     * @return int The number of pseudo-random hash functions in this family.
+     */
+    public int count() {
+        return this.count;
+    }
+
     /**
      * Computes and returns the hash value for the given key, without any
      * additional transformation applied. <br/>
@@ -167,17 +379,150 @@ public class RandomHashFamily {
      * This method will serve as the basis for the all the other calculated
      * pseudo-random hash functions. It currently is implemented using
      * {@see java.util.zip.CRC32}, and to extend this class to other hash functions,
-     * you would override this method.
+     * you would override this method (and {@link #baseHash(byte[], int, int)}).
+     * <br/>
+     * 
+     * String keys (of up to {@link #MAX_SCRATCH_CHARS} chars) are encoded in
+     * the platform's default charset into a buffer of the current thread,
+     * rather than into a new array: directly in UTF-8, and otherwise with an
+     * encoder of the charset, which the thread also keeps.
      * 
      * @param key A string key to be hashed
      * @return long The hash value for the given key
      */
     protected long baseHash(String key) {
-        Checksum ck = new CRC32();
-        ck.update(key.getBytes());
+        Scratch scratch = SCRATCH.get();
+        int len = -1;
+        if (key.length() <= MAX_SCRATCH_CHARS)
+            len = DEFAULT_UTF8 ? encodeUTF8(key, scratch.bytes(3 * key.length())) : scratch.encode(key);
+        if (len < 0) {
+            byte[] bytes = key.getBytes();
+            if (HashMetrics.ENABLED)
+                scratch.encoded = bytes.length;
+            return this.baseHash(bytes, 0, bytes.length);
+        }
+        if (HashMetrics.ENABLED)
+            scratch.encoded = len;
+        return this.baseHash(scratch.bytes, 0, len);
+    }
+
+    /**
+     * Returns the number of bytes as which a string key was just hashed by
+     * {@link #baseHash(String)} on the current thread, for the metrics (see
+     * {@link HashMetrics#recordKey(int, int)}), rather than its number of
+     * chars; the key is encoded again if {@link #baseHash(String)} is
+     * overridden, and did not record it.
+     *
+     * @param key The string key just hashed
+     * @return int The number of bytes of the key, in the default charset
+     */
+    static int encodedLength(String key) {
+        Scratch scratch = SCRATCH.get();
+        int len = scratch.encoded;
+        scratch.encoded = -1;
+        return (len >= 0) ? len : key.getBytes().length;
+    }
+
+    /**
+     * Encodes a string in UTF-8, as {@link String#getBytes(Charset)} does
+     * (unpaired surrogates are replaced by {@code '?'}), into the given array,
+     * which must hold at least 3 bytes per char.
+     * 
+     * @param key   The string to encode
+     * @param bytes The array into which the string is encoded
+     * @return int The number of bytes of the encoded string
+     */
+    static int encodeUTF8(String key, byte[] bytes) {
+        int len = 0;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                bytes[len++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[len++] = (byte) (0xc0 | c >> 6);
+                bytes[len++] = (byte) (0x80 | c & 0x3f);
+            } else if (!Character.isSurrogate(c)) {
+                bytes[len++] = (byte) (0xe0 | c >> 12);
+                bytes[len++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[len++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(key.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, key.charAt(++i));
+                bytes[len++] = (byte) (0xf0 | cp >> 18);
+                bytes[len++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                bytes[len++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                bytes[len++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                bytes[len++] = '?';
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Computes and returns the hash value for the given range of bytes, without
+     * any additional transformation applied; a string key is hashed as its bytes
+     * in the platform's default charset (see {@link String#getBytes()}).
+     * 
+     * @param key A byte array containing the key to be hashed
+     * @param off The offset of the key in the array
+     * @param len The length of the key, in bytes
+     * @return long The hash value for the given key
+     */
+    protected long baseHash(byte[] key, int off, int len) {
+        CRC32 ck = SCRATCH.get().crc;
+        ck.reset();
+        ck.update(key, off, len);
+        return ck.getValue();
+    }
+
+    /**
+     * Computes and returns the hash value for the given range of bytes of a
+     * buffer, without any additional transformation applied; this is the same
+     * as {@link #baseHash(byte[], int, int)} for the same bytes. Buffers that
+     * are backed by an array are hashed with
+     * {@link #baseHash(byte[], int, int)}, and other buffers (such as direct or
+     * memory-mapped ones) are hashed in place, so that subclasses that change
+     * the base hash function should override both methods.
+     * 
+     * @param key A buffer containing the key to be hashed
+     * @param off The absolute index of the key in the buffer
+     * @param len The length of the key, in bytes
+     * @return long The hash value for the given key
+     */
+    protected long baseHash(ByteBuffer key, int off, int len) {
+        if (key.hasArray())
+            return this.baseHash(key.array(), key.arrayOffset() + off, len);
+
+        int position = key.position(), limit = key.limit();
+        key.limit(key.capacity()).position(off).limit(off + len);
+
+        CRC32 ck = SCRATCH.get().crc;
+        ck.reset();
+        ck.update(key);
+
+        key.limit(limit).position(position);
         return ck.getValue();
     }
 
+    /**
+     * Fills the given array with the values of the first pseudo-random hash
+     * functions of this family, for a key with the given base hash value. <br/>
+     * 
+     * This method does not modify the state of this family, so that hash values
+     * may be computed concurrently from several threads.
+     * 
+     * @param baseHash The base hash value of the key (see {@link #baseHash(String)})
+     * @param hashes   An array of 32-bit unsigned integers to be filled with the
+     *                 pseudo-random hash values
+     * @param count    The number of hash values to compute
+     */
+    protected void fillHashes(long baseHash, long[] hashes, int count) {
+        for (int i = 0; i < count; i++) {
+            hashes[i] = RandomHashFamily.truncateLong(
+                    RandomHashFamily.affineTransform(baseHash, numsCoprime[i], numsNoise[i]));
+        }
+    }
+
     /**
      * Computes and returns the pseudo-random hash values for the given key.
      * 
@@ -187,13 +532,71 @@ public class RandomHashFamily {
      */
     public void hashes(String key, long[] hashes) {
         long baseHash = this.baseHash(key);
+        int count = Math.min(hashes.length, this.count);
 
-        count = Math.min(hashes.length, this.count);
+        this.fillHashes(baseHash, hashes, count);
 
-        for (int i = 0; i < count; i++) {
-            hashes[i] = RandomHashFamily.truncateLong(
-                    RandomHashFamily.affineTransform(baseHash, numsCoprime[i], numsNoise[i]));
-        }
+        if (HashMetrics.ENABLED)
+            HashMetrics.global().recordKey(encodedLength(key), count);
+    }
+
+    /**
+     * Computes and returns the pseudo-random hash values for the given key,
+     * given as a range of bytes. A string key and its bytes (in the platform's
+     * default charset) have the same hash values.
+     * 
+     * @param key    A byte array containing the key to be hashed
+     * @param off    The offset of the key in the array
+     * @param len    The length of the key, in bytes
+     * @param hashes An array of 32-bit unsigned integers to be filled with the
+     *               pseudo-random hash values.
+     */
+    public void hashes(byte[] key, int off, int len, long[] hashes) {
+        long baseHash = this.baseHash(key, off, len);
+        int count = Math.min(hashes.length, this.count);
+
+        this.fillHashes(baseHash, hashes, count);
+
+        if (HashMetrics.ENABLED)
+            HashMetrics.global().recordKey(len, count);
+    }
+
+    /**
+     * Computes and returns the pseudo-random hash values for the given key,
+     * given as a range of bytes of a buffer, such as a slice of a memory-mapped
+     * file; these are the same as the hash values of the same bytes in an
+     * array. The position and limit of the buffer are left unchanged, but are
+     * used while the key is hashed, so that the same buffer must not be used
+     * concurrently by several threads.
+     * 
+     * @param key    A buffer containing the key to be hashed
+     * @param off    The absolute index of the key in the buffer
+     * @param len    The length of the key, in bytes
+     * @param hashes An array of 32-bit unsigned integers to be filled with the
+     *               pseudo-random hash values.
+     */
+    public void hashes(ByteBuffer key, int off, int len, long[] hashes) {
+        long baseHash = this.baseHash(key, off, len);
+        int count = Math.min(hashes.length, this.count);
+
+        this.fillHashes(baseHash, hashes, count);
+
+        if (HashMetrics.ENABLED)
+            HashMetrics.global().recordKey(len, count);
+    }
+
+    /**
+     * Computes and returns the pseudo-random hash values for the given key,
+     * given as an array of bytes.
+     * 
+     * @param key A byte array key to be hashed
+     * @return long[] An array of 32-bit unsigned integers containing the
+     *         pseudo-random hash values
+     */
+    public long[] hashes(byte[] key) {
+        long[] hashes = new long[this.count];
+        this.hashes(key, 0, key.length, hashes);
+        return hashes;
     }
 
     /**
@@ -219,9 +622,25 @@ public class RandomHashFamily {
      * @return long A single pseudo-random hash value
      */
     public long hash(String key) {
-        long[] hash = new long[1];
+        long[] hash = SCRATCH.get().hash;
         this.hashes(key, hash);
         return hash[0];
     }
 
+    /**
+     * Computes and returns a single pseudo-random hash value for the given key,
+     * given as an array of bytes. <br/>
+     * 
+     * This is the same as {@link #hashes(byte[])}, but only returns the first
+     * hash value.
+     * 
+     * @param key A byte array key to be hashed
+     * @return long A single pseudo-random hash value
+     */
+    public long hash(byte[] key) {
+        long[] hash = SCRATCH.get().hash;
+        this.hashes(key, 0, key.length, hash);
+        return hash[0];
+    }
+
 }
@@ -0,0 +1,383 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes every k-gram (shingle) of a text with the functions of a
+ * {@link RandomHashFamily}, as needed to estimate the similarity of documents
+ * with MinHash: the values for each window of {@code k} bytes are the same as
+ * those of {@link RandomHashFamily#hashes(byte[], int, int, long[])} for the
+ * bytes of the window, but are computed in constant time per position, and
+ * without extracting the window. <br/>
+ *
+ * Since CRC32 is linear, the CRC32 value of a window can be rolled: the next
+ * byte is added as usual, and the contribution of the byte that leaves the
+ * window, which only depends on its value (for a given window length), is
+ * removed with a table computed once; the functions of the family are then
+ * computed from the CRC32 value of each window, as for any key. The base hash
+ * function of the family must therefore be CRC32, as that of
+ * {@link RandomHashFamily} and {@link MappedRandomHashFamily}, and not that
+ * of {@link TabulationHashFamily}. <br/>
+ *
+ * The hash values are given to a {@link ShingleConsumer}, in an array that is
+ * reused for every window, or folded straight into a MinHash signature (see
+ * {@link #minHash(byte[], int, int, long[])}). Text given as chars is hashed as
+ * its UTF-16LE bytes, two per char. A {@link ShingleHasher} reuses its arrays,
+ * so that a thread must not share it with others.
+ */
+public class ShingleHasher {
+
+    /**
+     * The table of the byte-wise CRC32 algorithm (reflected polynomial
+     * {@code 0xEDB88320}), as computed by {@link CRC32}.
+     */
+    private final static int[] CRC_TABLE = crcTable();
+
+    /**
+     * Receives the hash values of the shingles of a text.
+     */
+    @FunctionalInterface
+    public interface ShingleConsumer {
+
+        /**
+         * Processes the hash values of a shingle. The array is reused for the
+         * next shingles, and is only valid for the duration of the call.
+         *
+         * @param position The index of the shingle in the text, from 0
+         * @param hashes   The hash values of the shingle, one per function of the
+         *                 family
+         */
+        void accept(int position, long[] hashes);
+    }
+
+    /**
+     * The family whose functions hash the shingles.
+     */
+    protected final RandomHashFamily family;
+
+    /**
+     * The length of the shingles, in bytes or in chars.
+     */
+    protected final int k;
+
+    /**
+     * The contribution to the CRC32 value of a window of {@code k} bytes of
+     * each value of its first byte, to be removed when the byte leaves the
+     * window.
+     */
+    private final int[] byteOut;
+
+    /**
+     * The same as {@link #byteOut}, for windows of {@code 2k} bytes, which are
+     * shingles of {@code k} chars.
+     */
+    private final int[] charOut;
+
+    /**
+     * The hash values of the current shingle.
+     */
+    private final long[] hashes;
+
+    /**
+     * The signature into which {@link #minHash(byte[], int, int, long[])}
+     * folds the hash values.
+     */
+    private long[] signature;
+
+    private final ShingleConsumer folder = (position, hashes) -> {
+        long[] signature = this.signature;
+        for (int f = 0, n = Math.min(signature.length, hashes.length); f < n; f++) {
+            if (hashes[f] < signature[f])
+                signature[f] = hashes[f];
+        }
+    };
+
+    /**
+     * Creates a new {@link ShingleHasher}, for shingles of the given length.
+     *
+     * @param family The family whose functions hash the shingles, whose base
+     *               hash function must be CRC32
+     * @param k      The length of the shingles, in bytes (or in chars, for
+     *               text given as chars)
+     * @throws IllegalArgumentException If the base hash function of the family
+     *                                  is not CRC32
+     */
+    public ShingleHasher(RandomHashFamily family, int k) {
+        if (k <= 0)
+            throw new IllegalArgumentException("k must be strictly positive");
+        if (k > (1 << 20))
+            throw new IllegalArgumentException("k must be at most 2^20");
+        if (!hasCRC32(family))
+            throw new IllegalArgumentException("the base hash function of "
+                    + family.getClass().getSimpleName() + " is not CRC32, and cannot be rolled");
+
+        this.family = family;
+        this.k = k;
+        this.byteOut = outTable(k);
+        this.charOut = outTable(2 * k);
+        this.hashes = new long[family.count()];
+    }
+
+    /**
+     * Returns whether the base hash function of a family is CRC32, for a few
+     * keys.
+     */
+    private static boolean hasCRC32(RandomHashFamily family) {
+        byte[] probe = "The quick brown fox jumps over the lazy dog".getBytes();
+        for (int len = 0; len <= probe.length; len += 7) {
+            CRC32 crc = new CRC32();
+            crc.update(probe, 0, len);
+            if (family.baseHash(probe, 0, len) != crc.getValue())
+                return false;
+        }
+        return true;
+    }
+
+    private static int[] crcTable() {
+        int[] table = new int[256];
+        for (int b = 0; b < 256; b++) {
+            int c = b;
+            for (int i = 0; i < 8; i++)
+                c = (c & 1) != 0 ? (c >>> 1) ^ 0xEDB88320 : c >>> 1;
+            table[b] = c;
+        }
+        return table;
+    }
+
+    /**
+     * Returns the contribution of each value of the first byte of a window of
+     * the given length to its CRC32 value, which is, by linearity,
+     * {@code crc(b 0...0) ^ crc(0...0)} for windows of {@code length + 1}
+     * and {@code length} bytes.
+     */
+    private static int[] outTable(int length) {
+        byte[] window = new byte[length + 1];
+        CRC32 crc = new CRC32();
+        crc.update(window, 0, length);
+        int zeros = (int) crc.getValue();
+
+        int[] table = new int[256];
+        for (int b = 0; b < 256; b++) {
+            window[0] = (byte) b;
+            crc.reset();
+            crc.update(window, 0, length + 1);
+            table[b] = (int) crc.getValue() ^ zeros;
+        }
+        return table;
+    }
+
+    /**
+     * Adds a byte to the register of the CRC32 algorithm, which is the
+     * complement of the CRC32 value of the bytes added so far.
+     */
+    private static int update(int register, int b) {
+        return CRC_TABLE[(register ^ b) & 0xff] ^ (register >>> 8);
+    }
+
+    private void emit(int register, int position, ShingleConsumer consumer, int length) {
+        this.family.fillHashes(Integer.toUnsignedLong(~register), this.hashes, this.hashes.length);
+        if (HashMetrics.ENABLED)
+            HashMetrics.global().recordKey(length, this.hashes.length);
+        consumer.accept(position, this.hashes);
+    }
+
+    /**
+     * Returns the length of the shingles.
+     *
+     * @return int The length of the shingles, in bytes or in chars
+     */
+    public int k() {
+        return this.k;
+    }
+
+    /**
+     * Hashes every shingle of {@code k} bytes of the given range of bytes.
+     *
+     * @param bytes    A byte array containing the text
+     * @param off      The offset of the text in the array
+     * @param len      The length of the text, in bytes
+     * @param consumer The consumer of the hash values of the shingles
+     * @return long The number of shingles, {@code len - k + 1} (or 0, if the
+     *         text is shorter than a shingle)
+     */
+    public long forEachShingle(byte[] bytes, int off, int len, ShingleConsumer consumer) {
+        int k = this.k;
+        if (len < k)
+            return 0;
+
+        int register = -1;
+        for (int i = off; i < off + k; i++)
+            register = update(register, bytes[i]);
+        this.emit(register, 0, consumer, k);
+
+        for (int i = off + k, end = off + len; i < end; i++) {
+            register = update(register, bytes[i]) ^ this.byteOut[bytes[i - k] & 0xff];
+            this.emit(register, i - off - k + 1, consumer, k);
+        }
+        return len - k + 1;
+    }
+
+    /**
+     * Hashes every shingle of {@code k} bytes of the given range of bytes of a
+     * buffer, which is read with absolute methods, and left unchanged.
+     *
+     * @param buffer   A buffer containing the text
+     * @param off      The absolute index of the text in the buffer
+     * @param len      The length of the text, in bytes
+     * @param consumer The consumer of the hash values of the shingles
+     * @return long The number of shingles, {@code len - k + 1} (or 0, if the
+     *         text is shorter than a shingle)
+     */
+    public long forEachShingle(ByteBuffer buffer, int off, int len, ShingleConsumer consumer) {
+        int k = this.k;
+        if (len < k)
+            return 0;
+
+        int register = -1;
+        for (int i = off; i < off + k; i++)
+            register = update(register, buffer.get(i));
+        this.emit(register, 0, consumer, k);
+
+        for (int i = off + k, end = off + len; i < end; i++) {
+            register = update(register, buffer.get(i)) ^ this.byteOut[buffer.get(i - k) & 0xff];
+            this.emit(register, i - off - k + 1, consumer, k);
+        }
+        return len - k + 1;
+    }
+
+    /**
+     * Hashes every shingle of {@code k} chars of the given range of a text,
+     * as the {@code 2k} bytes of its UTF-16LE encoding: the hash values of a
+     * shingle are those of {@code shingle.getBytes(UTF_16LE)}, except for
+     * shingles that split a surrogate pair, whose halves are hashed as they
+     * are (instead of being replaced).
+     *
+     * @param text     The text, such as a {@code String} or a {@code CharBuffer}
+     * @param from     The index of the first char of the text
+     * @param to       The index after the last char of the text
+     * @param consumer The consumer of the hash values of the shingles
+     * @return long The number of shingles, {@code to - from - k + 1} (or 0, if
+     *         the text is shorter than a shingle)
+     */
+    public long forEachShingle(CharSequence text, int from, int to, ShingleConsumer consumer) {
+        int k = this.k;
+        if (to - from < k)
+            return 0;
+
+        int register = -1;
+        for (int i = from; i < from + k; i++) {
+            char c = text.charAt(i);
+            register = update(update(register, c), c >>> 8);
+        }
+        this.emit(register, 0, consumer, 2 * k);
+
+        for (int i = from + k; i < to; i++) {
+            char c = text.charAt(i), out = text.charAt(i - k);
+            register = update(register, c) ^ this.charOut[out & 0xff];
+            register = update(register, c >>> 8) ^ this.charOut[out >>> 8];
+            this.emit(register, i - from - k + 1, consumer, 2 * k);
+        }
+        return to - from - k + 1;
+    }
+
+    // ==============================================================================
+    // MinHash
+
+    /**
+     * Returns a new MinHash signature, with one minimum per function of the
+     * family, before any shingle is folded into it.
+     *
+     * @return long[] A signature whose minima are all {@link Long#MAX_VALUE}
+     */
+    public long[] newSignature() {
+        long[] signature = new long[this.family.count()];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        return signature;
+    }
+
+    /**
+     * Folds the hash values of every shingle of {@code k} bytes of the given
+     * range of bytes into a MinHash signature: each minimum becomes the
+     * smallest value of its function over the shingles, without any other
+     * array or object.
+     *
+     * @param bytes     A byte array containing the text
+     * @param off       The offset of the text in the array
+     * @param len       The length of the text, in bytes
+     * @param signature The signature, from {@link #newSignature()} or a
+     *                  previous call
+     * @return long The number of shingles
+     */
+    public long minHash(byte[] bytes, int off, int len, long[] signature) {
+        this.signature = signature;
+        try {
+            return this.forEachShingle(bytes, off, len, this.folder);
+        } finally {
+            this.signature = null;
+        }
+    }
+
+    /**
+     * Folds the hash values of every shingle of {@code k} bytes of the given
+     * range of bytes of a buffer into a MinHash signature (see
+     * {@link #minHash(byte[], int, int, long[])}).
+     *
+     * @param buffer    A buffer containing the text
+     * @param off       The absolute index of the text in the buffer
+     * @param len       The length of the text, in bytes
+     * @param signature The signature, from {@link #newSignature()} or a
+     *                  previous call
+     * @return long The number of shingles
+     */
+    public long minHash(ByteBuffer buffer, int off, int len, long[] signature) {
+        this.signature = signature;
+        try {
+            return this.forEachShingle(buffer, off, len, this.folder);
+        } finally {
+            this.signature = null;
+        }
+    }
+
+    /**
+     * Folds the hash values of every shingle of {@code k} chars of the given
+     * range of a text into a MinHash signature (see
+     * {@link #minHash(byte[], int, int, long[])} and
+     * {@link #forEachShingle(CharSequence, int, int, ShingleConsumer)}).
+     *
+     * @param text      The text
+     * @param from      The index of the first char of the text
+     * @param to        The index after the last char of the text
+     * @param signature The signature, from {@link #newSignature()} or a
+     *                  previous call
+     * @return long The number of shingles
+     */
+    public long minHash(CharSequence text, int from, int to, long[] signature) {
+        this.signature = signature;
+        try {
+            return this.forEachShingle(text, from, to, this.folder);
+        } finally {
+            this.signature = null;
+        }
+    }
+
+    /**
+     * Estimates the Jaccard similarity of two texts from their MinHash
+     * signatures, as the fraction of functions whose minima are equal.
+     *
+     * @param a The signature of the first text
+     * @param b The signature of the second text
+     * @return double The estimated similarity, between 0 and 1
+     */
+    public static double similarity(long[] a, long[] b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("signatures must have the same length");
+        int equal = 0;
+        for (int f = 0; f < a.length; f++) {
+            if (a[f] == b[f])
+                equal++;
+        }
+        return a.length == 0 ? 0.0 : (double) equal / a.length;
+    }
+}
@@ -0,0 +1,294 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the lines of streams that cannot be memory-mapped, such as the
+ * standard input or compressed files, without decoding them, as
+ * {@link MappedLines} does for plain files. <br/>
+ *
+ * The streams are read, and decompressed, by a thread of their own, in large
+ * batches of whole lines, which are handed over to the threads that process
+ * the lines through a bounded queue (see
+ * {@link #forEachLine(MappedLines.LineConsumer)}): reading overlaps with
+ * processing, and no more than a few batches are ever in memory. Several
+ * threads may process the lines at once, each taking its own batches. <br/>
+ *
+ * Sources are given as paths (see {@link #open(Path)}): {@code -} stands for
+ * the standard input, and files whose name ends with {@code .gz} or
+ * {@code .deflate} are decompressed (as gzip or zlib streams); a directory
+ * stands for all the files it contains (see {@link #sources(Path)}).
+ */
+public final class StreamedLines implements Closeable {
+
+    /**
+     * The default number of bytes of a batch of lines; a batch is larger if it
+     * has a longer line.
+     */
+    public final static int BATCH_SIZE = 1 << 20;
+
+    /**
+     * The default number of batches that may wait in the queue.
+     */
+    public final static int QUEUE_CAPACITY = 8;
+
+    /**
+     * The size of the buffer of compressed bytes of the decompressing streams.
+     */
+    final static int INFLATER_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The largest batch of lines; no line may be longer.
+     */
+    final static int MAX_BATCH_SIZE = 1 << 30;
+
+    /**
+     * Marks the end of the streams, or their closing: it is put back in the
+     * queue by each thread that takes it, so that all the threads see it.
+     */
+    private final static ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final List<Path> sources;
+
+    private final int batchSize;
+
+    private final BlockingQueue<ByteBuffer> queue;
+
+    private final Thread reader;
+
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@link StreamedLines} with the default batch size and queue
+     * capacity, and starts reading the given sources, in order.
+     *
+     * @param sources The paths of the sources (see {@link #open(Path)})
+     */
+    public StreamedLines(List<Path> sources) {
+        this(sources, BATCH_SIZE, QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a new {@link StreamedLines}, and starts reading the given
+     * sources, in order.
+     *
+     * @param sources       The paths of the sources (see {@link #open(Path)})
+     * @param batchSize     The number of bytes of a batch of lines
+     * @param queueCapacity The number of batches that may wait in the queue
+     */
+    public StreamedLines(List<Path> sources, int batchSize, int queueCapacity) {
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE)
+            throw new IllegalArgumentException("batch size must be between 1 and " + MAX_BATCH_SIZE);
+
+        this.sources = sources;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<ByteBuffer>(queueCapacity);
+        this.reader = new Thread(this::read, "line-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    // ==============================================================================
+    // Sources
+
+    /**
+     * Opens a source of lines: {@code -} is the standard input, and a file
+     * whose name ends with {@code .gz} or {@code .deflate} is decompressed,
+     * through a large buffer.
+     *
+     * @param path The path of the source
+     * @return InputStream The (decompressed) bytes of the source
+     * @throws IOException If the source cannot be opened
+     */
+    public static InputStream open(Path path) throws IOException {
+        if (isStandardInput(path))
+            return System.in;
+
+        InputStream in = Files.newInputStream(path);
+        String name = path.getFileName().toString();
+        if (name.endsWith(".gz"))
+            return new GZIPInputStream(in, INFLATER_BUFFER_SIZE);
+        if (name.endsWith(".deflate")) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, INFLATER_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        return in;
+    }
+
+    /**
+     * Returns the sources of lines that a path stands for: all the regular
+     * files of a directory and its subdirectories, in lexicographic order, or
+     * the path itself.
+     *
+     * @param path The path of a file or directory, or {@code -}
+     * @return List&lt;Path&gt; The sources of lines
+     * @throws IOException If the directory cannot be read
+     */
+    public static List<Path> sources(Path path) throws IOException {
+        if (isStandardInput(path) || !Files.isDirectory(path))
+            return Collections.singletonList(path);
+
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Returns {@code true} if the lines of the given path must be streamed,
+     * rather than memory-mapped with {@link MappedLines}: if it is the standard
+     * input, a directory, or a compressed file.
+     *
+     * @param path The path of a source
+     * @return boolean {@code true} if the lines of the path must be streamed
+     */
+    public static boolean isStreamed(Path path) {
+        if (isStandardInput(path) || Files.isDirectory(path))
+            return true;
+        String name = path.getFileName().toString();
+        return name.endsWith(".gz") || name.endsWith(".deflate");
+    }
+
+    private static boolean isStandardInput(Path path) {
+        return path.toString().equals("-");
+    }
+
+    // ==============================================================================
+    // Reading thread
+
+    private void read() {
+        try {
+            for (Path source : this.sources)
+                try (InputStream in = open(source)) {
+                    this.read(in);
+                }
+        } catch (IOException e) {
+            this.failure = e;
+        } catch (InterruptedException e) {
+            // closed: close() puts the end of the streams in the queue itself
+            return;
+        }
+
+        try {
+            this.queue.put(END);
+        } catch (InterruptedException e) {
+            // closed, likewise
+        }
+    }
+
+    /**
+     * Reads a stream in batches that end with a line terminator, except for
+     * the last one, and puts them in the queue.
+     */
+    private void read(InputStream in) throws IOException, InterruptedException {
+        byte[] batch = new byte[this.batchSize];
+        int length = 0;
+        for (int read; (read = in.read(batch, length, batch.length - length)) >= 0;) {
+            length += read;
+            if (length < batch.length)
+                continue;
+
+            int end = lastNewline(batch, length) + 1;
+            if (end == 0) {
+                // a line longer than the batch
+                if (batch.length >= MAX_BATCH_SIZE)
+                    throw new IOException("line longer than " + MAX_BATCH_SIZE + " bytes");
+                batch = Arrays.copyOf(batch, Math.min(MAX_BATCH_SIZE, 2 * batch.length));
+                continue;
+            }
+
+            byte[] next = new byte[Math.max(this.batchSize, length - end)];
+            System.arraycopy(batch, end, next, 0, length - end);
+            this.put(batch, end);
+            batch = next;
+            length -= end;
+        }
+        if (length > 0)
+            this.put(batch, length);
+    }
+
+    private void put(byte[] batch, int length) throws InterruptedException {
+        ByteBuffer buffer = ByteBuffer.wrap(batch, 0, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.queue.put(buffer);
+    }
+
+    private static int lastNewline(byte[] batch, int length) {
+        for (int i = length - 1; i >= 0; i--)
+            if (batch[i] == '\n')
+                return i;
+        return -1;
+    }
+
+    // ==============================================================================
+    // Processing threads
+
+    /**
+     * Processes the lines of the sources, batch by batch, until the end of the
+     * last source; this may be called concurrently from several threads, each
+     * of which processes its own batches.
+     *
+     * @param consumer The consumer of the lines
+     * @return long The number of lines processed by this call
+     * @throws IOException If a source cannot be read, or has a line longer than
+     *                     1 GB, or if the lines are closed before the end of
+     *                     the last source
+     */
+    public long forEachLine(MappedLines.LineConsumer consumer) throws IOException {
+        long lines = 0;
+        try {
+            for (ByteBuffer batch; (batch = this.queue.take()) != END;)
+                lines += MappedLines.forEachLine(batch, 0, batch.limit(), consumer);
+            this.queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for lines");
+        }
+
+        if (this.closed)
+            throw new IOException("lines closed before the end of the sources");
+        if (this.failure != null)
+            throw this.failure;
+        return lines;
+    }
+
+    /**
+     * Stops reading the sources; the lines that have not been processed yet
+     * are discarded, and the threads that are still processing lines stop,
+     * with an {@link IOException}, after their current batch.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.reader.interrupt();
+        // once interrupted, the reading thread puts nothing more in the queue
+        this.queue.clear();
+        this.queue.offer(END);
+    }
+}
@@ -0,0 +1,191 @@
+package edu.princeton.cs.randomhash;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A family of hash functions based on simple tabulation hashing (Zobrist;
+ * Pătraşcu and Thorup), as a stronger alternative to the affine
+ * transformations of a single CRC32 value of {@link RandomHashFamily}: with
+ * the latter, two keys that have the same CRC32 value collide under every
+ * function of the family, so that the errors of the functions of a Count-Min
+ * sketch, or of a MinHash signature, are not independent. <br/>
+ *
+ * Each key is first reduced to a 64-bit digest, seeded by the family, with
+ * multiplications and rotations followed by the finalizer of MurmurHash3;
+ * then each function splits the digest into 8 bytes, and looks each one up in
+ * its own table of 256 random 32-bit values, which are XORed together. Keys
+ * still collide under every function when their digests collide, but this is
+ * now as unlikely as for random 64-bit values (instead of 32-bit ones), and
+ * the collisions of the functions are otherwise independent; simple
+ * tabulation is 3-independent, and known to behave like truly random hashing
+ * for the usual data streaming algorithms. <br/>
+ *
+ * The tables of a function take 8 KB (8 tables of 256 ints), which stay in
+ * the L1 cache for a few functions, and in the L2 cache for about a hundred;
+ * the digest is computed once per key, whatever the number of functions. The
+ * tables are drawn with {@link MTRandom}, so that the family is determined by
+ * its seed. The values are 32-bit unsigned integers, between
+ * {@link RandomHashFamily#MIN_VALUE} and {@link RandomHashFamily#MAX_VALUE},
+ * as those of the other families, through the same methods.
+ */
+public class TabulationHashFamily extends RandomHashFamily {
+
+    /**
+     * The number of bytes of the digest of a key, each looked up in its own
+     * table.
+     */
+    protected final static int CHARS = 8;
+
+    /**
+     * The number of entries of a table, one per value of a byte.
+     */
+    protected final static int TABLE_SIZE = 256;
+
+    private final static VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final static long M = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The seed of the digests of the keys.
+     */
+    protected final long digestSeed;
+
+    /**
+     * The tables of the functions: entry {@code b} of table {@code c} of
+     * function {@code f} is at {@code (c * TABLE_SIZE + b) * count + f}, so
+     * that the entries of all the functions for a byte of a digest are next to
+     * each other.
+     */
+    protected final int[] tables;
+
+    /**
+     * Constructor for {@link TabulationHashFamily}, which initializes a family
+     * of hash functions, using the given seed to initialize the underlying
+     * PRNG, which draws the seed of the digests and then the tables.
+     *
+     * @param seed  The seed used to initialize the underlying PRNG.
+     * @param count The number of pseudo-random hash functions in this family.
+     */
+    public TabulationHashFamily(long seed, int count) {
+        super(seed, count, null, null);
+        if ((long) count * CHARS * TABLE_SIZE > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("too many functions for their tables to fit in an array");
+
+        MTRandom mt = new MTRandom();
+        mt.setSeed(seed);
+        this.prng = mt;
+
+        this.digestSeed = (long) mt.nextInt() << 32 ^ Integer.toUnsignedLong(mt.nextInt());
+        this.tables = new int[count * CHARS * TABLE_SIZE];
+        for (int i = 0; i < this.tables.length; i++)
+            this.tables[i] = mt.nextInt();
+    }
+
+    /**
+     * Returns the 64-bit digest of the given range of bytes, on which all the
+     * functions of the family are computed.
+     *
+     * @param key A byte array containing the key to be hashed
+     * @param off The offset of the key in the array
+     * @param len The length of the key, in bytes
+     * @return long The digest of the key
+     */
+    @Override
+    protected long baseHash(byte[] key, int off, int len) {
+        long h = this.digestSeed ^ (len * M);
+
+        int i = off, end = off + len;
+        for (; i <= end - 8; i += 8)
+            h = mix(h, (long) LONGS.get(key, i));
+        if (i < end) {
+            long word = 0L;
+            for (int shift = 0; i < end; i++, shift += 8)
+                word |= (key[i] & 0xffL) << shift;
+            h = mix(h, word);
+        }
+        return fmix64(h);
+    }
+
+    /**
+     * Returns the 64-bit digest of the given range of bytes of a buffer, which
+     * is the same as that of the same bytes in an array (see
+     * {@link #baseHash(byte[], int, int)}).
+     *
+     * @param key A buffer containing the key to be hashed
+     * @param off The absolute index of the key in the buffer
+     * @param len The length of the key, in bytes
+     * @return long The digest of the key
+     */
+    @Override
+    protected long baseHash(ByteBuffer key, int off, int len) {
+        if (key.hasArray())
+            return this.baseHash(key.array(), key.arrayOffset() + off, len);
+
+        boolean swap = key.order() != ByteOrder.LITTLE_ENDIAN;
+        long h = this.digestSeed ^ (len * M);
+
+        int i = off, end = off + len;
+        for (; i <= end - 8; i += 8) {
+            long word = key.getLong(i);
+            h = mix(h, swap ? Long.reverseBytes(word) : word);
+        }
+        if (i < end) {
+            long word = 0L;
+            for (int shift = 0; i < end; i++, shift += 8)
+                word |= (key.get(i) & 0xffL) << shift;
+            h = mix(h, word);
+        }
+        return fmix64(h);
+    }
+
+    private static long mix(long h, long word) {
+        return Long.rotateLeft(h ^ (word * M), 29) * 0xBF58476D1CE4E5B9L;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which makes every bit of the digest
+     * depend on every bit of the state.
+     */
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Fills the given array with the values of the first functions of this
+     * family, for a key with the given digest: each value is the XOR of the
+     * entries of the tables of the function for the bytes of the digest.
+     *
+     * @param baseHash The digest of the key (see {@link #baseHash(byte[], int, int)})
+     * @param hashes   An array of 32-bit unsigned integers to be filled with the
+     *                 pseudo-random hash values
+     * @param count    The number of hash values to compute
+     */
+    @Override
+    protected void fillHashes(long baseHash, long[] hashes, int count) {
+        // the rows of the entries of all the functions, for each byte of the digest
+        int n = this.count;
+        int r0 = ((int) baseHash & 0xff) * n;
+        int r1 = (TABLE_SIZE + ((int) (baseHash >>> 8) & 0xff)) * n;
+        int r2 = (2 * TABLE_SIZE + ((int) (baseHash >>> 16) & 0xff)) * n;
+        int r3 = (3 * TABLE_SIZE + ((int) (baseHash >>> 24) & 0xff)) * n;
+        int r4 = (4 * TABLE_SIZE + ((int) (baseHash >>> 32) & 0xff)) * n;
+        int r5 = (5 * TABLE_SIZE + ((int) (baseHash >>> 40) & 0xff)) * n;
+        int r6 = (6 * TABLE_SIZE + ((int) (baseHash >>> 48) & 0xff)) * n;
+        int r7 = (7 * TABLE_SIZE + (int) (baseHash >>> 56)) * n;
+
+        int[] t = this.tables;
+        for (int i = 0; i < count; i++) {
+            hashes[i] = Integer.toUnsignedLong(t[r0 + i] ^ t[r1 + i] ^ t[r2 + i] ^ t[r3 + i]
+                    ^ t[r4 + i] ^ t[r5 + i] ^ t[r6 + i] ^ t[r7 + i]);
+        }
+    }
+}
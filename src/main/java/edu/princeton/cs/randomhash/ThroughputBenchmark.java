@@ -0,0 +1,372 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures how fast a {@link RandomHashFamily} hashes a set of keys on this
+ * machine, with one or several threads: a quick answer, without a benchmark
+ * harness, which the example client prints next to its uniformity report. For
+ * rigorous measurements, see the JMH benchmarks of the {@code benchmarks}
+ * module. <br/>
+ *
+ * The keys are the lines of an input, which is read into memory once (see
+ * {@link #load(List)}), so that only hashing is timed, and not reading the
+ * input. Each measurement hashes all the keys, split between the threads, for
+ * about a second to warm up the JIT compiler, then in a few rounds of at least
+ * 100 ms (hashing all the keys as many times as needed), of which the median
+ * time is kept; the garbage collections that happen meanwhile are counted
+ * (hashing keys given as bytes is not expected to allocate).
+ */
+public class ThroughputBenchmark {
+
+    /**
+     * The least time spent hashing the keys before each measurement.
+     */
+    protected final static long WARMUP_NANOS = 1000000000L;
+
+    /**
+     * The number of rounds of each measurement.
+     */
+    protected final static int ROUNDS = 5;
+
+    /**
+     * The least time of a round, in which all the keys are hashed as many
+     * times as needed.
+     */
+    protected final static long ROUND_NANOS = 100000000L;
+
+    /**
+     * The lines of the input, which are the keys.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * The index of each key in {@link #data}.
+     */
+    private final int[] offsets;
+
+    /**
+     * The length of each key, in bytes.
+     */
+    private final int[] lengths;
+
+    private final long byteCount;
+
+    /**
+     * Prevents the JIT compiler from discarding the hash values.
+     */
+    private volatile long sink;
+
+    /**
+     * The result of a measurement.
+     */
+    public static final class Result {
+
+        private final int threads;
+
+        private final long keys;
+
+        private final long bytes;
+
+        private final int functions;
+
+        private final long nanos;
+
+        private final long gcCount;
+
+        private final long gcMillis;
+
+        Result(int threads, long keys, long bytes, int functions, long nanos, long gcCount, long gcMillis) {
+            this.threads = threads;
+            this.keys = keys;
+            this.bytes = bytes;
+            this.functions = functions;
+            this.nanos = nanos;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * Returns the number of threads that hashed the keys.
+         *
+         * @return int The number of threads
+         */
+        public int threads() {
+            return this.threads;
+        }
+
+        /**
+         * Returns the number of keys hashed per second, by all the threads.
+         *
+         * @return double The number of keys hashed per second
+         */
+        public double keysPerSecond() {
+            return this.keys * 1e9 / this.nanos;
+        }
+
+        /**
+         * Returns the number of megabytes (of {@code 2^20} bytes) of keys
+         * hashed per second, by all the threads.
+         *
+         * @return double The number of megabytes hashed per second
+         */
+        public double megabytesPerSecond() {
+            return this.bytes * 1e9 / this.nanos / (1 << 20);
+        }
+
+        /**
+         * Returns the time it takes to compute a hash value, which is the
+         * time per key divided by the number of functions of the family.
+         *
+         * @return double The number of nanoseconds per key and per function
+         */
+        public double nanosPerKeyPerFunction() {
+            return (double) this.nanos / this.keys / this.functions;
+        }
+
+        /**
+         * Returns the number of garbage collections during the measured rounds.
+         *
+         * @return long The number of garbage collections
+         */
+        public long gcCount() {
+            return this.gcCount;
+        }
+
+        /**
+         * Returns the time spent in garbage collections during the measured
+         * rounds, as reported by the collectors.
+         *
+         * @return long The time spent in garbage collections, in milliseconds
+         */
+        public long gcMillis() {
+            return this.gcMillis;
+        }
+    }
+
+    /**
+     * Creates a new {@link ThroughputBenchmark}, whose keys are the lines of
+     * the given buffer (as read by {@link MappedLines}).
+     *
+     * @param data A buffer containing the lines, from index 0 to its limit,
+     *             heap or direct; it is not modified
+     */
+    public ThroughputBenchmark(ByteBuffer data) {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        int lines = (int) MappedLines.forEachLine(this.data, 0, this.data.limit(), (buffer, off, len) -> {
+        });
+        this.offsets = new int[lines];
+        this.lengths = new int[lines];
+        long[] bytes = new long[1];
+        int[] next = new int[1];
+        MappedLines.forEachLine(this.data, 0, this.data.limit(), (buffer, off, len) -> {
+            this.offsets[next[0]] = off;
+            this.lengths[next[0]++] = len;
+            bytes[0] += len;
+        });
+        this.byteCount = bytes[0];
+    }
+
+    /**
+     * Reads the sources of an input into memory (see {@link StreamedLines#open(Path)}),
+     * and returns a {@link ThroughputBenchmark} for its lines.
+     *
+     * @param sources The paths of the sources (see {@link StreamedLines#sources(Path)})
+     * @return ThroughputBenchmark A benchmark whose keys are the lines of the
+     *         sources
+     * @throws IOException If a source cannot be read, or if the input is larger
+     *                     than 2 GB
+     */
+    public static ThroughputBenchmark load(List<Path> sources) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        for (Path source : sources) {
+            try (InputStream in = StreamedLines.open(source)) {
+                int last = '\n';
+                for (int read; (read = in.read(buffer)) >= 0;) {
+                    if ((long) out.size() + read > Integer.MAX_VALUE - 8)
+                        throw new IOException("input too large to be held in memory (2 GB)");
+                    out.write(buffer, 0, read);
+                    if (read > 0)
+                        last = buffer[read - 1];
+                }
+                // the last line of a source is not joined with the first of the next one
+                if (last != '\n')
+                    out.write('\n');
+            }
+        }
+        return new ThroughputBenchmark(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return int The number of keys
+     */
+    public int keyCount() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Returns the total length of the keys, in bytes.
+     *
+     * @return long The total length of the keys
+     */
+    public long byteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     * Processes the keys, in order, for instance to audit their hash values.
+     *
+     * @param consumer The consumer of the keys, which are given as lines
+     * @return long The number of keys
+     */
+    public long forEachLine(MappedLines.LineConsumer consumer) {
+        for (int k = 0; k < this.offsets.length; k++)
+            consumer.accept(this.data, this.offsets[k], this.lengths[k]);
+        return this.offsets.length;
+    }
+
+    /**
+     * Finds a key that appears twice, comparing the bytes of the keys (see
+     * {@link DuplicateDetector}).
+     *
+     * @return ByteBuffer A copy of a key that appears at least twice, or
+     *         {@code null} if all the keys are unique
+     */
+    public ByteBuffer findDuplicate() {
+        return DuplicateDetector.findDuplicate(this.data, this.offsets, this.lengths);
+    }
+
+    // ==============================================================================
+    // Measurements
+
+    /**
+     * Measures how fast the given family hashes all the keys, with all its
+     * functions (see {@link RandomHashFamily#hashes(ByteBuffer, int, int, long[])}),
+     * split between the given number of threads.
+     *
+     * @param family  The family of hash functions
+     * @param threads The number of threads
+     * @return Result The result of the measurement
+     * @throws InterruptedException If interrupted while waiting for the threads
+     * @throws RuntimeException     If hashing failed in one of the threads
+     */
+    public Result measure(RandomHashFamily family, int threads) throws InterruptedException {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be strictly positive");
+
+        long last = 0;
+        for (long warmup = 0; warmup < WARMUP_NANOS; warmup += last)
+            last = this.round(family, threads, 1);
+        int repeat = (int) Math.max(1, Math.min(Integer.MAX_VALUE, ROUND_NANOS / Math.max(1, last) + 1));
+
+        long gcCount = -gcCount(), gcMillis = -gcMillis();
+        long[] nanos = new long[ROUNDS];
+        for (int r = 0; r < ROUNDS; r++)
+            nanos[r] = this.round(family, threads, repeat);
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        Arrays.sort(nanos);
+        return new Result(threads, (long) repeat * this.keyCount(), repeat * this.byteCount, family.count(),
+                nanos[ROUNDS / 2], gcCount, gcMillis);
+    }
+
+    /**
+     * Hashes all the keys {@code repeat} times, split between the given number
+     * of threads, and returns the elapsed time, in nanoseconds. Each thread
+     * hashes the keys from its own view of the buffer, since hashing keys of a
+     * direct buffer moves its position and limit; the first failure of a
+     * thread is rethrown, rather than measuring the threads that did not fail.
+     */
+    private long round(RandomHashFamily family, int threads, int repeat) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int from = (int) ((long) this.keyCount() * t / threads);
+            int to = (int) ((long) this.keyCount() * (t + 1) / threads);
+            ByteBuffer data = this.data.duplicate().order(this.data.order());
+            workers[t] = new Thread(() -> {
+                long[] hashes = new long[family.count()];
+                long checksum = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    for (int r = 0; r < repeat; r++)
+                        for (int k = from; k < to; k++) {
+                            family.hashes(data, this.offsets[k], this.lengths[k], hashes);
+                            checksum += hashes[0];
+                        }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                this.sink += checksum;
+            }, "throughput-" + t);
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed = System.nanoTime() - begin;
+        if (failure.get() != null)
+            throw failure.get();
+        return elapsed;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    /**
+     * Measures how fast the given family hashes the keys with 1, 2, 4, ... and
+     * finally {@code maxThreads} threads, and prints the results.
+     *
+     * @param family     The family of hash functions
+     * @param maxThreads The largest number of threads
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public void printReport(RandomHashFamily family, int maxThreads) throws InterruptedException {
+        System.out.println("throughput report:");
+        System.out.printf("> keys: %d (%.1f MB), hash functions: %d, median of %d rounds\n", this.keyCount(),
+                this.byteCount / 1048576.0, family.count(), ROUNDS);
+        System.out.println(">  threads         keys/s       MB/s  ns/key/function  GCs (ms)");
+        for (int threads = 1;; threads = Math.min(2 * threads, maxThreads)) {
+            Result result = this.measure(family, threads);
+            System.out.printf("> %8d %14.0f %10.1f %16.3f  %d (%d)\n", threads, result.keysPerSecond(),
+                    result.megabytesPerSecond(), result.nanosPerKeyPerFunction(), result.gcCount(),
+                    result.gcMillis());
+            if (threads >= maxThreads)
+                break;
+        }
+    }
+}
@@ -32,6 +32,23 @@ public class UniformAudit {
      */
     protected long bucketSize;
 
+    /**
+     * The base 2 logarithm of {@link bucketSize} when it is a power of two, in
+     * which case the bucket of a value is computed with a shift; {@code -1}
+     * otherwise.
+     */
+    protected int bucketShift;
+
+    /**
+     * When {@link bucketSize} is not a power of two, but both it and the range of
+     * expected values fit in 32 bits, the 64-bit reciprocal
+     * {@code ceil(2^64 / bucketSize)}, with which the bucket of a value is
+     * computed with a multiplication instead of a division (see Lemire, Kaser
+     * and Kurz, "Faster Remainder by Direct Computation", 2019); {@code 0}
+     * otherwise.
+     */
+    protected long bucketReciprocal;
+
     /**
      * The internal array containing the buckets in which we count the number
      * of hash values that have been processed, which fall in the corresponding
@@ -61,6 +78,13 @@ public class UniformAudit {
 
         this.bucketSize = (this.maxValue - this.minValue) / ((long) this.bucketCount);
 
+        this.bucketShift = -1;
+        this.bucketReciprocal = 0;
+        if (this.bucketSize > 0 && Long.bitCount(this.bucketSize) == 1)
+            this.bucketShift = Long.numberOfTrailingZeros(this.bucketSize);
+        else if (this.bucketSize > 0 && (this.maxValue - this.minValue) >>> 32 == 0)
+            this.bucketReciprocal = Long.divideUnsigned(-1L, this.bucketSize) + 1;
+
         this.reset();
     }
 
@@ -94,15 +118,170 @@ public class UniformAudit {
      *                                  specified at construction time.
      */
     public void update(long value) {
+        this.checkRange(value);
+
+        this.buckets[this.bucketIndex(value)]++;
+        this.total++;
+    }
+
+    /**
+     * Process a batch of hash values, with the same result as calling
+     * {@link #update(long)} on each of them (if any value is out of range,
+     * none of them are counted). <br/>
+     * 
+     * This is faster than updating one value at a time: the range of all values
+     * is checked in a single pass (a min/max reduction, which the JIT compiler
+     * can vectorize), and the bucket of each value is then computed without
+     * branches nor divisions, with a shift when the bucket size is a power of
+     * two, or a multiplication by its reciprocal otherwise. Only the increments
+     * of the buckets, which are scattered, remain scalar.
+     * 
+     * @param values An array of hash values
+     * @param off    The offset of the first hash value to process
+     * @param len    The number of hash values to process
+     * @throws IllegalArgumentException  If any of the given values is not in the
+     *                                   range by the internal minimum and maximum
+     *                                   values specified at construction time.
+     * @throws IndexOutOfBoundsException If {@code off} and {@code len} do not
+     *                                   describe a range of the array.
+     */
+    public void update(long[] values, int off, int len) {
+        this.checkRange(values, off, len);
+
+        this.count(this.buckets, values, off, len);
+        this.total += len;
+    }
+
+    /**
+     * Checks that a batch of hash values is in the range of values expected by
+     * this {@link UniformAudit}, in a single pass.
+     * 
+     * @param values An array of hash values
+     * @param off    The offset of the first hash value to check
+     * @param len    The number of hash values to check
+     * @throws IllegalArgumentException  If any of the given values is not in the
+     *                                   range by the internal minimum and maximum
+     *                                   values specified at construction time.
+     * @throws IndexOutOfBoundsException If {@code off} and {@code len} do not
+     *                                   describe a range of the array.
+     */
+    protected final void checkRange(long[] values, int off, int len) {
+        if (off < 0 || len < 0 || off > values.length - len)
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", length=" + values.length);
+        if (len == 0)
+            return;
+
+        long smallest = values[off], largest = values[off];
+        for (int i = off + 1; i < off + len; i++) {
+            smallest = Math.min(smallest, values[i]);
+            largest = Math.max(largest, values[i]);
+        }
+        this.checkRange(smallest);
+        this.checkRange(largest);
+    }
+
+    /**
+     * Adds a batch of hash values, which must have been checked to be in the
+     * expected range, to the given bucket counts; see
+     * {@link #update(long[], int, int)}.
+     * 
+     * @param counts The bucket counts to update
+     * @param values An array of hash values
+     * @param off    The offset of the first hash value to count
+     * @param len    The number of hash values to count
+     */
+    protected final void count(long[] counts, long[] values, int off, int len) {
+        final long min = this.minValue;
+        final int last = this.bucketCount - 1;
+        final int end = off + len;
+
+        if (this.bucketShift >= 0) {
+            final int shift = this.bucketShift;
+            for (int i = off; i < end; i++)
+                counts[(int) Math.min((values[i] - min) >>> shift, last)]++;
+        } else if (this.bucketReciprocal != 0) {
+            final long reciprocal = this.bucketReciprocal;
+            for (int i = off; i < end; i++)
+                counts[(int) Math.min(Math.multiplyHigh(reciprocal, values[i] - min), last)]++;
+        } else {
+            for (int i = off; i < end; i++)
+                counts[this.bucketIndex(values[i])]++;
+        }
+    }
+
+    /**
+     * Adds a batch of hash values, which must have been checked to be in the
+     * expected range, to the given rows of bucket counts: value {@code i} is
+     * counted in row {@code i}, which holds the {@code bucketCount} counts at
+     * {@code i * bucketCount}. This is how {@link FamilyAudit} counts the values
+     * of each function of a family separately, at the cost of
+     * {@link #count(long[], long[], int, int)}.
+     * 
+     * @param counts The rows of bucket counts to update
+     * @param values An array of hash values, one per row
+     * @param len    The number of hash values to count
+     */
+    protected final void countRows(long[] counts, long[] values, int len) {
+        final long min = this.minValue;
+        final int last = this.bucketCount - 1;
+        final int stride = this.bucketCount;
+
+        if (this.bucketShift >= 0) {
+            final int shift = this.bucketShift;
+            for (int i = 0, row = 0; i < len; i++, row += stride)
+                counts[row + (int) Math.min((values[i] - min) >>> shift, last)]++;
+        } else if (this.bucketReciprocal != 0) {
+            final long reciprocal = this.bucketReciprocal;
+            for (int i = 0, row = 0; i < len; i++, row += stride)
+                counts[row + (int) Math.min(Math.multiplyHigh(reciprocal, values[i] - min), last)]++;
+        } else {
+            for (int i = 0, row = 0; i < len; i++, row += stride)
+                counts[row + this.bucketIndex(values[i])]++;
+        }
+    }
+
+    /**
+     * Checks that a hash value is in the range of values expected by this
+     * {@link UniformAudit}.
+     * 
+     * @param value The hash value to check
+     * @throws IllegalArgumentException If the given value is not in the range by
+     *                                  the internal minimum and maximum values
+     *                                  specified at construction time.
+     */
+    protected final void checkRange(long value) {
         if (value < this.minValue)
             throw new IllegalArgumentException("value is smaller than min expected value");
 
         if (value > this.maxValue)
             throw new IllegalArgumentException("value is larger than max expected value");
+    }
 
-        int bucketIndex = (int) ((value - this.minValue) / this.bucketSize);
-        this.buckets[bucketIndex]++;
-        this.total++;
+    /**
+     * Returns the index of the bucket in which a hash value falls, assuming that
+     * it is in the expected range (see {@link #checkRange(long)}). <br/>
+     * 
+     * This is {@code (value - minValue) / bucketSize}, computed with a shift or
+     * a multiplication when possible (see {@link bucketShift} and
+     * {@link bucketReciprocal}); the few largest values, which this formula
+     * would place beyond the last bucket when the range of values is not a
+     * multiple of the number of buckets, are counted in the last bucket.
+     * 
+     * @param value The hash value
+     * @return int The index of the bucket of the hash value
+     */
+    protected final int bucketIndex(long value) {
+        long offset = value - this.minValue;
+        long index;
+        if (this.bucketShift >= 0)
+            index = offset >>> this.bucketShift;
+        else if (this.bucketReciprocal != 0)
+            // both factors are positive: the reciprocal is below 2^63, as the
+            // bucket size is at least 3
+            index = Math.multiplyHigh(this.bucketReciprocal, offset);
+        else
+            index = offset / this.bucketSize;
+        return (int) Math.min(index, this.bucketCount - 1);
     }
 
     /**
@@ -114,6 +293,16 @@ public class UniformAudit {
         return this.total;
     }
 
+    /**
+     * Returns the number of hash values that have been processed so far in each
+     * bucket, as a new array.
+     * 
+     * @return long[] An array with the number of hash values in each bucket
+     */
+    public long[] bucketCounts() {
+        return this.buckets.clone();
+    }
+
     /**
      * Returns the probability distribution of the hash values that have been
      * processed, as an array of values that sum to {@code 1.0}.
@@ -122,9 +311,22 @@ public class UniformAudit {
      *         hash values
      */
     public double[] bucketDistribution() {
-        double[] nums = new double[this.bucketCount];
+        return distribution(this.buckets, this.total);
+    }
+
+    /**
+     * Returns the probability distribution of the given bucket counts, as in
+     * {@link #bucketDistribution()}.
+     * 
+     * @param counts The number of hash values in each bucket
+     * @param total  The total number of hash values
+     * @return double[] An array with the discrete probability distribution of the
+     *         hash values
+     */
+    protected static double[] distribution(long[] counts, long total) {
+        double[] nums = new double[counts.length];
         for (int i = 0; i < nums.length; i++)
-            nums[i] = ((double) this.buckets[i]) / ((double) this.total) * 100;
+            nums[i] = ((double) counts[i]) / ((double) total) * 100;
         return nums;
     }
 
@@ -137,10 +339,15 @@ public class UniformAudit {
      * distribution. If the empirical distribution is close to the discrete uniform
      * distribution, then this Chi Square statistic will be below the critical
      * threshold defined in the tables {@see upperTailCV90} (for 90% confidence) and
-     * {@see upperTailCV99} (for 99% confidence).
+     * {@see upperTailCV99} (for 99% confidence). <br/>
+     * 
+     * This statistic is computed on percentages, so that it shrinks as more
+     * values are processed, and it is only kept for compatibility: the
+     * uniformity verdicts, the p-value and the report all use
+     * {@link #chiSquaredStatistic()}.
      * 
      * @return double The Chi Square statistic for the empirical distribution of
-     *         hash values that have been processed
+     *         hash values that have been processed, on percentages
      */
     public double chiSquaredTest() {
         double chiSquaredTest = 0.0;
@@ -160,21 +367,92 @@ public class UniformAudit {
     }
 
     /**
-     * Returns {@code true} if there is at least a 90% probability that the hash
-     * values are uniformly distributed, using a Chi Square statistical test.
+     * Computes and returns Pearson's Chi Square statistic for the counts of hash
+     * values that have been processed, {@code sum (n_i - E)^2 / E}, where
+     * {@code n_i} is the number of values in bucket {@code i} and {@code E} the
+     * number of values expected in each bucket. <br/>
      * 
-     * @return boolean {@code true} if there is at least a 90% probability that the
-     *         hash values are uniformly distributed
+     * Unlike {@link #chiSquaredTest()}, which is computed on percentages (and is
+     * therefore this statistic scaled by {@code 100 / total}), this statistic
+     * follows the Chi Square distribution with {@code bucketCount - 1} degrees
+     * of freedom when the values are uniformly distributed, whatever their
+     * number; it is the one used by {@link #pValue()},
+     * {@link #isLikelyUniform()} and {@link #isLikelyUniform(double)}.
+     * 
+     * @return double Pearson's Chi Square statistic for the bucket counts
+     */
+    public double chiSquaredStatistic() {
+        return chiSquaredStatistic(this.bucketCounts());
+    }
+
+    /**
+     * Computes Pearson's Chi Square statistic for the given bucket counts,
+     * against the discrete uniform distribution; see
+     * {@link #chiSquaredStatistic()}.
+     * 
+     * @param counts The number of hash values in each bucket
+     * @return double Pearson's Chi Square statistic for the bucket counts
+     */
+    protected static double chiSquaredStatistic(long[] counts) {
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        if (total == 0)
+            return 0.0;
+
+        double expected = ((double) total) / counts.length;
+        double statistic = 0.0;
+        for (long count : counts) {
+            double difference = count - expected;
+            statistic += difference * difference;
+        }
+        return statistic / expected;
+    }
+
+    /**
+     * Returns the p-value of {@link #chiSquaredStatistic()}: the probability
+     * that uniformly distributed values would have produced bucket counts at
+     * least as far from uniform as the ones observed.
+     * 
+     * @return double The p-value of the Chi Square statistic
+     */
+    public double pValue() {
+        return ChiSquared.pValue(this.bucketCount - 1, this.chiSquaredStatistic());
+    }
+
+    /**
+     * Returns {@code true} if the hash values are consistent with a uniform
+     * distribution with 90% confidence, using a Chi Square statistical test
+     * (see {@link #isLikelyUniform(double)}).
+     * 
+     * @return boolean {@code true} if the hash values are consistent with a
+     *         uniform distribution with 90% confidence
      */
     public boolean isLikelyUniform() {
-        double chiSquaredTest = this.chiSquaredTest();
-        return acceptNullHypothesis(this.bucketCount - 1, chiSquaredTest);
+        return this.isLikelyUniform(0.90);
+    }
+
+    /**
+     * Returns {@code true} if the hash values are consistent with a uniform
+     * distribution at the given confidence level, that is, if
+     * {@link #chiSquaredStatistic()} is below the critical value of the Chi
+     * Square distribution with {@code bucketCount - 1} degrees of freedom. This
+     * works for any number of buckets, and any confidence level.
+     * 
+     * @param confidence The confidence level, strictly between 0 and 1 (for
+     *                   instance {@code 0.99})
+     * @return boolean {@code true} if the hash values are consistent with a
+     *         uniform distribution at the given confidence level
+     */
+    public boolean isLikelyUniform(double confidence) {
+        return acceptNullHypothesis(this.bucketCount - 1, this.chiSquaredStatistic(), confidence);
     }
 
     /**
      * Returns {@code true} if there is the Chi Square statistic, with the given
      * degrees of freedom, is below the critical threshold defined in the tables
-     * {@see upperTailCV90} (for 90% confidence).
+     * {@see upperTailCV90} (for 90% confidence). Beyond 100 degrees of freedom,
+     * the critical value is computed (see {@link ChiSquared#criticalValue}).
      * 
      * @param df             The number of degrees of freedom in the Chi Square
      *                       statistical test
@@ -183,16 +461,68 @@ public class UniformAudit {
      *         hash values are uniformly distributed
      */
     protected static boolean acceptNullHypothesis(int df, double chiSquaredTest) {
+        return acceptNullHypothesis(df, chiSquaredTest, 0.90);
+    }
+
+    /**
+     * Returns {@code true} if the Chi Square statistic, with the given degrees of
+     * freedom, is below the critical value at the given confidence level. The
+     * tables {@see upperTailCV90} and {@see upperTailCV99} are used when they
+     * apply, and the critical value is computed otherwise (see
+     * {@link ChiSquared#criticalValue}).
+     * 
+     * @param df             The number of degrees of freedom in the Chi Square
+     *                       statistical test
+     * @param chiSquaredTest The Chi Square statistic for the empirical distribution
+     * @param confidence     The confidence level, strictly between 0 and 1
+     * @return boolean {@code true} if the statistic is below the critical value
+     */
+    protected static boolean acceptNullHypothesis(int df, double chiSquaredTest, double confidence) {
         if (df <= 0)
             throw new IllegalArgumentException("df must be strictly positive");
-        if (df > 100)
-            throw new IllegalArgumentException("df's larger than 100 not supported");
 
         // get the critical value
-        double cv = upperTailCV90[df - 1];
+        double cv;
+        if (df <= upperTailCV90.length && confidence == 0.90)
+            cv = upperTailCV90[df - 1];
+        else if (df <= upperTailCV99.length && confidence == 0.99)
+            cv = upperTailCV99[df - 1];
+        else
+            cv = ChiSquared.criticalValue(df, confidence);
         return chiSquaredTest < cv;
     }
 
+    /**
+     * Returns a snapshot of this audit, with a uniformity verdict at 90%
+     * confidence (see {@link #snapshot(double)}).
+     * 
+     * @return AuditSnapshot A snapshot of this audit
+     */
+    public AuditSnapshot snapshot() {
+        return this.snapshot(0.90);
+    }
+
+    /**
+     * Returns a snapshot of this audit: a copy of its bucket counts (see
+     * {@link #bucketCounts()}), with their total, Chi Square statistic and
+     * uniformity verdict at the given confidence level. <br/>
+     * 
+     * The counters are copied rather than locked, so a snapshot can be taken
+     * while values are being processed, from any thread, for a
+     * {@link ConcurrentUniformAudit}; the counters of a {@link UniformAudit}
+     * are plain fields, so that a snapshot taken by another thread than the one
+     * updating it may not see the latest values.
+     * 
+     * @param confidence The confidence level of the uniformity verdict, strictly
+     *                   between 0 and 1
+     * @return AuditSnapshot A snapshot of this audit
+     */
+    public AuditSnapshot snapshot(double confidence) {
+        if (!(confidence > 0.0 && confidence < 1.0))
+            throw new IllegalArgumentException("confidence must be strictly between 0 and 1");
+        return new AuditSnapshot(System.currentTimeMillis(), this.bucketCounts(), confidence);
+    }
+
     /**
      * Prints a summary of the empirical distribution of the hash values processed
      * so far, and computes the Chi Squared statistic, to determine how likely it is
@@ -200,17 +530,17 @@ public class UniformAudit {
      */
     public void printReport() {
         double[] distribution = this.bucketDistribution();
-        double chiSquaredTest = this.chiSquaredTest();
+        double statistic = this.chiSquaredStatistic();
         boolean likelyUniform = this.isLikelyUniform();
 
         System.out.println("hashing report:");
         System.out.println("> bucket count: " + this.bucketCount);
-        System.out.println("> total values hashed: " + this.total);
+        System.out.println("> total values hashed: " + this.total());
         System.out.print("> [ ");
         for (int i = 0; i < distribution.length; i++)
             System.out.printf("%5.2f%% ", distribution[i]);
         System.out.println(" ]");
-        System.out.printf("> chi^2 test: %f\n", chiSquaredTest);
+        System.out.printf("> chi^2 = %f, p-value = %g\n", statistic, this.pValue());
         System.out.println("> is uniform (with 90% confidence)? " + likelyUniform);
     }
 
@@ -0,0 +1,30 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * The interfaces implemented by {@link MTRandom} beyond those of
+ * {@link java.util.Random}. <br/>
+ *
+ * This version, packaged for JDK 17 and later in the multi-release JAR, makes
+ * {@link MTRandom} a {@link RandomGenerator.JumpableGenerator} (and so a
+ * {@link RandomGenerator.StreamableGenerator}), whose {@code jump()} moves
+ * 2^128 words ahead, and whose {@code rngs()} returns generators obtained by
+ * successive jumps.
+ */
+interface MTGenerator extends RandomGenerator.JumpableGenerator {
+
+    /**
+     * Returns a copy of this generator. <br/>
+     *
+     * {@link MTRandom} is compiled for JDK 11, where its {@code copy()} method
+     * cannot override this one (they differ in their return type), so this
+     * bridges to it.
+     *
+     * @return RandomGenerator.JumpableGenerator A copy of this generator.
+     */
+    @Override
+    default RandomGenerator.JumpableGenerator copy() {
+        return ((MTRandom) this).copy();
+    }
+}
@@ -0,0 +1,244 @@
+package edu.princeton.cs.randomhash;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Allocation regression tests for the hashing methods of
+ * {@link RandomHashFamily}: after warm-up, hashing a key into a given array
+ * must not allocate at all, and the methods that return a new array must
+ * allocate nothing else. The allocations of the current thread are measured
+ * with {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)},
+ * over many calls, so that the few bytes allocated by the measurement itself
+ * amount to less than a byte per call. String keys are only hashed without
+ * allocating when the default charset is UTF-8, which the build sets for the
+ * tests.
+ */
+public class AllocationTest
+        extends TestCase {
+
+    /**
+     * The number of calls before the measurement, so that the hashing methods
+     * are compiled.
+     */
+    private static final int WARMUP = 50000;
+
+    /**
+     * The number of calls measured.
+     */
+    private static final int CALLS = 100000;
+
+    private static final int COUNT = 16;
+
+    /**
+     * The size of an array of {@link #COUNT} longs: a 16-byte header and the
+     * elements.
+     */
+    private static final long ARRAY_BYTES = 16 + 8 * COUNT;
+
+    private final com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public AllocationTest(String testName) {
+        super(testName);
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(AllocationTest.class);
+    }
+
+    private long allocated() {
+        return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the number of bytes allocated per call of the given operation,
+     * after warm-up.
+     */
+    private double allocatedPerCall(Runnable operation) {
+        for (int i = 0; i < WARMUP; i++)
+            operation.run();
+        long before = this.allocated();
+        for (int i = 0; i < CALLS; i++)
+            operation.run();
+        return (double) (this.allocated() - before) / CALLS;
+    }
+
+    private void assertNoAllocation(String method, Runnable operation) {
+        double perCall = this.allocatedPerCall(operation);
+        assertTrue(method + " allocates " + perCall + " bytes per call", perCall < 1);
+    }
+
+    private void assertArrayAllocation(String method, Runnable operation) {
+        double perCall = this.allocatedPerCall(operation);
+        assertTrue(method + " allocates " + perCall + " bytes per call", perCall < ARRAY_BYTES + 1);
+    }
+
+    private void checkFamily(RandomHashFamily family) {
+        if (!this.threads.isThreadAllocatedMemorySupported())
+            return;
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        String name = family.getClass().getSimpleName() + ".";
+        String string = "hash functions été € 😀";
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        long[] hashes = new long[COUNT];
+        // string keys are hashed as their bytes in the default charset, whatever it is
+        assertEquals(family.hash(string.getBytes()), family.hash(string));
+
+        assertNoAllocation(name + "hash(String)", () -> family.hash(string));
+        assertNoAllocation(name + "hash(byte[])", () -> family.hash(bytes));
+        assertNoAllocation(name + "hashes(String, long[])", () -> family.hashes(string, hashes));
+        assertNoAllocation(name + "hashes(byte[], int, int, long[])",
+                () -> family.hashes(bytes, 0, bytes.length, hashes));
+        assertNoAllocation(name + "hashes(ByteBuffer, int, int, long[]) (heap)",
+                () -> family.hashes(heap, 0, bytes.length, hashes));
+        assertNoAllocation(name + "hashes(ByteBuffer, int, int, long[]) (direct)",
+                () -> family.hashes(direct, 0, bytes.length, hashes));
+        assertArrayAllocation(name + "hashes(String)", () -> family.hashes(string));
+        assertArrayAllocation(name + "hashes(byte[])", () -> family.hashes(bytes));
+    }
+
+    /**
+     * String keys must be encoded as {@link String#getBytes(Charset)} does,
+     * without allocating.
+     */
+    public void testEncodeUTF8() {
+        String[] keys = { "", "ascii", "été", "€ 😀", "unpaired \ud83d surrogates \ude00", "\ud83d" };
+        byte[] bytes = new byte[64];
+        for (String key : keys) {
+            byte[] expected = key.getBytes(StandardCharsets.UTF_8);
+            int len = RandomHashFamily.encodeUTF8(key, bytes);
+            assertTrue(key, Arrays.equals(expected, Arrays.copyOf(bytes, len)));
+        }
+    }
+
+    /**
+     * The hashing methods of {@link RandomHashFamily} must not allocate.
+     */
+    public void testRandomHashFamily() {
+        this.checkFamily(new RandomHashFamily(42L, COUNT));
+    }
+
+    /**
+     * The hashing methods of {@link ChecksumHashFamily} must not allocate
+     * either.
+     */
+    public void testChecksumHashFamily() {
+        this.checkFamily(new ChecksumHashFamily(42L, COUNT, "crc32c"));
+    }
+
+    /**
+     * The hashing methods of {@link TabulationHashFamily} must not allocate
+     * either.
+     */
+    public void testTabulationHashFamily() {
+        this.checkFamily(new TabulationHashFamily(42L, COUNT));
+    }
+
+    /**
+     * The hashing methods of {@link MappedRandomHashFamily}, which read the
+     * coefficients from a memory-mapped file, must not allocate either.
+     */
+    public void testMappedRandomHashFamily() throws Exception {
+        Path file = Files.createTempFile("allocation", ".rhfc");
+        try {
+            MappedRandomHashFamily.write(file, 42L, COUNT);
+            this.checkFamily(MappedRandomHashFamily.open(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Folding the shingles of a text into a MinHash signature must not
+     * allocate.
+     */
+    public void testShingleHasher() {
+        if (!this.threads.isThreadAllocatedMemorySupported())
+            return;
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        ShingleHasher hasher = new ShingleHasher(new RandomHashFamily(42L, COUNT), 5);
+        String text = "the quick brown fox jumps over the lazy dog";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        long[] signature = hasher.newSignature();
+
+        assertNoAllocation("ShingleHasher.minHash(byte[], int, int, long[])",
+                () -> hasher.minHash(bytes, 0, bytes.length, signature));
+        assertNoAllocation("ShingleHasher.minHash(ByteBuffer, int, int, long[])",
+                () -> hasher.minHash(direct, 0, bytes.length, signature));
+        assertNoAllocation("ShingleHasher.minHash(CharSequence, int, int, long[])",
+                () -> hasher.minHash(text, 0, text.length(), signature));
+    }
+
+    /**
+     * Sampling keys, one by one or by batches, must not allocate, whether the
+     * rate is adapted or not.
+     */
+    public void testHashSampler() {
+        if (!this.threads.isThreadAllocatedMemorySupported())
+            return;
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        String string = "hash functions été € 😀";
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        String[] strings = { string, "ascii", "été" };
+        BitSet kept = new BitSet(strings.length);
+
+        HashSampler fixed = new HashSampler(new RandomHashFamily(42L, COUNT), 0.5);
+        assertNoAllocation("HashSampler.keep(String)", () -> fixed.keep(string));
+        assertNoAllocation("HashSampler.keep(byte[])", () -> fixed.keep(bytes));
+        assertNoAllocation("HashSampler.filter(String[], BitSet)", () -> fixed.filter(strings, kept));
+
+        HashSampler tabulation = new HashSampler(new TabulationHashFamily(42L, COUNT), 0.5);
+        assertNoAllocation("HashSampler.keep(String) (tabulation)", () -> tabulation.keep(string));
+
+        try (HashSampler adaptive = new HashSampler(new RandomHashFamily(42L, COUNT), 1000, 1, TimeUnit.HOURS)) {
+            assertNoAllocation("HashSampler.keep(String) (adaptive)", () -> adaptive.keep(string));
+        }
+    }
+
+    /**
+     * Constructing a family must only allocate its coefficients, and the state
+     * of its pseudo-random number generator.
+     */
+    public void testConstruction() {
+        if (!this.threads.isThreadAllocatedMemorySupported())
+            return;
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        int count = 10000;
+        for (int i = 0; i < 100; i++)
+            new RandomHashFamily(i, count);
+
+        long before = this.allocated();
+        new RandomHashFamily(42L, count);
+        long allocated = this.allocated() - before;
+        // two arrays of coefficients, and less than 16 KB for the rest
+        long bound = 2 * (16 + 8L * count) + (16 << 10);
+        assertTrue("constructing a family allocates " + allocated + " bytes", allocated < bound);
+    }
+}
@@ -0,0 +1,96 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link AvalancheAudit}.
+ */
+public class AvalancheAuditTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public AvalancheAuditTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(AvalancheAuditTest.class);
+    }
+
+    /**
+     * With a base hash that is the first byte of the key, the other bytes never
+     * change the output, and flipping the lowest bit always flips the lowest
+     * output bit (the multiplier of each function is odd).
+     */
+    public void testKnownFlipProbabilities() {
+        RandomHashFamily family = new RandomHashFamily(3L, 5) {
+            @Override
+            protected long baseHash(byte[] key, int off, int len) {
+                return key[off] & 0xff;
+            }
+        };
+        AvalancheAudit audit = new AvalancheAudit(family, 4);
+        audit.updateRandomKeys(1L, 1000);
+
+        assertEquals(1000, audit.keyCount());
+        assertEquals(1.0, audit.flipProbability(0, 0), 0.0);
+        for (int i = 8; i < 32; i++)
+            for (int o = 0; o < AvalancheAudit.OUTPUT_BITS; o++)
+                assertEquals(0.0, audit.flipProbability(i, o), 0.0);
+        assertTrue(audit.avalanchePValue() < 1e-6);
+    }
+
+    /**
+     * Batches of keys, audited in parallel, must give the same counts as the
+     * same keys audited one at a time.
+     */
+    public void testParallelMatchesSequential() {
+        RandomHashFamily family = new RandomHashFamily(7L, 3);
+        MTRandom prng = new MTRandom(11L);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < AvalancheAudit.CHUNK + 1000; i++) {
+            byte[] key = new byte[1 + prng.nextInt(12)];
+            prng.nextBytes(key);
+            keys.add(key);
+        }
+
+        AvalancheAudit parallel = new AvalancheAudit(family, 8);
+        parallel.update(keys);
+        AvalancheAudit sequential = new AvalancheAudit(family, 8);
+        for (byte[] key : keys)
+            sequential.update(key);
+
+        assertEquals(keys.size(), parallel.keyCount());
+        assertTrue(Arrays.deepEquals(sequential.flipProbabilities(), parallel.flipProbabilities()));
+        for (int o = 0; o < AvalancheAudit.OUTPUT_BITS; o++)
+            assertEquals(sequential.bitProbability(o), parallel.bitProbability(o), 0.0);
+    }
+
+    /**
+     * Random keys must be shared between the generators, and only depend on
+     * the seed.
+     */
+    public void testRandomKeys() {
+        RandomHashFamily family = new RandomHashFamily(5L, 2);
+        long keyCount = 3L * AvalancheAudit.CHUNK + 5;
+        AvalancheAudit audit = new AvalancheAudit(family, 4);
+        audit.updateRandomKeys(9L, keyCount);
+        AvalancheAudit again = new AvalancheAudit(family, 4);
+        again.updateRandomKeys(9L, keyCount);
+
+        assertEquals(keyCount, audit.keyCount());
+        assertTrue(Arrays.deepEquals(audit.flipProbabilities(), again.flipProbabilities()));
+    }
+}
@@ -0,0 +1,108 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link CollisionAudit}.
+ */
+public class CollisionAuditTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CollisionAuditTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(CollisionAuditTest.class);
+    }
+
+    /**
+     * The numbers of distinct values and collisions must be exact, through
+     * several growths of the tables, including for the value zero.
+     */
+    public void testCountsMatchHashSet() {
+        CollisionAudit audit = new CollisionAudit(new RandomHashFamily(1L, 2));
+        MTRandom prng = new MTRandom(21L);
+        Set<Long> first = new HashSet<Long>(), second = new HashSet<Long>();
+        int n = 200000;
+        for (int i = 0; i < n; i++) {
+            long a = prng.nextInt(150000), b = Integer.toUnsignedLong(prng.nextInt());
+            audit.update(0, a);
+            audit.update(1, b);
+            first.add(a);
+            second.add(b);
+        }
+
+        assertEquals(n, audit.total(0));
+        assertEquals(first.size(), audit.distinct(0));
+        assertEquals(n - first.size(), audit.collisions(0));
+        assertEquals(second.size(), audit.distinct(1));
+        assertTrue(audit.memoryUsage() < 4 << 20);
+    }
+
+    /**
+     * With a memory budget too small for the tables, the values must be
+     * spilled to disk, and still be counted exactly, including when the audit
+     * is read while values are still being added.
+     */
+    public void testSpilledCountsMatchHashSet() {
+        long budget = 96 << 10;
+        Set<Long> first = new HashSet<Long>(), second = new HashSet<Long>();
+        try (CollisionAudit audit = new CollisionAudit(new RandomHashFamily(1L, 2), 2, budget)) {
+            MTRandom prng = new MTRandom(22L);
+            int n = 300000;
+            for (int i = 0; i < n; i++) {
+                long a = prng.nextInt(200000), b = Integer.toUnsignedLong(prng.nextInt());
+                audit.update(0, a);
+                audit.update(1, b);
+                first.add(a);
+                second.add(b);
+                assertTrue(audit.memoryUsage() <= budget);
+                if (i == n / 2)
+                    assertEquals(first.size(), audit.distinct(0));
+            }
+
+            assertTrue(audit.spilledBytes() > 0);
+            assertEquals(n, audit.total(0));
+            assertEquals(first.size(), audit.distinct(0));
+            assertEquals(n - first.size(), audit.collisions(0));
+            assertEquals(second.size(), audit.distinct(1));
+
+            audit.reset();
+            assertEquals(0, audit.spilledBytes());
+            assertEquals(0, audit.distinct(0));
+        }
+
+        try {
+            new CollisionAudit(new RandomHashFamily(1L, 2), 2, 1 << 10);
+            fail("a budget smaller than the initial tables must be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * The expected number of collisions must match the birthday approximation
+     * {@code n^2 / 2m} for small {@code n}.
+     */
+    public void testExpectedCollisions() {
+        assertEquals(0.0, CollisionAudit.expectedCollisions(1), 1e-9);
+        for (long n : new long[] { 1000, 100000, 10000000 }) {
+            double approx = (double) n * (n - 1) / 2 / 0x1.0p32;
+            assertEquals(approx, CollisionAudit.expectedCollisions(n), approx * 1e-2);
+        }
+        double m = 0x1.0p32;
+        assertEquals(m / Math.E, CollisionAudit.expectedCollisions((long) m), m * 1e-6);
+    }
+}
@@ -0,0 +1,109 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link DuplicateDetector}.
+ */
+public class DuplicateDetectorTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DuplicateDetectorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(DuplicateDetectorTest.class);
+    }
+
+    /**
+     * Unique lines must never be reported, even when the Bloom filter is far
+     * too small and most fingerprints are candidates.
+     */
+    public void testUniqueLines() throws Exception {
+        Path path = write(lines(20000));
+        try {
+            assertNull(detect(path, 20000, 1));
+            assertNull(detect(path, 100, 1));
+            assertNull(detect(path, 100, 7));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * A duplicate must be found however far apart the copies are, and in
+     * whichever chunks they are.
+     */
+    public void testDuplicateLine() throws Exception {
+        Path path = write(lines(20000) + "line 17\r\n");
+        try {
+            for (int chunks : new int[] { 1, 3, 16 }) {
+                ByteBuffer duplicate = detect(path, 20000, chunks);
+                assertNotNull(duplicate);
+                assertEquals("line 17", StandardCharsets.UTF_8.decode(duplicate).toString());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Lines with the same prefix, or that only differ by a byte, are not
+     * duplicates.
+     */
+    public void testSimilarLines() throws Exception {
+        Path path = write("abcdefgh\nabcdefghi\nabcdefgi\n\nx\nabcdefgh");
+        try {
+            assertEquals("abcdefgh", StandardCharsets.UTF_8.decode(detect(path, 1, 2)).toString());
+        } finally {
+            Files.delete(path);
+        }
+        path = write("abcdefgh\nabcdefghi\nabcdefgi\n\nx\n");
+        try {
+            assertNull(detect(path, 1, 2));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static String lines(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append("line ").append(i).append('\n');
+        return sb.toString();
+    }
+
+    private static Path write(String content) throws IOException {
+        Path path = Files.createTempFile("duplicates", ".txt");
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static ByteBuffer detect(Path path, long expectedKeys, int chunks) throws IOException {
+        DuplicateDetector detector = new DuplicateDetector(expectedKeys);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = MappedLines.split(channel, chunks);
+            for (int c = 0; c < chunks; c++)
+                MappedLines.forEachLine(channel, bounds[c], bounds[c + 1], detector::add);
+            return detector.findDuplicate(channel, bounds);
+        }
+    }
+}
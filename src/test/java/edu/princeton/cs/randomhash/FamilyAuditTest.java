@@ -0,0 +1,132 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link FamilyAudit}.
+ */
+public class FamilyAuditTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public FamilyAuditTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(FamilyAuditTest.class);
+    }
+
+    /**
+     * Each function must be counted as by its own {@link UniformAudit}, and the
+     * pooled audit as by a single one fed with all the values.
+     */
+    public void testMatchesUniformAudits() {
+        RandomHashFamily family = new RandomHashFamily(2L, 12);
+        for (int bucketCount : new int[] { 10, 16 }) {
+            FamilyAudit audit = new FamilyAudit(12, bucketCount);
+            UniformAudit pooled = new UniformAudit(bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+            UniformAudit[] separate = new UniformAudit[12];
+            for (int f = 0; f < 12; f++)
+                separate[f] = new UniformAudit(bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+
+            for (int k = 0; k < 5000; k++) {
+                long[] hashes = family.hashes("key-" + k);
+                audit.update(hashes);
+                pooled.update(hashes, 0, hashes.length);
+                for (int f = 0; f < 12; f++)
+                    separate[f].update(hashes[f]);
+            }
+
+            assertEquals(5000, audit.total());
+            for (int f = 0; f < 12; f++) {
+                assertTrue(Arrays.equals(separate[f].bucketCounts(), audit.bucketCounts(f)));
+                assertEquals(separate[f].chiSquaredStatistic(), audit.chiSquaredStatistic(f), 1e-9);
+            }
+            assertTrue(Arrays.equals(pooled.bucketCounts(), audit.pooled().bucketCounts()));
+            assertEquals(pooled.total(), audit.pooled().total());
+        }
+    }
+
+    /**
+     * A single skewed function must be reported as the worst one, even though
+     * the pooled report (as printed by {@link UniformAudit#printReport()}) finds
+     * the values uniform.
+     */
+    public void testSkewedFunctionIsWorst() {
+        RandomHashFamily family = new RandomHashFamily(4L, 100);
+        FamilyAudit audit = new FamilyAudit(100, 10);
+        for (int k = 0; k < 20000; k++) {
+            long[] hashes = family.hashes("key-" + k);
+            // a tenth of the values of function 37 are moved to the lower half
+            if (k % 10 == 0)
+                hashes[37] &= ~(1L << 31);
+            audit.update(hashes);
+        }
+
+        assertEquals(37, audit.worstFunctions(3)[0]);
+        assertFalse(audit.isLikelyUniform(37, 0.99));
+        assertTrue(audit.pooled().isLikelyUniform());
+    }
+
+    /**
+     * Auditing the chunks of a file in parallel and merging the audits must
+     * give exactly the audit of the whole file.
+     */
+    public void testMergedChunksMatchSequential() throws Exception {
+        RandomHashFamily family = new RandomHashFamily(12L, 20);
+        Path path = Paths.get("data/unique.txt");
+
+        FamilyAudit sequential = new FamilyAudit(20, 10);
+        long[] hashes = new long[20];
+        MappedLines.forEachLine(path, (buffer, off, len) -> {
+            family.hashes(buffer, off, len, hashes);
+            sequential.update(hashes);
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int chunks : new int[] { 1, 3, 16 }) {
+                long[] bounds = MappedLines.split(channel, chunks);
+                Future<?>[] audits = new Future<?>[chunks];
+                for (int c = 0; c < chunks; c++) {
+                    long from = bounds[c], to = bounds[c + 1];
+                    audits[c] = pool.submit(() -> {
+                        FamilyAudit audit = new FamilyAudit(20, 10);
+                        long[] local = new long[20];
+                        MappedLines.forEachLine(channel, from, to, (buffer, off, len) -> {
+                            family.hashes(buffer, off, len, local);
+                            audit.update(local);
+                        });
+                        return audit;
+                    });
+                }
+
+                FamilyAudit merged = new FamilyAudit(20, 10);
+                for (Future<?> audit : audits)
+                    merged.merge((FamilyAudit) audit.get());
+                assertEquals(sequential.total(), merged.total());
+                for (int f = 0; f < 20; f++)
+                    assertTrue(Arrays.equals(sequential.bucketCounts(f), merged.bucketCounts(f)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link HashCollectors}.
+ */
+public class HashCollectorsTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HashCollectorsTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(HashCollectorsTest.class);
+    }
+
+    private static final List<String> KEYS = IntStream.range(0, 50000).mapToObj(i -> "key " + i)
+            .collect(Collectors.toList());
+
+    /**
+     * Collecting the audit of a parallel stream must give the same counts as
+     * auditing the keys one after the other.
+     */
+    public void testFamilyAudit() {
+        RandomHashFamily family = new RandomHashFamily(42L, 20);
+        FamilyAudit expected = new FamilyAudit(20, 10);
+        for (String key : KEYS)
+            expected.update(family.hashes(key));
+
+        FamilyAudit sequential = KEYS.stream().collect(HashCollectors.toFamilyAudit(family, 10));
+        FamilyAudit parallel = KEYS.parallelStream().collect(HashCollectors.toFamilyAudit(family, 10));
+        for (FamilyAudit audit : new FamilyAudit[] { sequential, parallel }) {
+            assertEquals(KEYS.size(), audit.total());
+            for (int f = 0; f < 20; f++)
+                assertTrue(Arrays.equals(expected.bucketCounts(f), audit.bucketCounts(f)));
+        }
+    }
+
+    /**
+     * The signature of a parallel stream must hold the minima of the
+     * functions over its keys.
+     */
+    public void testMinHash() {
+        RandomHashFamily family = new RandomHashFamily(42L, 20);
+        long[] expected = new long[20];
+        Arrays.fill(expected, Long.MAX_VALUE);
+        for (String key : KEYS) {
+            long[] hashes = family.hashes(key);
+            for (int f = 0; f < 20; f++)
+                expected[f] = Math.min(expected[f], hashes[f]);
+        }
+
+        assertTrue(Arrays.equals(expected, KEYS.stream().collect(HashCollectors.toMinHash(family))));
+        assertTrue(Arrays.equals(expected, KEYS.parallelStream().collect(HashCollectors.toMinHash(family))));
+
+        long[] empty = KEYS.stream().limit(0).collect(HashCollectors.toMinHash(family));
+        assertEquals(Long.MAX_VALUE, empty[0]);
+    }
+
+    /**
+     * Keys of a {@code LongStream} must be hashed as their 8 little-endian
+     * bytes.
+     */
+    public void testLongStreams() {
+        RandomHashFamily family = new RandomHashFamily(42L, 5);
+        FamilyAudit expected = new FamilyAudit(5, 16);
+        long[] signature = new long[5];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (long key = 0; key < 10000; key++) {
+            byte[] bytes = new byte[8];
+            for (int i = 0; i < 8; i++)
+                bytes[i] = (byte) (key * 0x9E3779B97F4A7C15L >>> (8 * i));
+            long[] hashes = family.hashes(bytes);
+            expected.update(hashes);
+            for (int f = 0; f < 5; f++)
+                signature[f] = Math.min(signature[f], hashes[f]);
+        }
+
+        FamilyAudit audit = HashCollectors.familyAudit(
+                LongStream.range(0, 10000).parallel().map(key -> key * 0x9E3779B97F4A7C15L), family, 16);
+        for (int f = 0; f < 5; f++)
+            assertTrue(Arrays.equals(expected.bucketCounts(f), audit.bucketCounts(f)));
+        assertTrue(Arrays.equals(signature, HashCollectors.minHash(
+                LongStream.range(0, 10000).parallel().map(key -> key * 0x9E3779B97F4A7C15L), family)));
+    }
+}
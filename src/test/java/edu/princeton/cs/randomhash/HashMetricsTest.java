@@ -0,0 +1,82 @@
+package edu.princeton.cs.randomhash;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link HashMetrics}.
+ */
+public class HashMetricsTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HashMetricsTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(HashMetricsTest.class);
+    }
+
+    /**
+     * The counters must add up what is recorded, and be reset to zero.
+     */
+    public void testCounters() {
+        HashMetrics metrics = new HashMetrics();
+        metrics.recordFamily();
+        metrics.recordKey(5, 100);
+        metrics.recordKey(7, 100);
+
+        assertEquals(1, metrics.getFamiliesConstructed());
+        assertEquals(2, metrics.getKeysHashed());
+        assertEquals(12, metrics.getBytesHashed());
+        assertEquals(200, metrics.getFunctionsEvaluated());
+
+        metrics.reset();
+        assertEquals(0, metrics.getKeysHashed());
+        assertEquals(0, metrics.getFunctionsEvaluated());
+    }
+
+    /**
+     * The counters must be readable over JMX.
+     */
+    public void testRegister() throws Exception {
+        String name = "edu.princeton.cs.randomhash:type=HashMetrics,name=test";
+        HashMetrics metrics = new HashMetrics();
+        metrics.register(name);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            metrics.recordKey(3, 10);
+            assertEquals(1L, server.getAttribute(new ObjectName(name), "KeysHashed"));
+            assertEquals(10L, server.getAttribute(new ObjectName(name), "FunctionsEvaluated"));
+
+            server.invoke(new ObjectName(name), "reset", null, null);
+            assertEquals(0L, metrics.getKeysHashed());
+        } finally {
+            server.unregisterMBean(new ObjectName(name));
+        }
+    }
+
+    /**
+     * The instrumentation must be disabled unless it is asked for, and then
+     * leave the counters of the library untouched.
+     */
+    public void testDisabledByDefault() {
+        assertFalse(HashMetrics.ENABLED);
+        new RandomHashFamily(1L, 10).hashes("key");
+        assertEquals(0, HashMetrics.global().getKeysHashed());
+    }
+}
@@ -0,0 +1,220 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link HashSampler}.
+ */
+public class HashSamplerTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HashSamplerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(HashSamplerTest.class);
+    }
+
+    private static final int KEY_COUNT = 100000;
+
+    private static String key(int i) {
+        return "event " + i;
+    }
+
+    /**
+     * The fraction of the keys kept must be close to the rate, and the rates 0
+     * and 1 must drop and keep all the keys.
+     */
+    public void testRate() {
+        for (double rate : new double[] { 0.0, 0.01, 0.1, 0.5, 1.0 }) {
+            HashSampler sampler = new HashSampler(new RandomHashFamily(42L, 1), rate);
+            int kept = 0;
+            for (int i = 0; i < KEY_COUNT; i++)
+                if (sampler.keep(key(i)))
+                    kept++;
+            assertEquals("rate " + rate, rate, (double) kept / KEY_COUNT, 0.005);
+            if (rate == 0.0 || rate == 1.0)
+                assertEquals(rate * KEY_COUNT, (double) kept);
+        }
+    }
+
+    /**
+     * The decisions must only depend on the seed of the family, and on the
+     * value of its first function.
+     */
+    public void testConsistency() {
+        HashSampler sampler = new HashSampler(new RandomHashFamily(42L, 10), 0.3);
+        HashSampler other = new HashSampler(new RandomHashFamily(42L, 1), 0.3);
+        RandomHashFamily family = new RandomHashFamily(42L, 1);
+        for (int i = 0; i < 10000; i++) {
+            String key = key(i);
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            boolean keep = family.hash(key) < sampler.threshold();
+            assertEquals(keep, sampler.keep(key));
+            assertEquals(keep, other.keep(key));
+            assertEquals(keep, sampler.keep(bytes));
+            assertEquals(keep, sampler.keep(ByteBuffer.wrap(bytes), 0, bytes.length));
+        }
+    }
+
+    /**
+     * Families which compute their values otherwise must decide from their
+     * own first function.
+     */
+    public void testOtherFamilies() {
+        RandomHashFamily[] families = { new TabulationHashFamily(42L, 4), new ChecksumHashFamily(42L, 4, "adler32") };
+        for (RandomHashFamily family : families) {
+            HashSampler sampler = new HashSampler(family, 0.25);
+            for (int i = 0; i < 10000; i++)
+                assertEquals(family.hash(key(i)) < sampler.threshold(), sampler.keep(key(i)));
+        }
+    }
+
+    /**
+     * Lowering the rate must only drop keys which were kept.
+     */
+    public void testLowerRate() {
+        HashSampler sampler = new HashSampler(new RandomHashFamily(42L, 1), 0.3);
+        String[] keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++)
+            keys[i] = key(i);
+
+        BitSet high = new BitSet(), low = new BitSet();
+        sampler.filter(keys, high);
+        sampler.setRate(0.1);
+        assertEquals(0.1, sampler.rate());
+        sampler.filter(keys, low);
+
+        BitSet dropped = (BitSet) low.clone();
+        dropped.andNot(high);
+        assertTrue(dropped.isEmpty());
+        assertTrue(low.cardinality() < high.cardinality());
+    }
+
+    /**
+     * Filtering a batch must give the decisions of {@link HashSampler#keep},
+     * and clear the bits of the keys dropped.
+     */
+    public void testFilter() {
+        HashSampler sampler = new HashSampler(new RandomHashFamily(42L, 1), 0.5);
+        String[] keys = new String[1000];
+        byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(i);
+            bytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        BitSet kept = new BitSet();
+        kept.set(0, keys.length);
+        int count = sampler.filter(keys, kept);
+        assertEquals(kept.cardinality(), count);
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(sampler.keep(keys[i]), kept.get(i));
+
+        BitSet keptBytes = new BitSet();
+        assertEquals(count, sampler.filter(bytes, keptBytes));
+        assertEquals(kept, keptBytes);
+    }
+
+    /**
+     * Adapting the rate must converge to the target divided by the number of
+     * events offered per second.
+     */
+    public void testAdapt() {
+        try (HashSampler sampler = new HashSampler(new RandomHashFamily(42L, 1), 1000, 1, TimeUnit.HOURS)) {
+            assertEquals(1.0, sampler.rate());
+            assertEquals(1000.0, sampler.targetPerSecond());
+
+            // 10000 events per second, of which a tenth must be kept
+            for (int i = 0; i < 20; i++)
+                sampler.adapt(5000, 500000000L);
+            assertEquals(0.1, sampler.rate(), 1e-4);
+
+            // no event: the rate is left unchanged
+            sampler.adapt(0, 500000000L);
+            assertEquals(0.1, sampler.rate(), 1e-4);
+
+            // fewer events than the target: all are kept
+            for (int i = 0; i < 20; i++)
+                sampler.adapt(100, 1000000000L);
+            assertEquals(1.0, sampler.rate(), 1e-4);
+        }
+    }
+
+    /**
+     * The rate must be adapted periodically, from the events offered.
+     */
+    public void testAdaptPeriodically() throws InterruptedException {
+        try (HashSampler sampler = new HashSampler(new RandomHashFamily(42L, 1), 10, 20, TimeUnit.MILLISECONDS)) {
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            int i = 0;
+            while (sampler.rate() == 1.0 && System.nanoTime() < end) {
+                sampler.keep(key(i++));
+                if (i % 1000 == 0)
+                    Thread.sleep(1);
+            }
+            assertTrue(sampler.rate() < 1.0);
+        }
+    }
+
+    /**
+     * Rates outside of [0, 1], targets and intervals that are not positive,
+     * and empty families, must be rejected.
+     */
+    public void testInvalidArguments() {
+        for (double rate : new double[] { -0.1, 1.1, Double.NaN }) {
+            try {
+                new HashSampler(new RandomHashFamily(42L, 1), rate);
+                fail("rate " + rate + " must be rejected");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        try {
+            new HashSampler(new RandomHashFamily(42L, 0), 0.5);
+            fail("an empty family must be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+        int threads = samplerThreads();
+        try {
+            new HashSampler(new RandomHashFamily(42L, 1), 0, 1, TimeUnit.SECONDS);
+            fail("a zero target must be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new HashSampler(new RandomHashFamily(42L, 1), 1000, 0, TimeUnit.SECONDS);
+            fail("a zero interval must be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new HashSampler(new RandomHashFamily(42L, 0), 1000, 1, TimeUnit.SECONDS);
+            fail("an empty family must be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // no thread adapting the rate must be left behind by rejected arguments
+        assertTrue(samplerThreads() <= threads);
+    }
+
+    private static int samplerThreads() {
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals("hash-sampler") && thread.isAlive())
+                threads++;
+        return threads;
+    }
+}
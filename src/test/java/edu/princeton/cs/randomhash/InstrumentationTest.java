@@ -0,0 +1,153 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.Adler32;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the instrumentation hooks of the hashing classes (see
+ * {@link HashMetrics}), which are only compiled in when the JVM runs with
+ * {@code -Drandomhash.metrics=true}: this test is run by its own surefire
+ * execution, with that property, and UTF-8 as the default charset, in which
+ * the string keys have more bytes than chars.
+ */
+public class InstrumentationTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public InstrumentationTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(InstrumentationTest.class);
+    }
+
+    @Override
+    protected void setUp() {
+        assertTrue("the tests must be run with -D" + HashMetrics.PROPERTY + "=true", HashMetrics.ENABLED);
+    }
+
+    /**
+     * Constructing a family must be counted with either constructor, and
+     * commit a Flight Recorder event when its coefficients are drawn.
+     */
+    public void testConstruction() throws Exception {
+        HashMetrics metrics = HashMetrics.global();
+        Path file = Files.createTempFile("instrumentation", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("edu.princeton.cs.randomhash.FamilyConstruction");
+            recording.start();
+            long before = metrics.getFamiliesConstructed();
+            new RandomHashFamily(5L, 10);
+            new ChecksumHashFamily(6L, 3, "adler32", Adler32::new);
+            new TabulationHashFamily(7L, 2);
+            assertEquals(before + 3, metrics.getFamiliesConstructed());
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals("edu.princeton.cs.randomhash.FamilyConstruction"))
+                    .collect(Collectors.toList());
+            assertEquals(2, events.size());
+            assertEquals(RandomHashFamily.class.getName(), events.get(0).getString("family"));
+            assertEquals(5L, events.get(0).getLong("seed"));
+            assertEquals(10, events.get(0).getInt("count"));
+            assertFalse(events.get(0).getBoolean("parallel"));
+            assertEquals(ChecksumHashFamily.class.getName(), events.get(1).getString("family"));
+            assertEquals(6L, events.get(1).getLong("seed"));
+            assertEquals(3, events.get(1).getInt("count"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Hashing a key must count it, with the bytes it is hashed as, and the
+     * functions evaluated: a string key counts its bytes in the default
+     * charset, not its chars.
+     */
+    public void testHashes() {
+        HashMetrics metrics = HashMetrics.global();
+        RandomHashFamily family = new RandomHashFamily(1L, 10);
+        String key = "été";
+        byte[] bytes = key.getBytes();
+        assertTrue(bytes.length > key.length());
+
+        long keys = metrics.getKeysHashed(), hashed = metrics.getBytesHashed();
+        long functions = metrics.getFunctionsEvaluated();
+        family.hashes(key, new long[10]);
+        family.hashes(bytes, 0, bytes.length, new long[4]);
+        family.hashes(ByteBuffer.wrap(bytes), 0, bytes.length, new long[10]);
+        assertEquals(keys + 3, metrics.getKeysHashed());
+        assertEquals(hashed + 3 * bytes.length, metrics.getBytesHashed());
+        assertEquals(functions + 24, metrics.getFunctionsEvaluated());
+
+        // a key longer than the buffer of the thread
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= RandomHashFamily.MAX_SCRATCH_CHARS; i++)
+            sb.append('é');
+        String longKey = sb.toString();
+        hashed = metrics.getBytesHashed();
+        family.hash(longKey);
+        assertEquals(hashed + longKey.getBytes().length, metrics.getBytesHashed());
+    }
+
+    /**
+     * Each shingle must be counted as a key of {@code k} bytes, or of
+     * {@code 2k} bytes for the shingles of a text.
+     */
+    public void testShingles() {
+        HashMetrics metrics = HashMetrics.global();
+        ShingleHasher shingles = new ShingleHasher(new RandomHashFamily(1L, 4), 3);
+
+        long keys = metrics.getKeysHashed(), hashed = metrics.getBytesHashed();
+        long functions = metrics.getFunctionsEvaluated();
+        byte[] bytes = "abcdefg".getBytes(StandardCharsets.UTF_8);
+        assertEquals(5, shingles.forEachShingle(bytes, 0, bytes.length, (position, hashes) -> {
+        }));
+        assertEquals(5, shingles.forEachShingle("abcdefg", 0, 7, (position, hashes) -> {
+        }));
+        assertEquals(keys + 10, metrics.getKeysHashed());
+        assertEquals(hashed + 5 * 3 + 5 * 6, metrics.getBytesHashed());
+        assertEquals(functions + 10 * 4, metrics.getFunctionsEvaluated());
+    }
+
+    /**
+     * Deciding for a key must count it, with its bytes, and one function.
+     */
+    public void testSampler() {
+        HashMetrics metrics = HashMetrics.global();
+        HashSampler sampler = new HashSampler(new RandomHashFamily(1L, 1), 0.5);
+        String[] keys = { "été", "a", "€" };
+        int bytes = 0;
+        for (String key : keys)
+            bytes += key.getBytes().length;
+
+        long before = metrics.getKeysHashed(), hashed = metrics.getBytesHashed();
+        long functions = metrics.getFunctionsEvaluated();
+        sampler.keep(keys[0]);
+        sampler.filter(keys, new BitSet());
+        assertEquals(before + 4, metrics.getKeysHashed());
+        assertEquals(hashed + keys[0].getBytes().length + bytes, metrics.getBytesHashed());
+        assertEquals(functions + 4, metrics.getFunctionsEvaluated());
+    }
+}
@@ -0,0 +1,228 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link MTRandom}.
+ */
+public class MTRandomTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MTRandomTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(MTRandomTest.class);
+    }
+
+    /**
+     * Jumping ahead must land exactly where generating the words would,
+     * whatever the position within the current block of words.
+     */
+    public void testJumpMatchesSequentialGeneration() {
+        long steps = (1L << 20) + 12345;
+        for (int consumed : new int[] { 0, 1, 397, 623, 624, 625 }) {
+            MTRandom jumped = new MTRandom(42L);
+            MTRandom stepped = new MTRandom(42L);
+            for (int i = 0; i < consumed; i++) {
+                jumped.nextInt();
+                stepped.nextInt();
+            }
+
+            jumped.jump(steps);
+            for (long i = 0; i < steps; i++)
+                stepped.nextInt();
+
+            for (int i = 0; i < 2000; i++)
+                assertEquals("consumed " + consumed + ", word " + i, stepped.nextInt(), jumped.nextInt());
+        }
+    }
+
+    /**
+     * Jumps by powers of two must agree with jumps by the same distance.
+     */
+    public void testJumpPowerOfTwo() {
+        MTRandom a = new MTRandom(7L);
+        MTRandom b = new MTRandom(7L);
+        a.jumpPowerOfTwo(22);
+        b.jump(1L << 22);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(b.nextInt(), a.nextInt());
+    }
+
+    /**
+     * A split-off generator continues the sequence of its parent, which jumps
+     * ahead.
+     */
+    public void testSplit() {
+        MTRandom parent = new MTRandom(3L);
+        MTRandom reference = new MTRandom(3L);
+        parent.nextInt();
+        reference.nextInt();
+
+        MTRandom child = parent.split();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(reference.nextInt(), child.nextInt());
+
+        MTRandom again = new MTRandom(3L);
+        again.nextInt();
+        again.jumpPowerOfTwo(128);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(again.nextInt(), parent.nextInt());
+    }
+
+    /**
+     * Restoring a snapshot must resume the sequence exactly where the snapshot
+     * was taken, from an array or from a buffer.
+     */
+    public void testSaveAndRestoreState() {
+        MTRandom original = new MTRandom(17L);
+        for (int i = 0; i < 1000; i++)
+            original.nextInt();
+
+        int[] words = new int[MTRandom.STATE_SIZE + 3];
+        original.saveState(words, 3);
+        ByteBuffer bytes = ByteBuffer.allocate(4 * MTRandom.STATE_SIZE);
+        original.saveState(bytes);
+        bytes.flip();
+
+        MTRandom fromWords = new MTRandom(0L);
+        fromWords.restoreState(words, 3);
+        MTRandom fromBytes = new MTRandom(0L);
+        fromBytes.restoreState(bytes);
+        assertEquals(0, bytes.remaining());
+
+        for (int i = 0; i < 2000; i++) {
+            int expected = original.nextInt();
+            assertEquals(expected, fromWords.nextInt());
+            assertEquals(expected, fromBytes.nextInt());
+        }
+
+        words[3 + MTRandom.STATE_SIZE - 1] = 625;
+        try {
+            fromWords.restoreState(words, 3);
+            fail("invalid index accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * nextLong() must return the same values as java.util.Random would, from
+     * the same words.
+     */
+    public void testNextLong() {
+        MTRandom a = new MTRandom(5L);
+        MTRandom b = new MTRandom(5L);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(((long) b.nextInt() << 32) + b.nextInt(), a.nextLong());
+    }
+
+    /**
+     * nextInt(int) must return the same values as java.util.Random would,
+     * from the same words, for bounds that are powers of two or not, and
+     * bounds for which values are often retried.
+     */
+    public void testNextIntMatchesRandom() {
+        MTRandom a = new MTRandom(7L);
+        MTRandom b = new MTRandom(7L);
+        Random random = new Random() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected int next(int bits) {
+                return b.next(bits);
+            }
+        };
+        int[] bounds = { 1, 2, 3, 10, 1 << 20, 1000000, (1 << 30) + 1, Integer.MAX_VALUE };
+        for (int bound : bounds)
+            for (int i = 0; i < 1000; i++)
+                assertEquals(random.nextInt(bound), a.nextInt(bound));
+        assertEquals(b.nextInt(), a.nextInt());
+    }
+
+    /**
+     * nextInt(int) must stay within its bound, including for bounds that are
+     * not powers of two and bounds close to the largest int.
+     */
+    public void testNextIntBound() {
+        MTRandom r = new MTRandom(13L);
+        int[] counts = new int[3];
+        for (int i = 0; i < 30000; i++)
+            counts[r.nextInt(3)]++;
+        for (int c : counts)
+            assertTrue(c > 9000 && c < 11000);
+        for (int i = 0; i < 1000; i++) {
+            int v = r.nextInt(Integer.MAX_VALUE - 1);
+            assertTrue(v >= 0 && v < Integer.MAX_VALUE - 1);
+        }
+    }
+
+    /**
+     * Sequential streams must produce the values of the matching methods, and
+     * consume exactly the same words.
+     */
+    public void testStreamsMatchSequentialCalls() {
+        MTRandom streamed = new MTRandom(1L);
+        MTRandom called = new MTRandom(1L);
+
+        for (int v : streamed.ints(1000, 3, 1000003).toArray())
+            assertEquals(called.nextInt(1000000) + 3, v);
+        for (long v : streamed.longs(1000).toArray())
+            assertEquals(called.nextLong(), v);
+        for (double v : streamed.doubles(1000).toArray())
+            assertEquals(called.nextDouble(), v, 0.0);
+        streamed.longs(1000, -5L, 1L << 40).forEach(v -> assertTrue(v >= -5L && v < (1L << 40)));
+        called.longs(1000, -5L, 1L << 40).iterator().forEachRemaining((long v) -> {
+        });
+
+        assertEquals(called.nextInt(), streamed.nextInt());
+        assertEquals(1000000L, new MTRandom(3L).ints(1000000).parallel().count());
+    }
+
+    /**
+     * Parallel streams must draw from copies of the generator, which they
+     * must leave unchanged.
+     */
+    public void testParallelStreamsLeaveGenerator() {
+        MTRandom streamed = new MTRandom(1L);
+        MTRandom untouched = new MTRandom(1L);
+
+        long sum = streamed.ints(100000, 0, 10).parallel().asLongStream().sum();
+        assertEquals(450000.0, sum, 10000.0);
+        assertEquals(100000L, streamed.longs(100000).parallel().distinct().count());
+        streamed.doubles(100000).parallel().forEach(v -> assertTrue(v >= 0.0 && v < 1.0));
+
+        for (int i = 0; i < 1000; i++)
+            assertEquals(untouched.nextInt(), streamed.nextInt());
+    }
+
+    /**
+     * Families constructed in parallel must be identical to those constructed
+     * sequentially.
+     */
+    public void testParallelFamilyConstruction() {
+        int count = 2 * RandomHashFamily.PARALLEL_CHUNK + 17;
+        RandomHashFamily family = new RandomHashFamily(11L, count);
+
+        MTRandom prng = new MTRandom();
+        prng.setSeed(11L);
+        for (int i = 0; i < count; i++) {
+            assertEquals(2 * Integer.toUnsignedLong(prng.nextInt()) + 1, family.numsCoprime[i]);
+            assertEquals(Integer.toUnsignedLong(prng.nextInt()), family.numsNoise[i]);
+        }
+        assertEquals(prng.nextInt(), family.prng.nextInt());
+    }
+}
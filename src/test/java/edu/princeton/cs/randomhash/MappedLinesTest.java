@@ -0,0 +1,198 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link MappedLines}.
+ */
+public class MappedLinesTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MappedLinesTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(MappedLinesTest.class);
+    }
+
+    /**
+     * Mapped lines must be the lines of {@link BufferedReader#readLine()}, with
+     * any region size, and whatever the terminators.
+     */
+    public void testLinesMatchBufferedReader() throws Exception {
+        String[] contents = { "", "a", "a\n", "\n\n", "ab\r\ncd\r\n\r\nlast", "x\ny\n\nzzzzzzzzzzzzzzzzzz\n" };
+        for (String content : contents) {
+            List<String> expected = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new StringReader(content));
+            for (String line; (line = reader.readLine()) != null;)
+                expected.add(line);
+
+            Path path = Files.createTempFile("mapped", ".txt");
+            try {
+                Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+                assertEquals(expected, read(path, MappedLines.REGION_SIZE));
+                assertEquals(expected, read(path, 24));
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Regions must end at line boundaries, and the newline search must find
+     * every newline, at any alignment.
+     */
+    public void testRegionBoundaries() throws Exception {
+        MTRandom prng = new MTRandom(8L);
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int n = prng.nextInt(40); n > 0; n--)
+                line.append((char) ('a' + prng.nextInt(26)));
+            expected.add(line.toString());
+            sb.append(line).append('\n');
+        }
+
+        Path path = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+            for (int regionSize : new int[] { 41, 64, 1000, 4096 })
+                assertEquals(expected, read(path, regionSize));
+
+            try {
+                read(path, 20);
+                fail("line longer than a region accepted");
+            } catch (IOException e) {
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Hashing a line in place, in a mapped or heap buffer, must give the hash
+     * values of its bytes.
+     */
+    public void testHashesOfBuffers() throws Exception {
+        RandomHashFamily family = new RandomHashFamily(6L, 8);
+        byte[] bytes = "some line\nanother line\n".getBytes(StandardCharsets.UTF_8);
+        Path path = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.write(path, bytes);
+            List<long[]> mapped = new ArrayList<long[]>();
+            MappedLines.forEachLine(path, (buffer, off, len) -> {
+                long[] hashes = new long[8];
+                family.hashes(buffer, off, len, hashes);
+                mapped.add(hashes);
+            });
+
+            assertEquals(2, mapped.size());
+            assertTrue(Arrays.equals(family.hashes("some line"), mapped.get(0)));
+            assertTrue(Arrays.equals(family.hashes(Arrays.copyOfRange(bytes, 10, 22)), mapped.get(1)));
+
+            ByteBuffer heap = ByteBuffer.wrap(bytes, 3, 5);
+            long[] hashes = new long[8];
+            family.hashes(heap, 10, 12, hashes);
+            assertTrue(Arrays.equals(mapped.get(1), hashes));
+            assertEquals(3, heap.position());
+            assertEquals(8, heap.limit());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static List<String> read(Path path, int regionSize) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long count = MappedLines.forEachLine(channel, 0L, channel.size(), regionSize, (buffer, off, len) -> {
+                byte[] line = new byte[len];
+                MappedLines.slice(buffer, off, len).get(line);
+                lines.add(new String(line, StandardCharsets.UTF_8));
+            });
+            assertEquals(lines.size(), count);
+        }
+        return lines;
+    }
+
+    /**
+     * The chunks of a file must start at line boundaries, and together hold
+     * every line exactly once.
+     */
+    public void testSplitAtLineBoundaries() throws Exception {
+        Path path = Files.createTempFile("mapped", ".txt");
+        try {
+            Files.write(path, "a\nbb\nccc\n\ndddd\neeeeeeeeeeeeeeeeeeeee\nf".getBytes(StandardCharsets.UTF_8));
+            List<String> expected = read(path, MappedLines.REGION_SIZE);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (int chunks = 1; chunks <= 50; chunks++) {
+                    long[] bounds = MappedLines.split(channel, chunks);
+                    assertEquals(chunks + 1, bounds.length);
+                    List<String> lines = new ArrayList<String>();
+                    for (int c = 0; c < chunks; c++) {
+                        assertTrue(bounds[c] <= bounds[c + 1]);
+                        MappedLines.forEachLine(channel, bounds[c], bounds[c + 1], (buffer, off, len) -> {
+                            byte[] line = new byte[len];
+                            MappedLines.slice(buffer, off, len).get(line);
+                            lines.add(new String(line, StandardCharsets.UTF_8));
+                        });
+                    }
+                    assertEquals(expected, lines);
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * The number of lines of a file must be exact when the file is read in
+     * full, and close when it is sampled.
+     */
+    public void testEstimateLineCount() throws Exception {
+        Path path = Files.createTempFile("mapped", ".txt");
+        try {
+            String[] contents = { "", "a", "a\n", "a\nbb\r\n\nccc", "a\nbb\r\n\nccc\n" };
+            for (String content : contents) {
+                Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    assertEquals(read(path, MappedLines.REGION_SIZE).size(), MappedLines.estimateLineCount(channel));
+                }
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1000000; i++)
+                sb.append("line ").append(i).append('\n');
+            Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long estimate = MappedLines.estimateLineCount(channel);
+                assertTrue(estimate > 950000 && estimate < 1050000);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link MappedRandomHashFamily}.
+ */
+public class MappedRandomHashFamilyTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MappedRandomHashFamilyTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(MappedRandomHashFamilyTest.class);
+    }
+
+    /**
+     * A mapped family must have the same hash values as the family drawn from
+     * the same seed, including when its coefficients are written in several
+     * chunks.
+     */
+    public void testSameHashes() throws Exception {
+        Path dir = Files.createTempDirectory("mapped");
+        Path file = dir.resolve("family.rhfc");
+        try {
+            int count = 100000;
+            MappedRandomHashFamily.write(file, 42L, count);
+            assertEquals(MappedRandomHashFamily.fileSize(count), Files.size(file));
+
+            MappedRandomHashFamily mapped = MappedRandomHashFamily.open(file);
+            RandomHashFamily drawn = new RandomHashFamily(42L, count);
+            assertEquals(42L, mapped.seed());
+            assertEquals(count, mapped.count());
+            for (String key : new String[] { "", "hello", "world", "été" })
+                assertTrue(key, Arrays.equals(drawn.hashes(key), mapped.hashes(key)));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * An existing file must be reused, but only for the family it holds.
+     */
+    public void testOpenOrCreate() throws Exception {
+        Path dir = Files.createTempDirectory("mapped");
+        Path file = dir.resolve("family.rhfc");
+        try {
+            MappedRandomHashFamily first = MappedRandomHashFamily.openOrCreate(file, 7L, 10);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            MappedRandomHashFamily second = MappedRandomHashFamily.openOrCreate(file, 7L, 10);
+            assertEquals(modified, Files.getLastModifiedTime(file).toMillis());
+            assertEquals(first.hash("key"), second.hash("key"));
+
+            try {
+                MappedRandomHashFamily.openOrCreate(file, 8L, 10);
+                fail("the file holds another family");
+            } catch (IllegalArgumentException e) {
+            }
+            // only the coefficient file is left, without temporary files
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(1, files.count());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * A coefficient file must have the permissions of any new file, so that
+     * other users can map it, and not those of a temporary file.
+     */
+    public void testPermissions() throws Exception {
+        Path dir = Files.createTempDirectory("mapped");
+        Path file = dir.resolve("family.rhfc");
+        Path plain = dir.resolve("plain");
+        try {
+            if (!Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class))
+                return;
+            MappedRandomHashFamily.openOrCreate(file, 7L, 10);
+            Files.createFile(plain);
+            assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(plain);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Files which are not complete coefficient files must be rejected.
+     */
+    public void testInvalidFiles() throws Exception {
+        Path file = Files.createTempFile("mapped", ".rhfc");
+        try {
+            Files.write(file, "not coefficients, but long enough for a header".getBytes());
+            assertOpenFails(file);
+
+            MappedRandomHashFamily.write(file, 1L, 10);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(MappedRandomHashFamily.fileSize(9));
+            }
+            assertOpenFails(file);
+
+            MappedRandomHashFamily.write(file, 1L, 10);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 2, 0, 0, 0 }), 4);
+            }
+            assertOpenFails(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void assertOpenFails(Path file) {
+        try {
+            MappedRandomHashFamily.open(file);
+            fail("not a valid coefficient file");
+        } catch (IOException e) {
+        }
+    }
+}
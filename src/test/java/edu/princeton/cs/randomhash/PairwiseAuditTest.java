@@ -0,0 +1,81 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link PairwiseAudit}.
+ */
+public class PairwiseAuditTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PairwiseAuditTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(PairwiseAuditTest.class);
+    }
+
+    /**
+     * The joint histograms must match a direct count of the buckets of every
+     * pair, across several batches.
+     */
+    public void testJointCountsMatchDirectCount() {
+        RandomHashFamily family = new RandomHashFamily(5L, 6);
+        PairwiseAudit audit = new PairwiseAudit(family, 3);
+        long[][] expected = new long[36][9];
+        long[] hashes = new long[6];
+        int keys = 3 * PairwiseAudit.BATCH + 17;
+        for (int k = 0; k < keys; k++) {
+            String key = "key-" + k;
+            audit.update(key);
+            family.hashes(key, hashes);
+            for (int i = 0; i < 6; i++)
+                for (int j = 0; j < 6; j++)
+                    expected[i * 6 + j][bucket(hashes[i]) * 3 + bucket(hashes[j])]++;
+        }
+
+        assertEquals(keys, audit.total());
+        for (int i = 0; i < 6; i++)
+            for (int j = 0; j < 6; j++)
+                if (i != j)
+                    assertTrue(Arrays.equals(expected[i * 6 + j], audit.jointCounts(i, j)));
+    }
+
+    private static int bucket(long value) {
+        return (int) Math.min(value / (RandomHashFamily.MAX_VALUE / 3), 2);
+    }
+
+    /**
+     * Two functions with the same coefficients must be reported as the worst
+     * pair.
+     */
+    public void testDependentPairIsWorst() {
+        RandomHashFamily family = new RandomHashFamily(9L, 20) {
+            {
+                this.numsCoprime[13] = this.numsCoprime[4];
+                this.numsNoise[13] = this.numsNoise[4] + 1;
+            }
+        };
+        PairwiseAudit audit = new PairwiseAudit(family, 4);
+        for (int k = 0; k < 20000; k++)
+            audit.update("key-" + k);
+
+        int[][] worst = audit.worstPairs(3);
+        assertEquals(3, worst.length);
+        assertEquals(4, worst[0][0]);
+        assertEquals(13, worst[0][1]);
+        assertTrue(audit.pValue(13, 4) < 1e-9);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link QualitySuite} and {@link ChecksumHashFamily}.
+ */
+public class QualitySuiteTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public QualitySuiteTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(QualitySuiteTest.class);
+    }
+
+    /**
+     * The generated key sets must have the expected sizes, without duplicates.
+     */
+    public void testKeySets() {
+        // 1 + 128 + C(128, 2) keys
+        assertDistinct(QualitySuite.sparseKeys(16, 2), 1 + 128 + 128 * 127 / 2);
+        assertDistinct(QualitySuite.permutationKeys("ACGT".getBytes(), 6), 4096);
+        assertDistinct(QualitySuite.integerKeys(1000, false), 1000);
+        assertDistinct(QualitySuite.integerKeys(1000, true), 1000);
+    }
+
+    private static void assertDistinct(byte[][] keys, int count) {
+        Set<String> distinct = new HashSet<String>();
+        for (byte[] key : keys)
+            distinct.add(new String(key, StandardCharsets.ISO_8859_1));
+        assertEquals(count, keys.length);
+        assertEquals(count, distinct.size());
+    }
+
+    /**
+     * A family with CRC32 as its checksum must compute the same values as the
+     * default family, from bytes and from buffers.
+     */
+    public void testChecksumFamily() {
+        RandomHashFamily expected = new RandomHashFamily(42L, 5);
+        RandomHashFamily actual = new ChecksumHashFamily(42L, 5, "crc32", CRC32::new);
+        byte[] key = "hello, world".getBytes();
+        ByteBuffer direct = ByteBuffer.allocateDirect(key.length + 2);
+        direct.position(2);
+        direct.put(key);
+
+        long[] a = new long[5], b = new long[5], c = new long[5];
+        expected.hashes(key, 0, key.length, a);
+        actual.hashes(key, 0, key.length, b);
+        actual.hashes(direct, 2, key.length, c);
+        assertTrue(Arrays.equals(a, b));
+        assertTrue(Arrays.equals(a, c));
+    }
+
+    /**
+     * CRC32 must pass the suite on decimal integers.
+     */
+    public void testRun() {
+        QualitySuite.Result result = QualitySuite.run("integers", QualitySuite.integerKeys(1 << 16, true), "crc32");
+        assertEquals(1 << 16, result.keys);
+        assertTrue(result.passed());
+    }
+}
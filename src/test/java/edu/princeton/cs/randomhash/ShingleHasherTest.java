@@ -0,0 +1,149 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link ShingleHasher}.
+ */
+public class ShingleHasherTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ShingleHasherTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(ShingleHasherTest.class);
+    }
+
+    /**
+     * The hash values of each shingle must be those of its bytes, in arrays
+     * and in buffers.
+     */
+    public void testSameHashesAsWindows() {
+        RandomHashFamily family = new RandomHashFamily(42L, 10);
+        byte[] bytes = new byte[300];
+        new Random(1).nextBytes(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+
+        for (int k : new int[] { 1, 3, 8, 64 }) {
+            ShingleHasher hasher = new ShingleHasher(family, k);
+            int[] next = new int[1];
+            long count = hasher.forEachShingle(bytes, 5, 200, (position, hashes) -> {
+                assertEquals(next[0]++, position);
+                long[] expected = new long[10];
+                family.hashes(bytes, 5 + position, k, expected);
+                assertTrue(Arrays.equals(expected, hashes));
+            });
+            assertEquals(200 - k + 1, count);
+            assertEquals(count, next[0]);
+
+            next[0] = 0;
+            hasher.forEachShingle(direct, 5, 200, (position, hashes) -> {
+                long[] expected = new long[10];
+                family.hashes(bytes, 5 + position, k, expected);
+                assertTrue(Arrays.equals(expected, hashes));
+                next[0]++;
+            });
+            assertEquals(count, next[0]);
+        }
+    }
+
+    /**
+     * The hash values of each shingle of chars must be those of its UTF-16LE
+     * bytes.
+     */
+    public void testChars() {
+        RandomHashFamily family = new RandomHashFamily(42L, 10);
+        String text = "Un été à Paris, € et 😀 compris, pour quelques shingles de plus.";
+        ShingleHasher hasher = new ShingleHasher(family, 5);
+        long count = hasher.forEachShingle(text, 2, text.length(), (position, hashes) -> {
+            // the chars of a shingle, even halves of surrogate pairs, are hashed as is
+            byte[] shingle = new byte[10];
+            for (int i = 0; i < 5; i++) {
+                char c = text.charAt(2 + position + i);
+                shingle[2 * i] = (byte) c;
+                shingle[2 * i + 1] = (byte) (c >>> 8);
+            }
+            assertTrue(Arrays.equals(family.hashes(shingle), hashes));
+        });
+        assertEquals(text.length() - 2 - 5 + 1, count);
+    }
+
+    /**
+     * A text shorter than a shingle has no shingle.
+     */
+    public void testShortText() {
+        ShingleHasher hasher = new ShingleHasher(new RandomHashFamily(1L, 3), 4);
+        assertEquals(0, hasher.forEachShingle(new byte[3], 0, 3, (position, hashes) -> fail()));
+        long[] signature = hasher.newSignature();
+        assertEquals(0, hasher.minHash("abc", 0, 3, signature));
+        assertTrue(Arrays.equals(hasher.newSignature(), signature));
+    }
+
+    /**
+     * A MinHash signature must hold the minima of the functions over the
+     * shingles, and estimate the similarity of texts.
+     */
+    public void testMinHash() {
+        RandomHashFamily family = new RandomHashFamily(42L, 200);
+        ShingleHasher hasher = new ShingleHasher(family, 4);
+        byte[] a = "the quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+        byte[] b = "the quick brown fox jumps over the lazy cat".getBytes(StandardCharsets.UTF_8);
+
+        long[] signature = hasher.newSignature();
+        hasher.minHash(a, 0, a.length, signature);
+        for (int f = 0; f < 200; f++) {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i + 4 <= a.length; i++)
+                min = Math.min(min, family.hashes(Arrays.copyOfRange(a, i, i + 4))[f]);
+            assertEquals(min, signature[f]);
+        }
+
+        long[] other = hasher.newSignature();
+        hasher.minHash(ByteBuffer.wrap(b), 0, b.length, other);
+        // 37 of the 40 distinct shingles of a are in b, which has 2 others
+        double similarity = ShingleHasher.similarity(signature, other);
+        assertEquals(36.0 / 42.0, similarity, 0.15);
+        assertEquals(1.0, ShingleHasher.similarity(signature, signature), 0.0);
+    }
+
+    /**
+     * Families whose base hash function is CRC32 can be rolled, even when
+     * mapped, but not others.
+     */
+    public void testFamilies() throws Exception {
+        Path file = Files.createTempFile("shingles", ".rhfc");
+        try {
+            MappedRandomHashFamily.write(file, 42L, 10);
+            ShingleHasher mapped = new ShingleHasher(MappedRandomHashFamily.open(file), 3);
+            mapped.forEachShingle(new byte[] { 1, 2, 3, 4 }, 0, 4, (position, hashes) -> assertTrue(Arrays
+                    .equals(new RandomHashFamily(42L, 10).hashes(new byte[] { (byte) (1 + position),
+                            (byte) (2 + position), (byte) (3 + position) }), hashes)));
+        } finally {
+            Files.delete(file);
+        }
+
+        try {
+            new ShingleHasher(new TabulationHashFamily(42L, 10), 3);
+            fail("the base hash function of tabulation hashing cannot be rolled");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link StreamedLines}.
+ */
+public class StreamedLinesTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public StreamedLinesTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(StreamedLinesTest.class);
+    }
+
+    /**
+     * Streamed lines must be the lines of {@link BufferedReader#readLine()},
+     * whether the file is compressed or not, and with batches smaller than the
+     * lines.
+     */
+    public void testLinesMatchBufferedReader() throws Exception {
+        String[] contents = { "", "a", "a\n", "\n\n", "ab\r\ncd\r\n\r\nlast", "x\ny\n\nzzzzzzzzzzzzzzzzzz\n" };
+        for (String content : contents) {
+            List<String> expected = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new StringReader(content));
+            for (String line; (line = reader.readLine()) != null;)
+                expected.add(line);
+
+            for (String suffix : new String[] { ".txt", ".gz", ".deflate" }) {
+                Path path = write(Files.createTempFile("streamed", suffix), content);
+                try {
+                    assertEquals(expected, read(Collections.singletonList(path), StreamedLines.BATCH_SIZE));
+                    assertEquals(expected, read(Collections.singletonList(path), 3));
+                } finally {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * A directory stands for its files, in order, and the last line of a file
+     * is not joined with the first line of the next one.
+     */
+    public void testDirectory() throws Exception {
+        Path directory = Files.createTempDirectory("streamed");
+        Path a = write(directory.resolve("a.txt"), "1\n2");
+        Path b = write(directory.resolve("b.gz"), "3\n4\n");
+        Path c = write(Files.createDirectory(directory.resolve("c")).resolve("c.txt"), "5");
+        try {
+            assertTrue(StreamedLines.isStreamed(directory));
+            assertFalse(StreamedLines.isStreamed(a));
+            assertTrue(StreamedLines.isStreamed(b));
+            assertEquals(Arrays.asList(a, b, c), StreamedLines.sources(directory));
+            assertEquals(Arrays.asList("1", "2", "3", "4", "5"), read(StreamedLines.sources(directory), 4));
+        } finally {
+            Files.delete(c);
+            Files.delete(c.getParent());
+            Files.delete(b);
+            Files.delete(a);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Threads processing the lines concurrently must process each line exactly
+     * once.
+     */
+    public void testConcurrentConsumers() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 50000; i++) {
+            expected.add("line " + i);
+            sb.append("line ").append(i).append('\n');
+        }
+
+        Path path = write(Files.createTempFile("streamed", ".gz"), sb.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (StreamedLines lines = new StreamedLines(Collections.singletonList(path), 1 << 10, 2)) {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int t = 0; t < 4; t++)
+                results.add(executor.submit(() -> {
+                    List<String> read = new ArrayList<String>();
+                    lines.forEachLine((buffer, off, len) -> read.add(decode(buffer, off, len)));
+                    return read;
+                }));
+
+            List<String> actual = new ArrayList<String>();
+            for (Future<List<String>> result : results)
+                actual.addAll(result.get());
+            Collections.sort(actual);
+            Collections.sort(expected);
+            assertEquals(expected, actual);
+        } finally {
+            executor.shutdown();
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Closing the lines must release the threads waiting for a batch, with an
+     * exception.
+     */
+    public void testCloseReleasesConsumers() throws Exception {
+        InputStream stdin = System.in;
+        CountDownLatch input = new CountDownLatch(1);
+        // like the standard input, a stream whose reads ignore interrupts
+        System.setIn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                while (true) {
+                    try {
+                        input.await();
+                        return -1;
+                    } catch (InterruptedException e) {
+                        // not interruptible
+                    }
+                }
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            StreamedLines lines = new StreamedLines(Collections.singletonList(Paths.get("-")));
+            CountDownLatch started = new CountDownLatch(2);
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            for (int t = 0; t < 2; t++)
+                results.add(executor.submit(() -> {
+                    started.countDown();
+                    return lines.forEachLine((buffer, off, len) -> {
+                    });
+                }));
+            started.await();
+            Thread.sleep(100);
+
+            lines.close();
+            for (Future<Long> result : results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("closed lines must not end normally");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+        } finally {
+            input.countDown();
+            executor.shutdownNow();
+            System.setIn(stdin);
+        }
+    }
+
+    private static Path write(Path path, String content) throws IOException {
+        String name = path.getFileName().toString();
+        try (OutputStream out = name.endsWith(".gz") ? new GZIPOutputStream(Files.newOutputStream(path))
+                : name.endsWith(".deflate") ? new DeflaterOutputStream(Files.newOutputStream(path))
+                        : Files.newOutputStream(path)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return path;
+    }
+
+    private static List<String> read(List<Path> sources, int batchSize) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        try (StreamedLines streamed = new StreamedLines(sources, batchSize, 2)) {
+            streamed.forEachLine((buffer, off, len) -> lines.add(decode(buffer, off, len)));
+        }
+        return lines;
+    }
+
+    private static String decode(ByteBuffer buffer, int off, int len) {
+        return StandardCharsets.UTF_8.decode(MappedLines.slice(buffer, off, len)).toString();
+    }
+}
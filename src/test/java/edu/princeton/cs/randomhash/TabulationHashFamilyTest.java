@@ -0,0 +1,84 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link TabulationHashFamily}.
+ */
+public class TabulationHashFamilyTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TabulationHashFamilyTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(TabulationHashFamilyTest.class);
+    }
+
+    /**
+     * A family must be determined by its seed, and a key must have the same
+     * hash values as a string, as bytes, and in any buffer.
+     */
+    public void testSameHashes() {
+        TabulationHashFamily family = new TabulationHashFamily(42L, 20);
+        assertTrue(Arrays.equals(family.hashes("key"), new TabulationHashFamily(42L, 20).hashes("key")));
+        assertFalse(Arrays.equals(family.hashes("key"), new TabulationHashFamily(43L, 20).hashes("key")));
+
+        for (String key : new String[] { "", "a", "seven b", "eight by", "more than eight bytes, été" }) {
+            byte[] bytes = key.getBytes();
+            long[] expected = family.hashes(key);
+            assertTrue(key, Arrays.equals(expected, family.hashes(bytes)));
+
+            for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3).order(order);
+                direct.position(3);
+                direct.put(bytes);
+                long[] hashes = new long[20];
+                family.hashes(direct, 3, bytes.length, hashes);
+                assertTrue(key, Arrays.equals(expected, hashes));
+            }
+
+            for (long hash : expected)
+                assertTrue(hash >= RandomHashFamily.MIN_VALUE && hash <= RandomHashFamily.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Keys which have the same CRC32 value collide under every function of a
+     * {@link RandomHashFamily}, but not of a {@link TabulationHashFamily}.
+     */
+    public void testIndependentCollisions() {
+        long[] affine1 = new RandomHashFamily(42L, 10).hashes("plumless");
+        long[] affine2 = new RandomHashFamily(42L, 10).hashes("buckeroo");
+        assertTrue(Arrays.equals(affine1, affine2));
+
+        long[] tabulation1 = new TabulationHashFamily(42L, 10).hashes("plumless");
+        long[] tabulation2 = new TabulationHashFamily(42L, 10).hashes("buckeroo");
+        for (int f = 0; f < 10; f++)
+            assertTrue(tabulation1[f] != tabulation2[f]);
+    }
+
+    /**
+     * The values of each function must be uniform, even for sequential
+     * integers, on which CRC32 is not.
+     */
+    public void testUniform() {
+        QualitySuite.Result result = QualitySuite.run("integers", QualitySuite.integerKeys(1 << 16, false),
+                "tabulation");
+        assertTrue(result.passed());
+    }
+}
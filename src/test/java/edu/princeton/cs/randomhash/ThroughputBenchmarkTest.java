@@ -0,0 +1,114 @@
+package edu.princeton.cs.randomhash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link ThroughputBenchmark}.
+ */
+public class ThroughputBenchmarkTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ThroughputBenchmarkTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(ThroughputBenchmarkTest.class);
+    }
+
+    /**
+     * The keys must be the lines of the input, and the lines of several sources
+     * must not be joined.
+     */
+    public void testKeysAreLines() throws Exception {
+        Path a = Files.createTempFile("throughput", ".txt");
+        Path b = Files.createTempFile("throughput", ".txt");
+        try {
+            Files.write(a, "abc\r\nd".getBytes(StandardCharsets.UTF_8));
+            Files.write(b, "\nefgh\n".getBytes(StandardCharsets.UTF_8));
+            ThroughputBenchmark benchmark = ThroughputBenchmark.load(Arrays.asList(a, b));
+
+            List<String> keys = new ArrayList<String>();
+            benchmark.forEachLine((buffer, off, len) -> keys.add(
+                    StandardCharsets.UTF_8.decode(MappedLines.slice(buffer, off, len)).toString()));
+            assertEquals(Arrays.asList("abc", "d", "", "efgh"), keys);
+            assertEquals(4, benchmark.keyCount());
+            assertEquals(8, benchmark.byteCount());
+        } finally {
+            Files.delete(a);
+            Files.delete(b);
+        }
+    }
+
+    /**
+     * A key that appears twice must be found, and only then, even among keys
+     * of the same length.
+     */
+    public void testFindDuplicate() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            sb.append(String.format("key %05d", i)).append('\n');
+        ThroughputBenchmark unique = new ThroughputBenchmark(
+                ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        assertNull(unique.findDuplicate());
+
+        sb.append("key 04321\n");
+        ThroughputBenchmark duplicate = new ThroughputBenchmark(
+                ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals("key 04321", StandardCharsets.UTF_8.decode(duplicate.findDuplicate()).toString());
+    }
+
+    /**
+     * A measurement must hash every key, and report consistent rates.
+     */
+    public void testMeasure() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append("key ").append(i).append('\n');
+        ThroughputBenchmark benchmark = new ThroughputBenchmark(
+                ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+
+        ThroughputBenchmark.Result result = benchmark.measure(new RandomHashFamily(1L, 10), 2);
+        assertEquals(2, result.threads());
+        assertTrue(result.keysPerSecond() > 0);
+        assertEquals(result.keysPerSecond() * benchmark.byteCount() / benchmark.keyCount() / (1 << 20),
+                result.megabytesPerSecond(), 1e-6 * result.megabytesPerSecond());
+        assertEquals(1e9 / result.keysPerSecond() / 10, result.nanosPerKeyPerFunction(),
+                1e-6 * result.nanosPerKeyPerFunction());
+    }
+
+    /**
+     * Threads measuring keys of a direct buffer, which hashing moves the
+     * position and limit of, must not interfere.
+     */
+    public void testMeasureDirectBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append("key ").append(i).append('\n');
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        direct.flip();
+        ThroughputBenchmark benchmark = new ThroughputBenchmark(direct);
+
+        ThroughputBenchmark.Result result = benchmark.measure(new RandomHashFamily(1L, 10), 4);
+        assertEquals(4, result.threads());
+        assertTrue(result.keysPerSecond() > 0);
+    }
+}
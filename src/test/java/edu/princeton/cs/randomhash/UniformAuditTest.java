@@ -0,0 +1,287 @@
+package edu.princeton.cs.randomhash;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link UniformAudit} and its variants.
+ */
+public class UniformAuditTest
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public UniformAuditTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(UniformAuditTest.class);
+    }
+
+    /**
+     * Batch updates must place every value in the bucket given by the
+     * division formula, for shift, reciprocal and division bucket sizes.
+     */
+    public void testBatchUpdateMatchesDivision() {
+        MTRandom prng = new MTRandom(5L);
+        long[][] ranges = { { 0, RandomHashFamily.MAX_VALUE }, { 0, 1L << 20 }, { 7, 1000006 },
+                { -5, 1L << 40 } };
+        for (long[] range : ranges) {
+            for (int bucketCount : new int[] { 1, 2, 10, 16, 97, 1 << 16 }) {
+                UniformAudit batch = new UniformAudit(bucketCount, range[0], range[1]);
+                long[] values = new long[10000];
+                long[] expected = new long[bucketCount];
+                for (int i = 0; i < values.length; i++) {
+                    long v = (i < 100) ? range[1] - i : range[0] + Math.floorMod(prng.nextLong(), range[1] - range[0] + 1);
+                    values[i] = v;
+                    long index = (v - range[0]) / ((range[1] - range[0]) / bucketCount);
+                    expected[(int) Math.min(index, bucketCount - 1)]++;
+                }
+                batch.update(values, 3, values.length - 3);
+                for (int i = 0; i < 3; i++)
+                    batch.update(values[i]);
+
+                assertTrue(Arrays.equals(expected, batch.bucketCounts()));
+                assertEquals(values.length, batch.total());
+            }
+        }
+    }
+
+    /**
+     * A batch with a value out of range must not be counted at all.
+     */
+    public void testBatchUpdateChecksRange() {
+        UniformAudit audit = new UniformAudit(10, 0, 100);
+        try {
+            audit.update(new long[] { 1, 2, 101 }, 0, 3);
+            fail("value out of range accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(0L, audit.total());
+    }
+
+    /**
+     * Computed critical values must agree with the NIST tables.
+     */
+    public void testCriticalValuesMatchTables() {
+        for (int df = 1; df <= 100; df++) {
+            assertEquals(UniformAudit.upperTailCV90[df - 1], ChiSquared.criticalValue(df, 0.90), 1e-3);
+            assertEquals(UniformAudit.upperTailCV99[df - 1], ChiSquared.criticalValue(df, 0.99), 1e-3);
+            assertEquals(0.10, ChiSquared.pValue(df, UniformAudit.upperTailCV90[df - 1]), 1e-4);
+        }
+    }
+
+    /**
+     * Audits with many more buckets than the tables cover must work, and
+     * uniformly distributed values must pass them.
+     */
+    public void testManyBuckets() {
+        int bucketCount = 1 << 16;
+        double cv = ChiSquared.criticalValue(bucketCount - 1, 0.99);
+        assertEquals(0.01, ChiSquared.pValue(bucketCount - 1, cv), 1e-9);
+        // Wilson-Hilferty is very accurate with that many degrees of freedom
+        double z = 2.3263478740408408, h = 2.0 / (9.0 * (bucketCount - 1));
+        assertEquals((bucketCount - 1) * Math.pow(1 - h + z * Math.sqrt(h), 3), cv, 0.05);
+
+        UniformAudit audit = new UniformAudit(bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+        MTRandom prng = new MTRandom(1L);
+        for (int i = 0; i < 20 * bucketCount; i++)
+            audit.update(Integer.toUnsignedLong(prng.nextInt()));
+        assertTrue(audit.isLikelyUniform());
+        assertTrue(audit.isLikelyUniform(0.999));
+        assertTrue(audit.pValue() > 0.001);
+
+        UniformAudit skewed = new UniformAudit(bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+        for (int i = 0; i < 20 * bucketCount; i++)
+            skewed.update(Integer.toUnsignedLong(prng.nextInt()) & 0xfffeffffL);
+        assertFalse(skewed.isLikelyUniform(0.999));
+    }
+
+    /**
+     * The default verdict must reject values that only land in part of the
+     * range, however many values there are: the Chi Square statistic on
+     * percentages would shrink with their number, and accept them.
+     */
+    public void testDefaultVerdictOnSkew() {
+        int bucketCount = 1 << 16;
+        UniformAudit audit = new UniformAudit(bucketCount, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+        MTRandom prng = new MTRandom(2L);
+        // only the lower half of the range
+        for (int i = 0; i < 10000000; i++)
+            audit.update(Integer.toUnsignedLong(prng.nextInt()) >>> 1);
+        assertTrue(audit.chiSquaredTest() < ChiSquared.criticalValue(bucketCount - 1, 0.90));
+        assertEquals(0.0, audit.pValue(), 1e-12);
+        assertFalse(audit.isLikelyUniform(0.90));
+        assertFalse(audit.isLikelyUniform());
+    }
+
+    /**
+     * A concurrent audit fed by several threads must count exactly what a
+     * sequential audit fed the same values counts.
+     */
+    public void testConcurrentAuditIsExact() throws InterruptedException {
+        final RandomHashFamily family = new RandomHashFamily(1L, 10);
+        final ConcurrentUniformAudit concurrent = new ConcurrentUniformAudit(16, RandomHashFamily.MIN_VALUE,
+                RandomHashFamily.MAX_VALUE);
+        UniformAudit sequential = new UniformAudit(16, RandomHashFamily.MIN_VALUE, RandomHashFamily.MAX_VALUE);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                long[] hashes = new long[10];
+                for (int i = offset; i < 20000; i += threads.length) {
+                    family.hashes("key" + i, hashes);
+                    if (i % 2 == 0)
+                        concurrent.update(hashes, 0, hashes.length);
+                    else
+                        for (long h : hashes)
+                            concurrent.update(h);
+                }
+            });
+            threads[t].start();
+        }
+        for (int i = 0; i < 20000; i++)
+            for (long h : family.hashes("key" + i))
+                sequential.update(h);
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(sequential.total(), concurrent.total());
+        assertTrue(Arrays.equals(sequential.bucketCounts(), concurrent.bucketCounts()));
+        assertEquals(sequential.chiSquaredTest(), concurrent.chiSquaredTest(), 1e-12);
+
+        concurrent.reset();
+        assertEquals(0L, concurrent.total());
+    }
+
+    /**
+     * Resetting a concurrent audit while a thread updates it must never bring
+     * back the values counted before the reset.
+     */
+    public void testConcurrentReset() throws InterruptedException {
+        final ConcurrentUniformAudit audit = new ConcurrentUniformAudit(1, 0, 10);
+        final int count = 20000000;
+        final AtomicLong done = new AtomicLong();
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                audit.update(i % 10);
+                done.lazySet(i + 1);
+            }
+        });
+        thread.start();
+
+        // the values counted after a reset are at most those processed since,
+        // and the one being processed
+        while (thread.isAlive()) {
+            long before = done.get();
+            audit.reset();
+            long total = audit.total();
+            long after = done.get();
+            assertTrue(total + " values counted, " + (after - before) + " processed",
+                    total >= 0 && total <= after - before + 1);
+        }
+        thread.join();
+
+        audit.reset();
+        assertEquals(0L, audit.total());
+        audit.update(5);
+        assertEquals(1L, audit.total());
+    }
+
+    /**
+     * Snapshots must copy the counts, and their deltas must describe the
+     * values processed in between.
+     */
+    public void testSnapshotDelta() {
+        UniformAudit audit = new UniformAudit(4, 0, 400);
+        for (int i = 0; i < 400; i++)
+            audit.update(i);
+        AuditSnapshot first = audit.snapshot();
+        for (int i = 0; i < 100; i++)
+            audit.update(i);
+        AuditSnapshot second = audit.snapshot(0.99);
+
+        assertEquals(400, first.total());
+        assertEquals(0.0, first.chiSquaredStatistic(), 0.0);
+        assertTrue(first.isLikelyUniform());
+        assertTrue(Arrays.equals(new long[] { 100, 100, 100, 100 }, first.bucketCounts()));
+
+        AuditSnapshot delta = second.delta(first);
+        assertEquals(100, delta.total());
+        assertTrue(Arrays.equals(new long[] { 100, 0, 0, 0 }, delta.bucketCounts()));
+        assertEquals(300.0, delta.chiSquaredStatistic(), 1e-9);
+        assertFalse(delta.isLikelyUniform());
+        assertEquals(audit.chiSquaredStatistic(), second.chiSquaredStatistic(), 1e-9);
+        assertTrue(second.toJson().endsWith(",\"uniform\":false,\"buckets\":[200,100,100,100]}"));
+        assertTrue(second.toCsv().endsWith(",false,200,100,100,100"));
+    }
+
+    /**
+     * A reporter must write periodic snapshots, with their deltas, and a last
+     * one when it is closed.
+     */
+    public void testReporterWritesSnapshots() throws Exception {
+        ConcurrentUniformAudit audit = new ConcurrentUniformAudit(2, 0, 2);
+        StringWriter out = new StringWriter();
+        AuditReporter reporter = new AuditReporter(audit, out, AuditReporter.Format.CSV, 5, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++)
+            audit.update(i % 2);
+        AuditSnapshot now = reporter.reportNow();
+        assertEquals(10, now.total());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (out.toString().split("\n").length < 5 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        reporter.close();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(AuditSnapshot.csvHeader(2), lines[0]);
+        assertTrue(lines[1].endsWith(",total,10,0.00000,1.00000,0.900000,true,5,5"));
+        assertTrue(lines[2].endsWith(",delta,10,0.00000,1.00000,0.900000,true,5,5"));
+        assertTrue(lines.length >= 7);
+        assertTrue(lines[lines.length - 1].contains(",delta,0,"));
+        for (String line : lines)
+            assertEquals(lines[0].split(",").length, line.split(",").length);
+    }
+
+    /**
+     * A periodic snapshot that fails with a runtime exception must stop the
+     * reporter, and be thrown by {@link AuditReporter#close()}.
+     */
+    public void testReporterFailure() throws Exception {
+        ConcurrentUniformAudit audit = new ConcurrentUniformAudit(2, 0, 2);
+        StringWriter out = new StringWriter() {
+            @Override
+            public void write(String str) {
+                if (str.contains(",delta,"))
+                    throw new IllegalStateException("writer failed");
+                super.write(str);
+            }
+        };
+        AuditReporter reporter = new AuditReporter(audit, out, AuditReporter.Format.CSV, 1, TimeUnit.MILLISECONDS);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (out.toString().split("\n").length < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        Thread.sleep(20);
+        try {
+            reporter.close();
+            fail("the failure of the periodic snapshot must be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("writer failed", e.getMessage());
+        }
+    }
+}
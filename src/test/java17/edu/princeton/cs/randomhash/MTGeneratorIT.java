@@ -0,0 +1,104 @@
+package edu.princeton.cs.randomhash;
+
+import java.util.List;
+import java.util.random.RandomGenerator;
+import java.util.stream.Collectors;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests of {@link MTRandom} as a {@link RandomGenerator.JumpableGenerator},
+ * which it only is in the multi-release JAR, on JDK 17 and later: they are run
+ * against the packaged JAR, by the failsafe plugin of the {@code java17}
+ * profile, since the classes of {@code META-INF/versions/17} are ignored in a
+ * directory of classes.
+ */
+public class MTGeneratorIT
+        extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MTGeneratorIT(String testName) {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite(MTGeneratorIT.class);
+    }
+
+    /**
+     * Returns the given generator as a jumpable generator; the cast goes
+     * through {@link Object}, since the classes this test is compiled against
+     * are not those of the multi-release JAR.
+     */
+    private static RandomGenerator.JumpableGenerator jumpable(MTRandom rng) {
+        Object generator = rng;
+        assertTrue("MTRandom must be a JumpableGenerator on JDK 17 and later",
+                generator instanceof RandomGenerator.JumpableGenerator);
+        return (RandomGenerator.JumpableGenerator) generator;
+    }
+
+    /**
+     * Jumping must move 2^128 words ahead, as {@link MTRandom#jump()} does.
+     */
+    public void testJump() {
+        MTRandom rng = new MTRandom(42L);
+        MTRandom expected = new MTRandom(42L);
+        RandomGenerator.JumpableGenerator generator = jumpable(rng);
+
+        assertEquals(Math.pow(2, 128), generator.jumpDistance());
+        generator.jump();
+        expected.jumpPowerOfTwo(128);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(expected.nextInt(), generator.nextInt());
+    }
+
+    /**
+     * Copies must be instances of {@link MTRandom}, in the same state.
+     */
+    public void testCopy() {
+        RandomGenerator.JumpableGenerator generator = jumpable(new MTRandom(42L));
+        generator.nextLong();
+
+        RandomGenerator.JumpableGenerator copy = generator.copy();
+        assertTrue(copy instanceof MTRandom);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(generator.nextInt(), copy.nextInt());
+    }
+
+    /**
+     * The generators of {@code jumps()} and {@code rngs()} must be those that
+     * successive calls to {@link MTRandom#split()} return.
+     */
+    public void testJumps() {
+        MTRandom splits = new MTRandom(7L);
+        RandomGenerator.JumpableGenerator generator = jumpable(new MTRandom(7L));
+
+        List<RandomGenerator> rngs = generator.rngs(3).collect(Collectors.toList());
+        assertEquals(3, rngs.size());
+        for (RandomGenerator rng : rngs) {
+            MTRandom expected = splits.split();
+            for (int i = 0; i < 100; i++)
+                assertEquals(expected.nextInt(), rng.nextInt());
+        }
+        assertEquals(splits.nextInt(), generator.nextInt());
+    }
+
+    /**
+     * The streams of {@link RandomGenerator} must be those of {@link MTRandom},
+     * which produce the values of the matching methods.
+     */
+    public void testStreams() {
+        RandomGenerator generator = jumpable(new MTRandom(1L));
+        MTRandom called = new MTRandom(1L);
+        for (int v : generator.ints(1000, 0, 1000003).toArray())
+            assertEquals(called.nextInt(1000003), v);
+    }
+}